@@ -67,14 +67,35 @@ class ServiceStatusPanel extends React.Component {
     eventBus.enableReconnect(true);
     // open communication with the monitoring server to periodically sync service statuses
     eventBus.onopen = () => {
-      // register an event bus handler to receive messages from backend sent to the address "kry.services"
+      // register an event bus handler to receive messages from backend sent to the address "kry.services", each one
+      // holds the latest status of the services that changed during the last conflation window
       eventBus.registerHandler("kry.services", (error, message) => {
-        console.log(message);
-        const serviceWithStatus = JSON.parse(message.body);
+        const statuses = {};
+        JSON.parse(message.body).services.forEach((status) => {
+          statuses[status.id] = status.currentStatus;
+        });
+        const services = this.state.services;
+        services.forEach((svc) => {
+          if (statuses[svc.id] !== undefined) {
+            svc.currentStatus = statuses[svc.id];
+          }
+        });
+
+        this.setState({
+          services,
+        });
+      });
+      // snapshot of all statuses, periodic and sent after the server dropped updates this dashboard was too slow
+      // to receive, used to resync transitions missed while disconnected or lagging
+      eventBus.registerHandler("kry.services.snapshot", (error, message) => {
+        const statuses = {};
+        JSON.parse(message.body).services.forEach((status) => {
+          statuses[status.id] = status.currentStatus;
+        });
         const services = this.state.services;
         services.forEach((svc) => {
-          if (svc.id === serviceWithStatus.id) {
-            svc.currentStatus = serviceWithStatus.currentStatus;
+          if (statuses[svc.id] !== undefined) {
+            svc.currentStatus = statuses[svc.id];
           }
         });
 
@@ -2,8 +2,18 @@ import axios from "axios";
 
 const baseURL = "http://localhost:8090/services";
 
-function getAllServices() {
-  return axios.get(baseURL);
+// the services are served in pages, follow the cursor until the last one
+async function getAllServices() {
+  const services = [];
+  let after = 0;
+  for (;;) {
+    const res = await axios.get(baseURL, { params: { after, limit: 1000 } });
+    services.push(...res.data.services);
+    if (res.data.next === undefined) {
+      return { data: { services } };
+    }
+    after = res.data.next;
+  }
 }
 
 function createService(data) {
@@ -5,6 +5,7 @@ plugins {
   java
   application
   id("com.github.johnrengelman.shadow") version "7.0.0"
+  id("me.champeau.jmh") version "0.6.6"
 }
 
 group = "com.kry"
@@ -18,7 +19,7 @@ val vertxVersion = "4.1.4"
 val junitJupiterVersion = "5.7.0"
 
 val mainVerticleName = "com.kry.servicepoller.PollerInitializer"
-val launcherClassName = "io.vertx.core.Launcher"
+val launcherClassName = "com.kry.servicepoller.PollerLauncher"
 
 val watchForChange = "src/**/*"
 val doOnChange = "${projectDir}/gradlew classes"
@@ -32,11 +33,15 @@ dependencies {
   implementation("io.vertx:vertx-core:$vertxVersion")
   implementation("io.vertx:vertx-web:$vertxVersion")
   implementation("io.vertx:vertx-jdbc-client:$vertxVersion")
+  implementation("io.vertx:vertx-mysql-client:$vertxVersion")
   implementation("io.vertx:vertx-web-client:$vertxVersion")
   implementation("io.vertx:vertx-circuit-breaker:$vertxVersion")
   implementation("io.vertx:vertx-config:$vertxVersion")
   implementation("io.vertx:vertx-web-validation:$vertxVersion")
   implementation("io.vertx:vertx-json-schema:$vertxVersion")
+  implementation("io.vertx:vertx-micrometer-metrics:$vertxVersion")
+  implementation("io.vertx:vertx-hazelcast:$vertxVersion")
+  implementation("io.micrometer:micrometer-registry-prometheus:1.7.3")
   implementation("mysql:mysql-connector-java:8.0.26")
   implementation("io.agroal:agroal-api:1.12")
   implementation("io.agroal:agroal-pool:1.12")
@@ -45,6 +50,10 @@ dependencies {
   testImplementation("io.vertx:vertx-junit5:$vertxVersion")
   testImplementation("org.junit.jupiter:junit-jupiter:$junitJupiterVersion")
   testImplementation("com.h2database:h2:1.4.200")
+  // FakeClusterManager, to run several clustered nodes in one JVM
+  testImplementation("io.vertx:vertx-core:$vertxVersion:tests")
+
+  jmh("com.h2database:h2:1.4.200")
 
 }
 
@@ -68,6 +77,50 @@ tasks.withType<Test> {
   }
 }
 
+jmh {
+  // report allocation rate next to throughput, e.g. `./gradlew jmh -Pjmh.includes=ProbeClientBenchmark`
+  profilers.set(listOf("gc"))
+  fork.set(1)
+  warmupIterations.set(3)
+  iterations.set(5)
+  // machine readable results to compare runs, e.g. with jmh.morethan.io
+  resultFormat.set("JSON")
+  resultsFile.set(project.file(project.findProperty("jmh.resultsFile")?.toString() ?: "build/reports/jmh/results.json"))
+  if (project.hasProperty("jmh.includes")) {
+    includes.set(listOf(project.property("jmh.includes").toString()))
+  }
+}
+
 tasks.withType<JavaExec> {
   args = listOf("run", mainVerticleName, "--redeploy=$watchForChange", "--launcher-class=$launcherClassName", "--on-redeploy=$doOnChange")
 }
+
+// simulated fleet for load and soak tests, sized with e.g. `-Dsimulator.services=10000`
+val simulatorProperties = System.getProperties().stringPropertyNames()
+  .filter { it.startsWith("simulator.") }
+  .associateWith { System.getProperty(it) }
+
+tasks.register<JavaExec>("runFleet") {
+  description = "Runs the simulated service fleet"
+  classpath = sourceSets["main"].runtimeClasspath
+  mainClass.set("com.kry.servicepoller.backend.simulators.FleetSimulator")
+  systemProperties(simulatorProperties)
+}
+
+tasks.register<JavaExec>("seedFleet") {
+  description = "Registers the simulated service fleet in the configured DB"
+  classpath = sourceSets["main"].runtimeClasspath
+  mainClass.set("com.kry.servicepoller.backend.simulators.FleetSeeder")
+  systemProperties(simulatorProperties)
+}
+
+// end-to-end load test over growing fleets, e.g. `./gradlew loadTest -Dloadtest.services=1000,10000,50000`; the
+// application properties can be overridden the same way, e.g. `-Dpoller.instances=2`
+tasks.register<JavaExec>("loadTest") {
+  description = "Runs the end-to-end load test, the report is written to build/reports/loadtest/report.json"
+  classpath = sourceSets["jmh"].runtimeClasspath
+  mainClass.set("com.kry.servicepoller.LoadTestHarness")
+  systemProperties(System.getProperties().stringPropertyNames()
+    .filter { listOf("loadtest.", "simulator.", "poller.", "db.", "history.", "registry.").any(it::startsWith) }
+    .associateWith { System.getProperty(it) })
+}
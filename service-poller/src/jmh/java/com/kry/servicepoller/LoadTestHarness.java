@@ -0,0 +1,497 @@
+package com.kry.servicepoller;
+
+import com.kry.servicepoller.backend.simulators.FleetSeeder;
+import com.kry.servicepoller.backend.simulators.FleetSimulator;
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.repositories.JDBCServiceRepository;
+import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test of the whole application ({@link PollerInitializer}) on H2 against a {@link FleetSimulator}
+ * fleet, run for each of the configured fleet sizes. Per size, it reports how long a full probe cycle takes, how old
+ * the last probe of the services gets, how far the {@code current_status} column lags behind the probes, how long a
+ * status flip of a simulated service takes to be published on the event bus and to reach the DB, and the CPU and heap
+ * used. The JSON report tells the fleet size at which the poller stops keeping up with its interval, e.g.
+ * {@code ./gradlew loadTest -Dloadtest.services=1000,10000,50000 -Dloadtest.duration.seconds=120}.
+ * <p>
+ * The simulator runs in the same JVM on a Vert.x instance of its own, the CPU figures include it.
+ */
+public class LoadTestHarness {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTestHarness.class);
+    private static final String SERVICES_CONFIG = "loadtest.services";
+    private static final String WARMUP_CONFIG = "loadtest.warmup.seconds";
+    private static final String DURATION_CONFIG = "loadtest.duration.seconds";
+    private static final String FLIPS_CONFIG = "loadtest.flips.per.second";
+    private static final String SAMPLE_INTERVAL_CONFIG = "loadtest.sample.interval.ms";
+    private static final String DB_CHECK_INTERVAL_CONFIG = "loadtest.db.check.interval.ms";
+    private static final String REPORT_CONFIG = "loadtest.report";
+    private static final String POLLER_INTERVAL_CONFIG = "poller.interval.ms";
+    private static final String FLEET_NAME_PREFIX = "fleet-";
+    private static final long MB = 1024 * 1024;
+
+    private LoadTestHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties properties = properties();
+        JsonArray runs = new JsonArray();
+        for (String size : properties.getProperty(SERVICES_CONFIG, "1000,5000,10000,20000").split(",")) {
+            int services = Integer.parseInt(size.trim());
+            JsonObject run;
+            try {
+                run = run(properties, services);
+            } catch (Exception e) {
+                // a larger fleet would not do better, the sweep stops at the first size the application cannot run
+                LOG.error("load test of " + services + " services failed", e);
+                runs.add(new JsonObject().put("services", services).put("error", String.valueOf(e)));
+                break;
+            }
+            LOG.info("load test of " + services + " services: " + run.encode());
+            runs.add(run);
+        }
+        JsonObject report = new JsonObject()
+                .put("timestamp", System.currentTimeMillis())
+                .put("cores", Runtime.getRuntime().availableProcessors())
+                .put("maxHeapMb", Runtime.getRuntime().maxMemory() / MB)
+                .put("pollerIntervalMs", Long.parseLong(properties.getProperty(POLLER_INTERVAL_CONFIG)))
+                .put("durationSeconds", Long.parseLong(properties.getProperty(DURATION_CONFIG, "60")))
+                .put("runs", runs);
+        Path path = Paths.get(properties.getProperty(REPORT_CONFIG, "build/reports/loadtest/report.json"));
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Files.write(path, report.encodePrettily().getBytes(StandardCharsets.UTF_8));
+        LOG.info("load test report written to " + path.toAbsolutePath());
+    }
+
+    /**
+     * Loads the application properties, the system properties of the same names and the {@code loadtest.*} and
+     * {@code simulator.*} ones take precedence.
+     */
+    private static Properties properties() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream is = LoadTestHarness.class.getClassLoader().getResourceAsStream("application.properties")) {
+            properties.load(is);
+        }
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> properties.containsKey(name) || name.startsWith("loadtest.")
+                        || name.startsWith("simulator."))
+                .forEach(name -> properties.setProperty(name, System.getProperty(name)));
+        return properties;
+    }
+
+    private static JsonObject run(Properties base, int services) throws Exception {
+        Properties properties = new Properties();
+        properties.putAll(base);
+        properties.setProperty("simulator.services", String.valueOf(services));
+        properties.setProperty(ServiceRepository.DB_CLIENT_CONFIG, "jdbc");
+        properties.setProperty("db.url", "jdbc:h2:mem:loadtest" + services
+                + ";DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE");
+        properties.setProperty("db.username", "sa");
+        properties.setProperty("db.password", "");
+        properties.setProperty("db.init.script.path", "h2-init.sql");
+        long warmup = Long.parseLong(properties.getProperty(WARMUP_CONFIG, "10"));
+        long duration = Long.parseLong(properties.getProperty(DURATION_CONFIG, "60"));
+
+        Map<Integer, String> overrides = new ConcurrentHashMap<>();
+        Vertx fleet = Vertx.vertx();
+        Vertx vertx = Vertx.vertx();
+        try {
+            await(fleet.deployVerticle(() -> new FleetSimulator(properties, overrides),
+                    new DeploymentOptions().setInstances(Runtime.getRuntime().availableProcessors())), 60);
+            // the registry of the application is loaded once, so the fleet is registered before it starts; the
+            // in-memory DB lives as long as this pool
+            ServiceRepository dbCon = new JDBCServiceRepository(vertx, properties);
+            await(dbCon.init(), 60);
+            long seedStarted = System.currentTimeMillis();
+            await(FleetSeeder.seed(dbCon, properties, 0), 600);
+            long seedMillis = System.currentTimeMillis() - seedStarted;
+            long startStarted = System.currentTimeMillis();
+            await(vertx.deployVerticle(new PollerInitializer(properties)), 600);
+            long startMillis = System.currentTimeMillis() - startStarted;
+
+            Recorder recorder = new Recorder(dbCon, properties, overrides);
+            await(vertx.deployVerticle(recorder), 600);
+            return await(recorder.result(), warmup + duration + 120)
+                    .put("services", services)
+                    .put("seedMs", seedMillis)
+                    .put("startMs", startMillis);
+        } finally {
+            await(vertx.close(), 60);
+            await(fleet.close(), 60);
+        }
+    }
+
+    private static <T> T await(Future<T> future, long timeoutSeconds) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(timeoutSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Follows the probes and the status changes of the application on the event bus and flips simulated services,
+     * from a single context, then completes its result with the figures of the run.
+     */
+    private static class Recorder extends AbstractVerticle {
+        private final ServiceRepository dbCon;
+        private final Properties properties;
+        private final Map<Integer, String> overrides;
+        private final Promise<JsonObject> result = Promise.promise();
+        private final Histogram cycles = new Histogram();
+        private final Histogram probeStaleness = new Histogram();
+        private final Histogram dbStaleness = new Histogram();
+        private final Histogram eventBusLatency = new Histogram();
+        private final Histogram dbLatency = new Histogram();
+        private final Map<Integer, Flip> flips = new HashMap<>();
+        private final List<Long> timers = new ArrayList<>();
+        private final SplittableRandom random;
+        private final long pollerInterval;
+        // per service id: fleet index, last probed status, time of the last probe and of the last status change
+        private int[] indexes;
+        private ServiceStatus[] statuses;
+        private long[] probedAt;
+        private long[] changedAt;
+        private int services;
+        private boolean measuring;
+        private long measureStart;
+        private long probes;
+        private long cycleStart;
+        private int cycleProbed;
+        private BitSet cycle;
+        private long dbStale;
+        private long dbChecked;
+        private boolean dbCheckInFlight;
+        private double cpuLoadSum;
+        private double cpuLoadMax;
+        private int cpuSamples;
+        private long heapUsedMax;
+        private long gcTimeStart;
+        private long gcCountStart;
+
+        private Recorder(ServiceRepository dbCon, Properties properties, Map<Integer, String> overrides) {
+            this.dbCon = dbCon;
+            this.properties = properties;
+            this.overrides = overrides;
+            this.random = new SplittableRandom(Long.parseLong(properties.getProperty("simulator.seed", "42")));
+            this.pollerInterval = Long.parseLong(properties.getProperty(POLLER_INTERVAL_CONFIG));
+        }
+
+        private Future<JsonObject> result() {
+            return result.future();
+        }
+
+        @Override
+        public void start(Promise<Void> startPromise) {
+            dbCon.getAll().onSuccess(all -> {
+                int maxId = all.stream().mapToInt(Service::getId).max().orElse(0);
+                indexes = new int[maxId + 1];
+                statuses = new ServiceStatus[maxId + 1];
+                probedAt = new long[maxId + 1];
+                changedAt = new long[maxId + 1];
+                cycle = new BitSet(maxId + 1);
+                services = all.size();
+                long now = System.currentTimeMillis();
+                for (Service service : all) {
+                    String index = service.getName().substring(FLEET_NAME_PREFIX.length());
+                    indexes[service.getId()] = Integer.parseInt(index);
+                    // never probed services age from the start of the application
+                    probedAt[service.getId()] = now;
+                    changedAt[service.getId()] = now;
+                }
+                vertx.eventBus().<StatusEvent>localConsumer(StatusEvent.PROBE_ADDRESS, m -> probed(m.body()));
+                vertx.eventBus().<StatusEvent>localConsumer(StatusEvent.ADDRESS, m -> published(m.body()));
+                vertx.setTimer(TimeUnit.SECONDS.toMillis(Long.parseLong(properties.getProperty(WARMUP_CONFIG, "10"))),
+                        l -> measure());
+                startPromise.complete();
+            }).onFailure(startPromise::fail);
+        }
+
+        private void measure() {
+            measuring = true;
+            measureStart = System.currentTimeMillis();
+            cycleStart = measureStart;
+            gcTimeStart = gcTime();
+            gcCountStart = gcCount();
+            long flipsPerSecond = Long.parseLong(properties.getProperty(FLIPS_CONFIG, "10"));
+            timers.add(vertx.setPeriodic(Long.parseLong(properties.getProperty(SAMPLE_INTERVAL_CONFIG, "1000")),
+                    l -> sample()));
+            timers.add(vertx.setPeriodic(Long.parseLong(properties.getProperty(DB_CHECK_INTERVAL_CONFIG, "5000")),
+                    l -> checkDB()));
+            if (flipsPerSecond > 0) {
+                timers.add(vertx.setPeriodic(1000, l -> flip(flipsPerSecond)));
+            }
+            timers.add(vertx.setPeriodic(100, l -> checkFlips()));
+            vertx.setTimer(TimeUnit.SECONDS.toMillis(Long.parseLong(properties.getProperty(DURATION_CONFIG, "60"))),
+                    l -> finish());
+        }
+
+        private void probed(StatusEvent event) {
+            int id = event.getId();
+            if (id >= statuses.length) {
+                return;
+            }
+            long now = event.getTimestamp();
+            if (statuses[id] != event.getStatus()) {
+                statuses[id] = event.getStatus();
+                changedAt[id] = now;
+            }
+            probedAt[id] = now;
+            if (!measuring) {
+                return;
+            }
+            probes++;
+            if (!cycle.get(id)) {
+                cycle.set(id);
+                if (++cycleProbed == services) {
+                    cycles.record(now - cycleStart);
+                    cycleStart = now;
+                    cycleProbed = 0;
+                    cycle.clear();
+                }
+            }
+        }
+
+        private void published(StatusEvent event) {
+            Flip flip = flips.get(event.getId());
+            if (flip != null && flip.publishedAt == 0 && event.getStatus() == flip.target) {
+                flip.publishedAt = System.currentTimeMillis();
+                eventBusLatency.record(flip.publishedAt - flip.flippedAt);
+            }
+        }
+
+        /**
+         * Forces the opposite of the last probed status on a few services which were never flipped.
+         */
+        private void flip(long count) {
+            if (statuses.length < 2) {
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                for (int attempt = 0; attempt < 10; attempt++) {
+                    int id = 1 + random.nextInt(statuses.length - 1);
+                    if (statuses[id] != null && !overrides.containsKey(indexes[id])) {
+                        ServiceStatus target = statuses[id] == ServiceStatus.OK ? ServiceStatus.FAIL : ServiceStatus.OK;
+                        flips.put(id, new Flip(target, System.currentTimeMillis()));
+                        overrides.put(indexes[id], target.toString());
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reads the status of the flipped services in the DB until it shows the flip.
+         */
+        private void checkFlips() {
+            for (Map.Entry<Integer, Flip> entry : flips.entrySet()) {
+                int id = entry.getKey();
+                Flip flip = entry.getValue();
+                if (flip.persistedAt != 0 || flip.checking) {
+                    continue;
+                }
+                flip.checking = true;
+                dbCon.get(id).onComplete(ar -> {
+                    flip.checking = false;
+                    if (ar.succeeded() && ar.result() != null && ar.result().getCurrentStatus() == flip.target
+                            && flip.persistedAt == 0) {
+                        flip.persistedAt = System.currentTimeMillis();
+                        dbLatency.record(flip.persistedAt - flip.flippedAt);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Compares the {@code current_status} column of every service with its last probed status, a differing
+         * status is as old as the status change it misses.
+         */
+        private void checkDB() {
+            if (dbCheckInFlight) {
+                return;
+            }
+            dbCheckInFlight = true;
+            dbCon.getAll().onComplete(ar -> {
+                dbCheckInFlight = false;
+                if (ar.failed() || !measuring) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                for (Service service : ar.result()) {
+                    int id = service.getId();
+                    if (id >= statuses.length || statuses[id] == null) {
+                        continue;
+                    }
+                    dbChecked++;
+                    if (service.getCurrentStatus() != statuses[id]) {
+                        dbStale++;
+                        dbStaleness.record(now - changedAt[id]);
+                    } else {
+                        dbStaleness.record(0);
+                    }
+                }
+            });
+        }
+
+        private void sample() {
+            long now = System.currentTimeMillis();
+            for (int id = 1; id < probedAt.length; id++) {
+                if (probedAt[id] != 0) {
+                    probeStaleness.record(now - probedAt[id]);
+                }
+            }
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+                if (load >= 0) {
+                    cpuLoadSum += load;
+                    cpuLoadMax = Math.max(cpuLoadMax, load);
+                    cpuSamples++;
+                }
+            }
+            heapUsedMax = Math.max(heapUsedMax, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        }
+
+        private void finish() {
+            measuring = false;
+            timers.forEach(vertx::cancelTimer);
+            long now = System.currentTimeMillis();
+            long elapsed = Math.max(1, now - measureStart);
+            long pendingCycle = now - cycleStart;
+            long unpublished = flips.values().stream().filter(flip -> flip.publishedAt == 0).count();
+            long unpersisted = flips.values().stream().filter(flip -> flip.persistedAt == 0).count();
+            // keeping up: a full cycle, including the one in flight, takes at most two intervals
+            boolean keepsUp = cycles.count() > 0 && cycles.percentile(0.99) <= 2 * pollerInterval
+                    && pendingCycle <= 2 * pollerInterval;
+            result.complete(new JsonObject()
+                    .put("keepsUp", keepsUp)
+                    .put("durationMs", elapsed)
+                    .put("probes", probes)
+                    .put("probesPerSecond", probes * 1000.0 / elapsed)
+                    .put("expectedProbesPerSecond", services * 1000.0 / pollerInterval)
+                    .put("cycleMs", cycles.toJson()
+                            .put("pending", pendingCycle)
+                            .put("pendingProbed", cycleProbed))
+                    .put("probeStalenessMs", probeStaleness.toJson())
+                    .put("dbStalenessMs", dbStaleness.toJson()
+                            .put("staleFraction", dbChecked > 0 ? (double) dbStale / dbChecked : 0))
+                    .put("propagation", new JsonObject()
+                            .put("flips", flips.size())
+                            .put("eventBusMs", eventBusLatency.toJson().put("missing", unpublished))
+                            .put("dbMs", dbLatency.toJson().put("missing", unpersisted)))
+                    .put("cpu", new JsonObject()
+                            .put("processLoadMean", cpuSamples > 0 ? cpuLoadSum / cpuSamples : 0)
+                            .put("processLoadMax", cpuLoadMax))
+                    .put("heapUsedMaxMb", heapUsedMax / MB)
+                    .put("gcTimeMs", gcTime() - gcTimeStart)
+                    .put("gcCount", gcCount() - gcCountStart));
+        }
+
+        private static long gcTime() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(time -> time > 0).sum();
+        }
+
+        private static long gcCount() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(count -> count > 0).sum();
+        }
+    }
+
+    private static class Flip {
+        private final ServiceStatus target;
+        private final long flippedAt;
+        private long publishedAt;
+        private long persistedAt;
+        private boolean checking;
+
+        private Flip(ServiceStatus target, long flippedAt) {
+            this.target = target;
+            this.flippedAt = flippedAt;
+        }
+    }
+
+    /**
+     * Histogram of non-negative millisecond values with a relative error under 1%, in a fixed few KB whatever the
+     * number of values.
+     */
+    static final class Histogram {
+        // 128 buckets per power of two above 128, one per value below
+        private static final int SUB_BUCKET_BITS = 7;
+        private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS];
+        private long count;
+        private long max;
+        private double sum;
+
+        void record(long value) {
+            long positive = Math.max(0, value);
+            counts[bucket(positive)]++;
+            count++;
+            sum += positive;
+            max = Math.max(max, positive);
+        }
+
+        long count() {
+            return count;
+        }
+
+        long percentile(double quantile) {
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) {
+                    return Math.min(max, value(bucket));
+                }
+            }
+            return max;
+        }
+
+        JsonObject toJson() {
+            return new JsonObject()
+                    .put("count", count)
+                    .put("mean", count > 0 ? sum / count : 0)
+                    .put("p50", count > 0 ? percentile(0.5) : 0)
+                    .put("p90", count > 0 ? percentile(0.9) : 0)
+                    .put("p99", count > 0 ? percentile(0.99) : 0)
+                    .put("max", max);
+        }
+
+        private static int bucket(long value) {
+            int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+            return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+        }
+
+        // middle of the bucket
+        private static long value(int bucket) {
+            int shift = bucket >>> SUB_BUCKET_BITS;
+            long lowest = (long) (bucket & ((1 << SUB_BUCKET_BITS) - 1)) << shift;
+            return lowest + ((1L << shift) >>> 1);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.kry.servicepoller;
+
+import com.kry.servicepoller.cluster.ClusterShard;
+import com.kry.servicepoller.codecs.StatusEventCodec;
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.metrics.ProbeMetrics;
+import com.kry.servicepoller.registry.ServiceRegistry;
+import com.kry.servicepoller.repositories.JDBCServiceRepository;
+import com.kry.servicepoller.repositories.ServiceRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test of the poller scaling over event loops. Far more probes are scheduled than a single instance can run, so
+ * the {@code probes} counter reports the probe capacity for the given number of poller instances; it should grow
+ * nearly linearly up to the number of cores left over by the backend. The backend runs on its own Vert.x instance
+ * with one server verticle per core.
+ * The trial fails unless the load was actually spread: every service scheduled once, each instance holding close to
+ * its even share, every instance ticking and probes completing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PollerScalingBenchmark {
+    private static final int PORT = 9290;
+    private static final int SERVICES = 20_000;
+    @Param({"1", "2", "4", "8"})
+    public int instances;
+    private Vertx backend;
+    private Vertx vertx;
+    private ServiceRepository dbCon;
+    private MeterRegistry meterRegistry;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Probes {
+        public long probes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        backend = Vertx.vertx();
+        await(backend.deployVerticle(BackendVerticle::new,
+                new DeploymentOptions().setInstances(Runtime.getRuntime().availableProcessors())));
+
+        vertx = Vertx.vertx();
+        StatusEventCodec.register(vertx.eventBus());
+        dbCon = new JDBCServiceRepository(vertx,
+                ServiceRepositoryBenchmark.h2Properties("pollerscalingbench" + instances));
+        await(dbCon.init());
+        List<Future> inserts = new ArrayList<>(SERVICES);
+        for (int i = 1; i <= SERVICES; i++) {
+            Service service = new Service();
+            service.setName("Service " + i);
+            service.setUrl(new URL("http://localhost:" + PORT + "/health"));
+            inserts.add(dbCon.insert(service));
+        }
+        await(CompositeFuture.all(inserts));
+
+        Properties properties = new Properties();
+        properties.put("poller.interval.ms", "100");
+        properties.put("poller.scheduler.tick.ms", "10");
+        properties.put("poller.http.pool.size", "32");
+        properties.put("poller.http.max.wait.queue", "-1");
+        // queued probes must not open the circuits, the load test is about throughput
+        properties.put("poller.breaker.timeout.ms", "30000");
+        properties.put("poller.breaker.max.failures", "1000000");
+        ServiceRegistry registry = new ServiceRegistry(vertx, dbCon, properties);
+        await(registry.load());
+        meterRegistry = new SimpleMeterRegistry();
+        ProbeMetrics probeMetrics = new ProbeMetrics(meterRegistry, instances, false);
+        ClusterShard shard = new ClusterShard(vertx, null, properties);
+        AtomicInteger instance = new AtomicInteger();
+        await(vertx.deployVerticle(() -> new ServicePollerVerticle(registry, properties, probeMetrics, shard,
+                instance.getAndIncrement(), instances), new DeploymentOptions().setInstances(instances)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try {
+            assertLoadIsSpread();
+        } finally {
+            await(vertx.close());
+            await(backend.close());
+        }
+    }
+
+    @Benchmark
+    public void poll(Probes counters) throws InterruptedException {
+        long before = completedProbes();
+        Thread.sleep(100);
+        counters.probes += completedProbes() - before;
+    }
+
+    private void assertLoadIsSpread() {
+        int scheduled = 0;
+        for (int i = 0; i < instances; i++) {
+            String instance = String.valueOf(i);
+            int share = (int) meterRegistry.get("poller.scheduler.services").tag("instance", instance).gauge().value();
+            if (Math.abs(share - SERVICES / instances) > SERVICES / instances / 10) {
+                throw new IllegalStateException("poller " + i + " schedules " + share + " services, expected about "
+                        + SERVICES / instances);
+            }
+            scheduled += share;
+            Timer lag = meterRegistry.get("poller.scheduler.lag").tag("instance", instance).timer();
+            if (lag.count() == 0) {
+                throw new IllegalStateException("poller " + i + " never ticked");
+            }
+        }
+        if (scheduled != SERVICES) {
+            throw new IllegalStateException(scheduled + " services scheduled instead of " + SERVICES);
+        }
+        if (completedProbes() == 0) {
+            throw new IllegalStateException("no probe completed");
+        }
+    }
+
+    // probes which got a response, the failed ones (e.g. wait queue timeouts) are not counted
+    private long completedProbes() {
+        double completed = 0;
+        for (Counter counter : meterRegistry.find("poller.probe.outcomes").tag("outcome", "ok").counters()) {
+            completed += counter.count();
+        }
+        for (Counter counter : meterRegistry.find("poller.probe.outcomes").tag("outcome", "fail").counters()) {
+            completed += counter.count();
+        }
+        return (long) completed;
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(120, TimeUnit.SECONDS);
+    }
+
+    public static class BackendVerticle extends AbstractVerticle {
+        @Override
+        public void start(Promise<Void> startPromise) {
+            vertx.createHttpServer()
+                    .requestHandler(req -> req.response().putHeader("Content-Type", "text/plain").end("OK"))
+                    .listen(PORT)
+                    .<Void>mapEmpty()
+                    .onComplete(startPromise);
+        }
+    }
+}
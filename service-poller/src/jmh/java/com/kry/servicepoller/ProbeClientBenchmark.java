@@ -0,0 +1,89 @@
+package com.kry.servicepoller;
+
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.polling.ProbeTarget;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares probing with a client created per probe (the previous poller behaviour) against the shared pooled client.
+ * Run with the gc profiler enabled in the build to get the allocation rate of both paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProbeClientBenchmark {
+    private static final int PORT = 9190;
+    private static final int PROBES_PER_ROUND = 100;
+    private Vertx vertx;
+    private HttpServer server;
+    private HttpClient sharedClient;
+    private ProbeTarget target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        server = vertx.createHttpServer()
+                .requestHandler(req -> req.response().putHeader("Content-Type", "text/plain").end("OK"));
+        server.listen(PORT).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        sharedClient = vertx.createHttpClient(ServicePollerVerticle.httpClientOptions(new Properties()));
+        Service service = new Service();
+        service.setId(1);
+        service.setUrl(new URL("http://localhost:" + PORT + "/health"));
+        target = ProbeTarget.of(service, 3000, 2000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        sharedClient.close();
+        server.close();
+        vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROBES_PER_ROUND)
+    public Object clientPerProbe() throws Exception {
+        List<Future> probes = new ArrayList<>(PROBES_PER_ROUND);
+        for (int i = 0; i < PROBES_PER_ROUND; i++) {
+            // the old poller never closed these clients, closing them keeps the benchmark from leaking sockets
+            HttpClient client = vertx.createHttpClient();
+            probes.add(ServicePollerVerticle.probe(client, target).onComplete(ar -> client.close()));
+        }
+        return await(CompositeFuture.join(probes));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROBES_PER_ROUND)
+    public Object sharedClient() throws Exception {
+        List<Future> probes = new ArrayList<>(PROBES_PER_ROUND);
+        for (int i = 0; i < PROBES_PER_ROUND; i++) {
+            probes.add(ServicePollerVerticle.probe(sharedClient, target));
+        }
+        return await(CompositeFuture.join(probes));
+    }
+
+    private static Object await(Future<?> future) throws Exception {
+        CompletableFuture<?> completable = future.toCompletionStage().toCompletableFuture();
+        return completable.get(30, TimeUnit.SECONDS);
+    }
+}
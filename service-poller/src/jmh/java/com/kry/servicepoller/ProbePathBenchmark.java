@@ -0,0 +1,107 @@
+package com.kry.servicepoller;
+
+import com.kry.servicepoller.backend.simulators.ServiceA;
+import com.kry.servicepoller.backend.simulators.ServiceB;
+import com.kry.servicepoller.backend.simulators.ServiceC;
+import com.kry.servicepoller.codecs.StatusEventCodec;
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.registry.ServiceRegistry;
+import com.kry.servicepoller.repositories.JDBCServiceRepository;
+import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the full probe path of {@link ServicePollerVerticle}: timing wheel, circuit breaker, shared HTTP client
+ * against the simulator verticles and the publication of the probe result. Every service is polled each 100 ms, so
+ * the scheduled rate is ten probes per second per service; a result below that means the poller does not keep up.
+ * Probes rejected by an open circuit are not counted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProbePathBenchmark {
+    private static final int PROBES_PER_ROUND = 1000;
+    private static final int[] SIMULATOR_PORTS = {9090, 9091, 9092};
+    @Param({"300", "3000"})
+    public int services;
+    private Vertx vertx;
+    private ServiceRepository dbCon;
+    private final AtomicReference<CountDownLatch> round = new AtomicReference<>(new CountDownLatch(0));
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        StatusEventCodec.register(vertx.eventBus());
+        dbCon = new JDBCServiceRepository(vertx, ServiceRepositoryBenchmark.h2Properties("probepathbench" + services));
+        await(dbCon.init());
+        List<Future> inserts = new ArrayList<>(services);
+        for (int i = 1; i <= services; i++) {
+            Service service = new Service();
+            service.setName("Service " + i);
+            service.setUrl(new URL("http://localhost:" + SIMULATOR_PORTS[i % SIMULATOR_PORTS.length] + "/health"));
+            inserts.add(dbCon.insert(service));
+        }
+        CompositeFuture.all(inserts).toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+
+        vertx.eventBus().<StatusEvent>localConsumer(StatusEvent.PROBE_ADDRESS, message -> {
+            if (message.body().getCircuitState() == CircuitBreakerState.CLOSED) {
+                round.get().countDown();
+            }
+        });
+        await(CompositeFuture.all(
+                vertx.deployVerticle(ServiceA.class.getName()),
+                vertx.deployVerticle(ServiceB.class.getName()),
+                vertx.deployVerticle(ServiceC.class.getName())));
+
+        Properties properties = new Properties();
+        properties.put("poller.interval.ms", "100");
+        properties.put("poller.scheduler.tick.ms", "10");
+        properties.put("poller.http.pool.size", "16");
+        ServiceRegistry registry = new ServiceRegistry(vertx, dbCon, properties);
+        await(registry.load());
+        await(vertx.deployVerticle(new ServicePollerVerticle(registry, properties)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        await(vertx.close());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROBES_PER_ROUND)
+    public long probes() throws Exception {
+        CountDownLatch latch = new CountDownLatch(PROBES_PER_ROUND);
+        round.set(latch);
+        if (!latch.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("probes stalled, remaining: " + latch.getCount());
+        }
+        return latch.getCount();
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,124 @@
+package com.kry.servicepoller;
+
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JDBC and the non-blocking MySQL clients of the repository on the status update and get all services
+ * paths, with {@value #CONCURRENCY} queries in flight. Each client runs with its own sizing: one connection and worker
+ * thread per concurrent query for JDBC, a few pipelined connections for MySQL. Needs a MySQL DB, by default
+ * {@code SERVICE_POLLER_BENCH} on localhost with the credentials of {@code application.properties}, or the one given
+ * by the {@code bench.db.url} system property.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RepositoryClientBenchmark {
+    private static final int SERVICES = 1000;
+    private static final int CONCURRENCY = 64;
+    @Param({"jdbc", "mysql"})
+    public String client;
+    private Vertx vertx;
+    private Context context;
+    private ServiceRepository dbCon;
+    private int[] ids;
+    private boolean ok;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("application.properties")) {
+            properties.load(is);
+        }
+        properties.put("db.url", System.getProperty("bench.db.url",
+                "jdbc:mysql://localhost:3306/SERVICE_POLLER_BENCH?useSSL=false&serverTimezone=UTC"));
+        properties.put("db.client", client);
+        properties.put("db.poolsize", "jdbc".equals(client) ? String.valueOf(CONCURRENCY) : "8");
+        properties.put("db.worker.poolsize", String.valueOf(CONCURRENCY));
+
+        vertx = Vertx.vertx();
+        context = vertx.getOrCreateContext();
+        dbCon = ServiceRepository.create(vertx, properties);
+        await(dbCon.init());
+        // both clients share the DB, the services are only inserted by the first trial
+        List<Service> services = await(dbCon.getAll());
+        if (services.size() < SERVICES) {
+            List<Future> inserts = new ArrayList<>(SERVICES);
+            for (int i = services.size() + 1; i <= SERVICES; i++) {
+                Service service = new Service();
+                service.setName("Service " + i);
+                service.setUrl(new URL("http://localhost:9090/health?id=" + i));
+                inserts.add(dbCon.insert(service));
+            }
+            await(CompositeFuture.all(inserts));
+            services = await(dbCon.getAll());
+        }
+        ids = services.stream().mapToInt(Service::getId).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        await(vertx.close());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENCY)
+    public CompositeFuture updateStatus() throws Exception {
+        ok = !ok;
+        ServiceStatus status = ok ? ServiceStatus.OK : ServiceStatus.FAIL;
+        return concurrently(i -> dbCon.updateStatus(ids[i], status));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENCY)
+    public CompositeFuture getAll() throws Exception {
+        return concurrently(i -> dbCon.getAll());
+    }
+
+    /**
+     * Starts {@value #CONCURRENCY} queries from the event loop, as the verticles do, and waits for all of them.
+     */
+    private CompositeFuture concurrently(Query query) throws Exception {
+        Promise<CompositeFuture> done = Promise.promise();
+        context.runOnContext(v -> {
+            List<Future> queries = new ArrayList<>(CONCURRENCY);
+            for (int i = 0; i < CONCURRENCY; i++) {
+                queries.add(query.run(i));
+            }
+            CompositeFuture.all(queries).onComplete(done);
+        });
+        return await(done.future());
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+    }
+
+    private interface Query {
+        Future<?> run(int i);
+    }
+}
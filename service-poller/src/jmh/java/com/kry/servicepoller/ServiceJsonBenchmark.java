@@ -0,0 +1,74 @@
+package com.kry.servicepoller;
+
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the JSON mapping of services: a single service as received by the add and update endpoints, and the whole
+ * list as served by the get all services endpoint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ServiceJsonBenchmark {
+    @Param({"100", "1000"})
+    public int services;
+    private Service service;
+    private String serviceJson;
+    private List<Service> serviceList;
+
+    @Setup
+    public void setUp() throws Exception {
+        service = service(1);
+        serviceJson = Json.encode(service);
+        serviceList = new ArrayList<>(services);
+        for (int i = 1; i <= services; i++) {
+            serviceList.add(service(i));
+        }
+    }
+
+    @Benchmark
+    public String encode() {
+        return Json.encode(service);
+    }
+
+    @Benchmark
+    public Service decode() {
+        return Json.decodeValue(serviceJson, Service.class);
+    }
+
+    @Benchmark
+    public String encodeAll() {
+        // same shape as the get all services response
+        JsonArray servicesJsonArray = new JsonArray();
+        serviceList.forEach(servicesJsonArray::add);
+        return Json.encode(new JsonObject().put("services", servicesJsonArray));
+    }
+
+    private static Service service(int id) throws Exception {
+        Service service = new Service(id, "Service " + id, new URL("http://localhost:9090/health?id=" + id),
+                new Date(), ServiceStatus.OK);
+        service.setCircuitState(CircuitBreakerState.CLOSED);
+        service.setPollIntervalMs(3000);
+        service.setExpectedStatusCode(200);
+        return service;
+    }
+}
@@ -0,0 +1,74 @@
+package com.kry.servicepoller;
+
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.repositories.JDBCServiceRepository;
+import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ServiceRepository#getAll()} against an in-memory H2 DB, i.e. the query plus the row to service
+ * mapping done for every reconciliation and every get all services request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ServiceRepositoryBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int services;
+    private Vertx vertx;
+    private ServiceRepository dbCon;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        dbCon = new JDBCServiceRepository(vertx, h2Properties("repositorybench" + services));
+        dbCon.init().toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+        List<Future> inserts = new ArrayList<>(services);
+        for (int i = 1; i <= services; i++) {
+            Service service = new Service();
+            service.setName("Service " + i);
+            service.setUrl(new URL("http://localhost:9090/health?id=" + i));
+            inserts.add(dbCon.insert(service));
+        }
+        CompositeFuture.all(inserts).toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        // closing Vert.x undeploys the repository and closes its pool
+        vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public List<Service> getAll() throws Exception {
+        return dbCon.getAll().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+
+    static Properties h2Properties(String dbName) {
+        Properties properties = new Properties();
+        properties.put("db.url", "jdbc:h2:mem:" + dbName + ";DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE");
+        properties.put("db.username", "sa");
+        properties.put("db.password", "");
+        properties.put("db.poolsize", "10");
+        properties.put("db.init.script.path", "h2-init.sql");
+        return properties;
+    }
+}
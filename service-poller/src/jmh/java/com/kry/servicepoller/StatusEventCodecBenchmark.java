@@ -0,0 +1,58 @@
+package com.kry.servicepoller;
+
+import com.kry.servicepoller.codecs.StatusEventCodec;
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.URL;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the previous JSON status message (encode on the poller, decode on the DB writer) with the status event
+ * codec, both for local delivery and for the clustered wire form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StatusEventCodecBenchmark {
+    private final StatusEventCodec codec = new StatusEventCodec();
+    private Service service;
+    private StatusEvent event;
+
+    @Setup
+    public void setUp() throws Exception {
+        service = new Service(42, "Service A", new URL("http://localhost:9090/health"), new Date(), ServiceStatus.OK);
+        service.setCircuitState(CircuitBreakerState.CLOSED);
+        event = new StatusEvent(42, ServiceStatus.OK, CircuitBreakerState.CLOSED, System.currentTimeMillis(), 12);
+    }
+
+    @Benchmark
+    public Service jsonRoundTrip() {
+        String message = Json.encode(service);
+        return Json.decodeValue(message, Service.class);
+    }
+
+    @Benchmark
+    public StatusEvent codecLocal() {
+        return codec.transform(event);
+    }
+
+    @Benchmark
+    public StatusEvent codecWireRoundTrip() {
+        Buffer buffer = Buffer.buffer(19);
+        codec.encodeToWire(buffer, event);
+        return codec.decodeFromWire(0, buffer);
+    }
+}
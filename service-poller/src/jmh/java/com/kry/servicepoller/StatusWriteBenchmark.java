@@ -0,0 +1,98 @@
+package com.kry.servicepoller;
+
+import com.kry.servicepoller.codecs.StatusEventCodec;
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.repositories.JDBCServiceRepository;
+import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the status write throughput of {@link DBStatusUpdateVerticle} against an in-memory H2 DB. Each invocation
+ * flips the status of every service, so nothing is coalesced or dropped, and waits until all the rows are written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StatusWriteBenchmark {
+    private static final int SERVICES = 1000;
+    @Param({"50", "500"})
+    public int batchSize;
+    private Vertx vertx;
+    private ServiceRepository dbCon;
+    private long rowsWritten;
+    private boolean ok;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        StatusEventCodec.register(vertx.eventBus());
+        dbCon = new JDBCServiceRepository(vertx,
+                ServiceRepositoryBenchmark.h2Properties("statuswritebench" + batchSize));
+        dbCon.init().toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+        List<Future> inserts = new ArrayList<>(SERVICES);
+        for (int i = 1; i <= SERVICES; i++) {
+            Service service = new Service();
+            service.setName("Service " + i);
+            service.setUrl(new URL("http://localhost:9090/health?id=" + i));
+            inserts.add(dbCon.insert(service));
+        }
+        CompositeFuture.all(inserts).toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+
+        Properties properties = new Properties();
+        properties.put("db.status.batch.size", String.valueOf(batchSize));
+        // flushes are triggered by the batch size, the timer only picks up what is left of an invocation
+        properties.put("db.status.flush.interval.ms", "10");
+        vertx.deployVerticle(new DBStatusUpdateVerticle(dbCon, properties))
+                .toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SERVICES)
+    public long writeStatuses() throws Exception {
+        ok = !ok;
+        ServiceStatus status = ok ? ServiceStatus.OK : ServiceStatus.FAIL;
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= SERVICES; i++) {
+            vertx.eventBus().publish(StatusEvent.ADDRESS,
+                    new StatusEvent(i, status, CircuitBreakerState.CLOSED, now, 10));
+        }
+        rowsWritten += SERVICES;
+        while (metrics().getLong("rowsWritten") < rowsWritten) {
+            Thread.onSpinWait();
+        }
+        return rowsWritten;
+    }
+
+    private JsonObject metrics() throws Exception {
+        return vertx.eventBus().<JsonObject>request(DBStatusUpdateVerticle.METRICS_ADDRESS, null)
+                .toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS).body();
+    }
+}
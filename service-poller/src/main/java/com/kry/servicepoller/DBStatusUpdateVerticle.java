@@ -1,40 +1,230 @@
 package com.kry.servicepoller;
 
+import com.kry.servicepoller.codecs.StatusEventCodec;
 import com.kry.servicepoller.repositories.ServiceRepository;
-import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.metrics.Meters;
+import com.kry.servicepoller.registry.ServiceRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.impl.logging.Logger;
 import io.vertx.core.impl.logging.LoggerFactory;
-import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Verticle responsible for updating the current service status in the DB, upon the polling response from monitoring
- * services.
+ * Verticle responsible for updating the current service status in the DB, upon the status transitions and snapshots
+ * published by the poller. Statuses are buffered and coalesced per service, writes that would not change the status
+ * the DB holds once the writes already submitted land are dropped, and the rest is flushed in batches when the buffer
+ * is full or the flush interval elapses. A single flush runs at a time, so the writes of a service are never
+ * reordered.
  */
 public class DBStatusUpdateVerticle extends AbstractVerticle {
+    // replies with the write-behind buffer statistics, read on the verticle's own event loop
+    public static final String METRICS_ADDRESS = "kry.services.db.metrics";
     private static final Logger LOG = LoggerFactory.getLogger(DBStatusUpdateVerticle.class);
+    private static final String BATCH_SIZE_CONFIG = "db.status.batch.size";
+    private static final String FLUSH_INTERVAL_CONFIG = "db.status.flush.interval.ms";
     private final ServiceRepository dbCon;
+    private final int batchSize;
+    private final long flushInterval;
+    // pending statuses in arrival order and the last status submitted to the DB per service, written or in flight,
+    // both confined to the event loop
+    private final Map<Integer, ServiceStatus> pending = new LinkedHashMap<>();
+    private final Map<Integer, ServiceStatus> submitted = new HashMap<>();
+    private Future<Void> inFlight = Future.succeededFuture();
+    private long received;
+    private long coalesced;
+    private long dropped;
+    private long flushes;
+    private long failedFlushes;
+    private long rowsWritten;
+    private int lastBatchSize;
+    private int maxBatchSize;
+    private long lastFlushLatencyMillis;
+    private long totalFlushLatencyMillis;
+    // meters shared by the writers of the node, each one adding its own counts
+    private AtomicInteger pendingGauge;
+    private int pendingShare;
+    private Counter receivedCounter;
+    private Counter skippedCounter;
+    private Counter rowsWrittenCounter;
+    private Counter failedFlushesCounter;
+    private Timer flushTimer;
 
     public DBStatusUpdateVerticle(ServiceRepository dbCon) {
+        this(dbCon, new Properties());
+    }
+
+    public DBStatusUpdateVerticle(ServiceRepository dbCon, Properties properties) {
         this.dbCon = dbCon;
+        this.batchSize = Integer.parseInt(properties.getProperty(BATCH_SIZE_CONFIG, "500"));
+        this.flushInterval = Long.parseLong(properties.getProperty(FLUSH_INTERVAL_CONFIG, "500"));
     }
 
     @Override
     public void start(Promise<Void> startPromise) {
         EventBus eb = vertx.eventBus();
-        eb.consumer("kry.services", message -> {
-            Service service = Json.decodeValue(message.body().toString(), Service.class);
-            dbCon.updateStatus(service.getId(), service.getCurrentStatus()).onFailure(e -> {
-                LOG.error("error updating the service status in the DB");
-            }).onSuccess(updateResult -> {
-                if (!updateResult) {
-                    LOG.error("service does not exists to update in the DB");
-                }
-            });
+        StatusEventCodec.register(eb);
+        // local consumers, in clustered mode each node writes the statuses of the services it polls
+        eb.<StatusEvent>localConsumer(StatusEvent.ADDRESS,
+                message -> buffer(message.body().getId(), message.body().getStatus()));
+        // snapshots repair statuses whose transition was missed, unchanged ones are dropped by the buffer
+        eb.<String>localConsumer("kry.services.snapshot", message -> new JsonObject(message.body())
+                .getJsonArray("services")
+                .forEach(status -> {
+                    JsonObject statusJson = (JsonObject) status;
+                    buffer(statusJson.getInteger("id"), ServiceStatus.valueOf(statusJson.getString("currentStatus")));
+                }));
+        // a deleted service is forgotten, a status of it still pending would not update anything
+        eb.<JsonObject>localConsumer(ServiceRegistry.CHANGES_ADDRESS, message -> {
+            if (ServiceRegistry.ACTION_REMOVE.equals(message.body().getString("action"))) {
+                int id = message.body().getInteger("id");
+                pending.remove(id);
+                submitted.remove(id);
+                reportPending();
+            }
         });
-    
+        eb.<Void>localConsumer(METRICS_ADDRESS, message -> message.reply(metrics()));
+        registerMeters(Meters.registry());
+        vertx.setPeriodic(flushInterval, l -> flush());
+
         startPromise.complete();
     }
+
+    @Override
+    public void stop(Promise<Void> stopPromise) {
+        // the last statuses are written once the flush in flight completed
+        inFlight.compose(v -> flush()).onComplete(ar -> {
+            pendingGauge.addAndGet(-pendingShare);
+            stopPromise.complete();
+        });
+    }
+
+    private void buffer(int id, ServiceStatus status) {
+        received++;
+        receivedCounter.increment();
+        ServiceStatus previous = pending.remove(id);
+        if (previous != null) {
+            coalesced++;
+            skippedCounter.increment();
+        }
+        if (status == submitted.get(id)) {
+            // the DB holds this status once the submitted writes land, a pending change back and forth cancels out
+            dropped++;
+            skippedCounter.increment();
+            reportPending();
+            return;
+        }
+        pending.put(id, status);
+        reportPending();
+        if (pending.size() >= batchSize && inFlight.isComplete()) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the pending statuses, unless a flush is still in flight.
+     *
+     * @return completed once the statuses are written, or failed to be
+     */
+    private Future<Void> flush() {
+        if (pending.isEmpty() || !inFlight.isComplete()) {
+            return inFlight;
+        }
+        Map<Integer, ServiceStatus> batch = new LinkedHashMap<>(pending);
+        pending.clear();
+        reportPending();
+        submitted.putAll(batch);
+        long startTime = System.currentTimeMillis();
+        Promise<Void> flushed = Promise.promise();
+        inFlight = flushed.future();
+        // the buffers are confined to this verticle, so the DB result is handled back on its context
+        dbCon.updateStatuses(batch).onComplete(ar -> context.runOnContext(v -> {
+            if (ar.succeeded()) {
+                int updated = ar.result();
+                flushes++;
+                rowsWritten += updated;
+                rowsWrittenCounter.increment(updated);
+                lastBatchSize = batch.size();
+                maxBatchSize = Math.max(maxBatchSize, batch.size());
+                lastFlushLatencyMillis = System.currentTimeMillis() - startTime;
+                flushTimer.record(lastFlushLatencyMillis, TimeUnit.MILLISECONDS);
+                totalFlushLatencyMillis += lastFlushLatencyMillis;
+                if (updated < batch.size()) {
+                    LOG.error("services do not exist to update in the DB: " + (batch.size() - updated));
+                }
+            } else {
+                failedFlushes++;
+                failedFlushesCounter.increment();
+                LOG.error("error updating the service statuses in the DB, retrying with the next flush");
+                // the DB may hold anything for these services, and statuses received meanwhile win over the failed
+                batch.forEach(submitted::remove);
+                batch.forEach(pending::putIfAbsent);
+                reportPending();
+            }
+            flushed.complete();
+            if (pending.size() >= batchSize) {
+                flush();
+            }
+        }));
+        return inFlight;
+    }
+
+    private void registerMeters(MeterRegistry registry) {
+        this.pendingGauge = Meters.gauge(registry, "db.status.pending", "Statuses waiting to be written to the DB");
+        this.receivedCounter = Counter.builder("db.status.received")
+                .description("Statuses received by the DB writer")
+                .register(registry);
+        this.skippedCounter = Counter.builder("db.status.skipped")
+                .description("Statuses coalesced or dropped instead of written")
+                .register(registry);
+        this.rowsWrittenCounter = Counter.builder("db.status.rows.written")
+                .description("Service status rows written to the DB")
+                .register(registry);
+        this.failedFlushesCounter = Counter.builder("db.status.flushes.failed")
+                .description("Status flushes that failed and were retried")
+                .register(registry);
+        this.flushTimer = Timer.builder("db.status.flush")
+                .description("Latency of the status batch writes")
+                .register(registry);
+    }
+
+    /**
+     * Brings the share of this writer in the pending gauge in line with its buffer.
+     */
+    private void reportPending() {
+        pendingGauge.addAndGet(pending.size() - pendingShare);
+        pendingShare = pending.size();
+    }
+
+    /**
+     * Returns the write-behind buffer statistics.
+     */
+    public JsonObject metrics() {
+        return new JsonObject()
+                .put("received", received)
+                .put("coalesced", coalesced)
+                .put("dropped", dropped)
+                .put("pending", pending.size())
+                .put("flushes", flushes)
+                .put("failedFlushes", failedFlushes)
+                .put("rowsWritten", rowsWritten)
+                .put("lastBatchSize", lastBatchSize)
+                .put("maxBatchSize", maxBatchSize)
+                .put("lastFlushLatencyMillis", lastFlushLatencyMillis)
+                .put("avgFlushLatencyMillis", flushes == 0 ? 0 : totalFlushLatencyMillis / flushes);
+    }
 }
@@ -1,11 +1,24 @@
 package com.kry.servicepoller;
 
+import com.kry.servicepoller.codecs.StatusEventCodec;
+import com.kry.servicepoller.dashboard.DashboardFanOut;
+import com.kry.servicepoller.dashboard.StatusFilter;
+import com.kry.servicepoller.dashboard.StatusSubscriptions;
+import com.kry.servicepoller.entities.ProbeRollup;
+import com.kry.servicepoller.entities.RollupResolution;
 import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.registry.ServiceRegistry;
+import com.kry.servicepoller.repositories.ServiceOperation;
+import com.kry.servicepoller.repositories.ServiceQuery;
 import com.kry.servicepoller.repositories.ServiceRepository;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.impl.logging.Logger;
 import io.vertx.core.impl.logging.LoggerFactory;
 import io.vertx.core.json.DecodeException;
@@ -26,17 +39,41 @@ import io.vertx.ext.web.validation.RequestPredicate;
 import io.vertx.ext.web.validation.ValidationHandler;
 import io.vertx.ext.web.validation.builder.Bodies;
 import io.vertx.ext.web.validation.builder.Parameters;
+import io.vertx.json.schema.Schema;
 import io.vertx.json.schema.SchemaParser;
 import io.vertx.json.schema.SchemaRouter;
 import io.vertx.json.schema.SchemaRouterOptions;
+import io.vertx.json.schema.ValidationException;
 import io.vertx.json.schema.common.dsl.ObjectSchemaBuilder;
+import io.vertx.micrometer.PrometheusScrapingHandler;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.GZIPOutputStream;
 
 import static io.vertx.json.schema.common.dsl.Keywords.maxLength;
+import static io.vertx.json.schema.common.dsl.Keywords.maximum;
 import static io.vertx.json.schema.common.dsl.Keywords.minLength;
+import static io.vertx.json.schema.common.dsl.Keywords.minimum;
+import static io.vertx.json.schema.common.dsl.Schemas.booleanSchema;
 import static io.vertx.json.schema.common.dsl.Schemas.intSchema;
 import static io.vertx.json.schema.common.dsl.Schemas.objectSchema;
 import static io.vertx.json.schema.common.dsl.Schemas.stringSchema;
@@ -48,10 +85,79 @@ public class EndpointHandlerVerticle extends AbstractVerticle {
     private static final Logger LOG = LoggerFactory.getLogger(EndpointHandlerVerticle.class);
     private static final String CONTENT_TYPE_HEADER = "Content-Type";
     private static final String APPLICATION_JSON = "application/json";
+    private static final int MAX_HISTORY_BUCKETS = 1440;
+    private static final int DEFAULT_PAGE_SIZE = 500;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final int EXPORT_CHUNK_SIZE = 8192;
+    private static final String ETAG_HEADER = "ETag";
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    private static final String CACHE_CONTROL_HEADER = "Cache-Control";
+    private static final String VARY_HEADER = "Vary";
+    private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+    private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+    // bodies smaller than this are sent as they are, compressing them does not pay off
+    private static final int GZIP_MIN_SIZE = 1024;
+    private static final int RESPONSE_CACHE_SIZE = 64;
+    private static final int MAX_BATCH_SIZE = 10_000;
+    // request bodies are buffered whole, a full batch of operations fits in this limit
+    private static final long MAX_BODY_SIZE = 16 * 1024 * 1024;
+    private static final String CONFLATION_WINDOW_CONFIG = "dashboard.conflation.window.ms";
+    // operations of a batch applied per transaction, a failed transaction fails its own operations only
+    private static final int BATCH_TRANSACTION_SIZE = 1000;
+    // the registry version starts over on restart, the start time keeps the tags of the previous run from matching
+    private static final String ETAG_EPOCH = Long.toHexString(System.currentTimeMillis());
+    // fields of the service representation in response order, a request can project them with ?fields=
+    private static final Map<String, Function<Service, Object>> SERVICE_FIELDS = new LinkedHashMap<>();
+    static {
+        SERVICE_FIELDS.put("id", Service::getId);
+        SERVICE_FIELDS.put("name", Service::getName);
+        SERVICE_FIELDS.put("url", service -> service.getUrl().toString());
+        SERVICE_FIELDS.put("createdDate", service -> service.getCreatedDate() == null
+                ? null : service.getCreatedDate().getTime());
+        SERVICE_FIELDS.put("currentStatus", service -> service.getCurrentStatus() == null
+                ? null : service.getCurrentStatus().toString());
+        SERVICE_FIELDS.put("circuitState", service -> service.getCircuitState() == null
+                ? null : service.getCircuitState().toString());
+        SERVICE_FIELDS.put("pollIntervalMs", Service::getPollIntervalMs);
+        SERVICE_FIELDS.put("timeoutMs", Service::getTimeoutMs);
+        SERVICE_FIELDS.put("expectedStatusCode", Service::getExpectedStatusCode);
+        SERVICE_FIELDS.put("bodyMatcher", Service::getBodyMatcher);
+        SERVICE_FIELDS.put("adaptivePolling", Service::getAdaptivePolling);
+        SERVICE_FIELDS.put("effectiveIntervalMs", Service::getEffectiveIntervalMs);
+    }
     private final ServiceRepository dbCon;
+    private final ServiceRegistry registry;
+    private final boolean republishStatusEvents;
+    private final long conflationWindow;
+    // serialized GET /services responses of the cached registry version by query string, confined to the event loop
+    private final Map<String, CachedResponse> responseCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+            return size() > RESPONSE_CACHE_SIZE;
+        }
+    };
+    private long cachedVersion = -1;
+    private Schema serviceSchema;
+
+    public EndpointHandlerVerticle(ServiceRepository dbCon, ServiceRegistry registry) {
+        this(dbCon, registry, true);
+    }
 
-    public EndpointHandlerVerticle(ServiceRepository dbCon) {
+    public EndpointHandlerVerticle(ServiceRepository dbCon, ServiceRegistry registry, boolean republishStatusEvents) {
+        this(dbCon, registry, republishStatusEvents, new Properties());
+    }
+
+    /**
+     * Creates one of several endpoint instances sharing the HTTP server. Exactly one of them has to republish the
+     * status events, otherwise the browser clients get every event once per instance.
+     */
+    public EndpointHandlerVerticle(ServiceRepository dbCon, ServiceRegistry registry, boolean republishStatusEvents,
+                                   Properties properties) {
         this.dbCon = dbCon;
+        this.registry = registry;
+        this.republishStatusEvents = republishStatusEvents;
+        this.conflationWindow = Long.parseLong(properties.getProperty(CONFLATION_WINDOW_CONFIG, "250"));
     }
 
     @Override
@@ -63,8 +169,16 @@ public class EndpointHandlerVerticle extends AbstractVerticle {
         SchemaParser schemaParser = SchemaParser.createDraft201909SchemaParser(schemaRouter);
         ObjectSchemaBuilder serviceSchemaBuilder = objectSchema()
                 .requiredProperty("name", stringSchema().with(minLength(1)).with(maxLength(255)))
-                .requiredProperty("url", stringSchema().with(minLength(1)).with(maxLength(255)));
+                .requiredProperty("url", stringSchema().with(minLength(1)).with(maxLength(255)))
+                .optionalProperty("pollIntervalMs", intSchema().with(minimum(100)).with(maximum(86_400_000)))
+                .optionalProperty("timeoutMs", intSchema().with(minimum(1)).with(maximum(60_000)))
+                .optionalProperty("expectedStatusCode", intSchema().with(minimum(100)).with(maximum(599)))
+                .optionalProperty("bodyMatcher", stringSchema().with(minLength(1)).with(maxLength(255)))
+                .optionalProperty("adaptivePolling", booleanSchema());
     
+        // the operations of a batch are validated one by one against the same schema
+        serviceSchema = serviceSchemaBuilder.build(schemaParser);
+
         ValidationHandler serviceObjValidationHandler = ValidationHandler
                 .builder(schemaParser)
                 .predicate(RequestPredicate.BODY_REQUIRED)
@@ -77,12 +191,21 @@ public class EndpointHandlerVerticle extends AbstractVerticle {
                 .pathParameter(Parameters.param("id", intSchema()))
                 .build();
 
+        // status events are binary on the event bus, the browser clients get them as JSON deltas. In clustered mode
+        // the events of every node are received here and handed to the clients connected to this node only
+        StatusEventCodec.register(vertx.eventBus());
+        DashboardFanOut fanOut = new DashboardFanOut(vertx, registry);
+        if (republishStatusEvents) {
+            fanOut.conflate(conflationWindow);
+        }
+
         // event bus bridge defined
         SockJSHandler sockJSHandler = SockJSHandler.create(vertx);
         SockJSBridgeOptions options = new SockJSBridgeOptions();
-        options.addOutboundPermitted(new PermittedOptions().setAddress("kry.services"));
-        // mount the bridge on the router
-        router.mountSubRouter("/eventbus", sockJSHandler.bridge(options));
+        options.addOutboundPermitted(new PermittedOptions().setAddress(DashboardFanOut.DELTA_ADDRESS));
+        options.addOutboundPermitted(new PermittedOptions().setAddress(DashboardFanOut.SNAPSHOT_ADDRESS));
+        // mount the bridge on the router, every frame to a client goes through the fan-out
+        router.mountSubRouter("/eventbus", sockJSHandler.bridge(options, fanOut::handle));
 
         // CORS handling
         Set<HttpMethod> allowedMethods = new HashSet<>();
@@ -97,8 +220,19 @@ public class EndpointHandlerVerticle extends AbstractVerticle {
                 .allowedHeader("*")
                 .allowedMethods(allowedMethods));
 
+        // filtered status updates, over Server-Sent Events or WebSocket, with ?ids=1,2,3, ?namePrefix= and ?status=
+        StatusSubscriptions subscriptions = new StatusSubscriptions(vertx, registry);
+        router.get("/services/events")
+                .handler(LoggerHandler.create(LoggerFormat.DEFAULT))
+                .handler(rc -> subscribe(rc, filter -> subscriptions.serverSentEvents(rc.response(), filter)));
+        router.get("/services/ws")
+                .handler(LoggerHandler.create(LoggerFormat.DEFAULT))
+                .handler(rc -> subscribe(rc, filter -> rc.request().toWebSocket()
+                        .onSuccess(webSocket -> subscriptions.webSocket(webSocket, filter))
+                        .onFailure(e -> LOG.error("error upgrading a subscription to a WebSocket", e))));
+
         // define route paths
-        router.route("/services*").handler(BodyHandler.create());
+        router.route("/services*").handler(BodyHandler.create().setBodyLimit(MAX_BODY_SIZE));
         
         // insert service path
         router.post("/services")
@@ -107,6 +241,12 @@ public class EndpointHandlerVerticle extends AbstractVerticle {
                 .handler(this::addService)
                 .failureHandler(rc -> sendErrorResponse(rc, rc.failure()));
         
+        // bulk create, update and delete path, takes a JSON array or newline delimited JSON of operations
+        router.postWithRegex("/services:batch")
+                .handler(LoggerHandler.create(LoggerFormat.DEFAULT))
+                .handler(this::applyBatch)
+                .failureHandler(rc -> sendErrorResponse(rc, rc.failure()));
+
         // delete service path
         router.delete("/services/:id")
                 .handler(LoggerHandler.create(LoggerFormat.DEFAULT))
@@ -121,10 +261,27 @@ public class EndpointHandlerVerticle extends AbstractVerticle {
                 .handler(this::updateService)
                 .failureHandler(rc -> sendErrorResponse(rc, rc.failure()));
         
-        // get all services path
+        // get services path, paginated with ?after=<id>&limit=, filtered with ?status= and ?namePrefix=, projected
+        // with ?fields=
         router.get("/services")
                 .handler(LoggerHandler.create(LoggerFormat.DEFAULT))
-                .handler(this::getAllServices);
+                .handler(this::getServices);
+
+        // export every service as a stream, as JSON or with ?format=ndjson, projected with ?fields=
+        router.get("/services/export")
+                .handler(LoggerHandler.create(LoggerFormat.DEFAULT))
+                .handler(this::exportServices);
+
+        // Prometheus scraping path, covers the Vert.x HTTP, event bus and pool metrics as well as the poller ones
+        router.get("/metrics")
+                .handler(PrometheusScrapingHandler.create());
+
+        // get service probe history path
+        router.get("/services/:id/history")
+                .handler(LoggerHandler.create(LoggerFormat.DEFAULT))
+                .handler(serviceIdValidationHandler)
+                .handler(this::getServiceHistory)
+                .failureHandler(rc -> sendErrorResponse(rc, rc.failure()));
 
         server.requestHandler(router).listen(8090, http -> {
             if (http.succeeded()) {
@@ -136,32 +293,284 @@ public class EndpointHandlerVerticle extends AbstractVerticle {
         });
     }
     
-    private void getAllServices(RoutingContext routingContext) {
-        dbCon.getAll().onSuccess(services -> {
-            JsonArray servicesJsonArray = new JsonArray();
-            services.forEach(servicesJsonArray::add);
+    /**
+     * Serves a page of services from the registry. The response holds a {@code next} cursor, to pass as
+     * {@code after}, as long as the page is full. Responses are cached serialized, per query, for as long as the
+     * registry version does not change, and tagged with it so that a client holding the current one gets a 304.
+     * Only the responses showing the effective intervals also depend on the interval version.
+     */
+    private void getServices(RoutingContext routingContext) {
+        // read before the page, a change made meanwhile is in the response anyway and invalidates it
+        long version = registry.version();
+        if (version != cachedVersion) {
+            responseCache.clear();
+            cachedVersion = version;
+        }
+        long intervalVersion = registry.intervalVersion();
+        String cacheKey = routingContext.request().query() == null ? "" : routingContext.request().query();
+        CachedResponse cached = responseCache.get(cacheKey);
+        if (cached != null && cached.intervalVersion >= 0 && cached.intervalVersion != intervalVersion) {
+            cached = null;
+        }
+        if (cached == null) {
+            ServiceQuery query;
+            Collection<String> fields;
+            try {
+                query = serviceQuery(routingContext);
+                fields = serviceFields(routingContext.request().getParam("fields"));
+            } catch (IllegalArgumentException e) {
+                sendQueryError(routingContext, "invalid services query parameters: " + e.getMessage());
+                return;
+            }
+            List<Service> services = registry.page(query);
+            JsonArray servicesJsonArray = new JsonArray(new ArrayList<>(services.size()));
+            services.forEach(service -> servicesJsonArray.add(serviceJson(service, fields)));
             JsonObject servicesJson = new JsonObject();
             servicesJson.put("services", servicesJsonArray);
-            routingContext.response()
+            if (services.size() == query.getLimit()) {
+                servicesJson.put("next", services.get(services.size() - 1).getId());
+            }
+            long taggedIntervalVersion = fields.contains("effectiveIntervalMs") ? intervalVersion : -1;
+            String tag = ETAG_EPOCH + "-" + version + (taggedIntervalVersion >= 0 ? "." + taggedIntervalVersion : "")
+                    + "-" + Integer.toHexString(cacheKey.hashCode());
+            cached = new CachedResponse(tag, servicesJson.toBuffer(), taggedIntervalVersion);
+            responseCache.put(cacheKey, cached);
+        }
+
+        String acceptEncoding = routingContext.request().getHeader(ACCEPT_ENCODING_HEADER);
+        boolean gzip = cached.body.length() >= GZIP_MIN_SIZE && acceptEncoding != null
+                && acceptEncoding.toLowerCase().contains("gzip");
+        // a strong tag identifies the bytes, so the compressed body has a tag of its own
+        String etag = "\"" + cached.tag + (gzip ? "-gzip" : "") + "\"";
+        HttpServerResponse response = routingContext.response()
+                .putHeader(ETAG_HEADER, etag)
+                .putHeader(CACHE_CONTROL_HEADER, "no-cache")
+                .putHeader(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+        if (matches(routingContext.request().getHeader(IF_NONE_MATCH_HEADER), etag)) {
+            response.setStatusCode(304).end();
+            return;
+        }
+        if (gzip) {
+            response.putHeader(CONTENT_ENCODING_HEADER, "gzip");
+        }
+        response.setStatusCode(200)
+                .putHeader(CONTENT_TYPE_HEADER, APPLICATION_JSON)
+                .end(gzip ? cached.gzipped() : cached.body);
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            // If-None-Match uses the weak comparison
+            if ("*".equals(tag) || etag.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Streams every service from a DB cursor as a chunked response, either as a {@code services} JSON array or as
+     * newline delimited JSON with {@code ?format=ndjson}. The cursor is paused while the client does not keep up, so
+     * the memory used does not grow with the number of services.
+     */
+    private void exportServices(RoutingContext routingContext) {
+        Collection<String> fields;
+        boolean ndjson;
+        try {
+            fields = serviceFields(routingContext.request().getParam("fields"));
+            String format = routingContext.request().getParam("format");
+            if (format != null && !"json".equals(format) && !"ndjson".equals(format)) {
+                throw new IllegalArgumentException("unknown format " + format);
+            }
+            ndjson = "ndjson".equals(format);
+        } catch (IllegalArgumentException e) {
+            sendQueryError(routingContext, "invalid export query parameters: " + e.getMessage());
+            return;
+        }
+
+        dbCon.streamAll().onSuccess(stream -> {
+            HttpServerResponse response = routingContext.response()
                     .setStatusCode(200)
-                    .putHeader(CONTENT_TYPE_HEADER, APPLICATION_JSON)
-                    .end(Json.encode(servicesJson));
-        }).onFailure(e -> {
-            LOG.error("error occurred in DB when getting all the services", e);
-            JsonObject jsonBody = new JsonObject();
-            jsonBody.put("message", "system error occurred");
+                    .setChunked(true)
+                    .putHeader(CONTENT_TYPE_HEADER, ndjson ? APPLICATION_NDJSON : APPLICATION_JSON);
+            // the services are written in chunks of about EXPORT_CHUNK_SIZE bytes rather than one by one
+            Buffer[] chunk = {Buffer.buffer(EXPORT_CHUNK_SIZE)};
+            boolean[] first = {true};
+            if (!ndjson) {
+                chunk[0].appendString("{\"services\":[");
+            }
+            response.closeHandler(v -> stream.close());
+            response.drainHandler(v -> stream.resume());
+            stream.exceptionHandler(e -> {
+                LOG.error("error occurred in DB when exporting the services", e);
+                response.reset();
+            });
+            stream.endHandler(v -> {
+                if (!ndjson) {
+                    chunk[0].appendString("]}");
+                }
+                response.end(chunk[0]);
+            });
+            stream.handler(service -> {
+                if (!ndjson && !first[0]) {
+                    chunk[0].appendString(",");
+                }
+                first[0] = false;
+                chunk[0].appendString(serviceJson(service, fields).encode());
+                if (ndjson) {
+                    chunk[0].appendString("\n");
+                }
+                if (chunk[0].length() >= EXPORT_CHUNK_SIZE) {
+                    response.write(chunk[0]);
+                    chunk[0] = Buffer.buffer(EXPORT_CHUNK_SIZE);
+                    if (response.writeQueueFull()) {
+                        stream.pause();
+                    }
+                }
+            });
+        }).onFailure(e -> sendErrorResponse(routingContext, e));
+    }
+
+    private static JsonObject serviceJson(Service service, Collection<String> fields) {
+        JsonObject serviceJson = new JsonObject();
+        fields.forEach(field -> serviceJson.put(field, SERVICE_FIELDS.get(field).apply(service)));
+        return serviceJson;
+    }
+
+    private static void subscribe(RoutingContext routingContext, Consumer<StatusFilter> subscriber) {
+        StatusFilter filter;
+        try {
+            filter = StatusFilter.parse(routingContext.request().getParam("ids"),
+                    routingContext.request().getParam("namePrefix"), routingContext.request().getParam("status"));
+        } catch (IllegalArgumentException e) {
+            sendQueryError(routingContext, "invalid subscription parameters: " + e.getMessage());
+            return;
+        }
+        subscriber.accept(filter);
+    }
+
+    private static ServiceQuery serviceQuery(RoutingContext routingContext) {
+        int after = intQueryParam(routingContext, "after", 0);
+        int limit = intQueryParam(routingContext, "limit", DEFAULT_PAGE_SIZE);
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        String status = routingContext.request().getParam("status");
+        return new ServiceQuery(after, limit, status == null ? null : ServiceStatus.valueOf(status.toUpperCase()),
+                routingContext.request().getParam("namePrefix"));
+    }
+
+    private static Collection<String> serviceFields(String fieldsParam) {
+        if (fieldsParam == null) {
+            return SERVICE_FIELDS.keySet();
+        }
+        Set<String> fields = new LinkedHashSet<>();
+        for (String field : fieldsParam.split(",")) {
+            if (!SERVICE_FIELDS.containsKey(field.trim())) {
+                throw new IllegalArgumentException("unknown field " + field.trim());
+            }
+            fields.add(field.trim());
+        }
+        return fields;
+    }
+
+    /**
+     * Serves the probe history of a service from the rollups. The range is given in epoch milliseconds and defaults to
+     * the last day, the resolution defaults to the finest one that keeps the response below the bucket limit.
+     */
+    private void getServiceHistory(RoutingContext routingContext) {
+        int serviceId = Integer.parseInt(routingContext.pathParam("id"));
+        long to;
+        long from;
+        RollupResolution resolution;
+        try {
+            to = longQueryParam(routingContext, "to", System.currentTimeMillis());
+            from = longQueryParam(routingContext, "from", to - TimeUnit.DAYS.toMillis(1));
+            String resolutionParam = routingContext.request().getParam("resolution");
+            resolution = resolutionParam == null
+                    ? historyResolution(to - from) : RollupResolution.valueOf(resolutionParam.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            sendQueryError(routingContext, "invalid history query parameters");
+            return;
+        }
+        if (from >= to) {
+            sendQueryError(routingContext, "history range is empty: from must be before to");
+            return;
+        }
+        if ((to - from) / resolution.getBucketMillis() > MAX_HISTORY_BUCKETS) {
+            sendQueryError(routingContext, "history range too large for resolution: " + resolution);
+            return;
+        }
+
+        dbCon.getRollups(serviceId, resolution, resolution.bucketStart(from), to).onSuccess(rollups -> {
+            // a bucket may be split over several rows, e.g. around a restart
+            Map<Long, ProbeRollup> merged = new LinkedHashMap<>();
+            rollups.forEach(rollup -> merged.merge(rollup.getBucketStart(), rollup, (a, b) -> {
+                a.merge(b);
+                return a;
+            }));
+            JsonArray bucketsJsonArray = new JsonArray();
+            merged.values().forEach(rollup -> bucketsJsonArray.add(new JsonObject()
+                    .put("bucketStart", rollup.getBucketStart())
+                    .put("count", rollup.getCount())
+                    .put("failures", rollup.getFailures())
+                    .put("minLatencyMs", rollup.getMinLatency())
+                    .put("maxLatencyMs", rollup.getMaxLatency())
+                    .put("p50LatencyMs", rollup.getP50Latency())
+                    .put("p95LatencyMs", rollup.getP95Latency())
+                    .put("p99LatencyMs", rollup.getP99Latency())));
+            JsonObject historyJson = new JsonObject()
+                    .put("id", serviceId)
+                    .put("resolution", resolution)
+                    .put("from", from)
+                    .put("to", to)
+                    .put("buckets", bucketsJsonArray);
             routingContext.response()
-                    .setStatusCode(500)
+                    .setStatusCode(200)
                     .putHeader(CONTENT_TYPE_HEADER, APPLICATION_JSON)
-                    .end(Json.encode(jsonBody));
-        });
+                    .end(historyJson.encode());
+        }).onFailure(e -> sendErrorResponse(routingContext, e));
+    }
+
+    private static long longQueryParam(RoutingContext routingContext, String name, long defaultValue) {
+        String value = routingContext.request().getParam(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    private static int intQueryParam(RoutingContext routingContext, String name, int defaultValue) {
+        String value = routingContext.request().getParam(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static RollupResolution historyResolution(long rangeMillis) {
+        for (RollupResolution resolution : RollupResolution.values()) {
+            if (rangeMillis / resolution.getBucketMillis() <= MAX_HISTORY_BUCKETS) {
+                return resolution;
+            }
+        }
+        return RollupResolution.DAY;
+    }
+
+    private static void sendQueryError(RoutingContext rc, String message) {
+        rc.response()
+            .setStatusCode(400)
+            .putHeader(CONTENT_TYPE_HEADER, APPLICATION_JSON)
+            .end(new JsonObject().put("error", message).encode());
     }
 
     private void addService(RoutingContext routingContext) {
         Service insertingService = Json.decodeValue(routingContext.getBodyAsString(), Service.class);
+        validateBodyMatcher(insertingService);
         LOG.debug("received a request on add service endpoint: " + insertingService);
         dbCon.insert(insertingService).onSuccess(insertResult -> {
             if (insertResult) {
+                insertingService.setCreatedDate(new Date());
+                insertingService.setCurrentStatus(ServiceStatus.FAIL);
+                registry.put(insertingService);
                 routingContext.response()
                         .setStatusCode(204)
                         .end();
@@ -177,11 +586,137 @@ public class EndpointHandlerVerticle extends AbstractVerticle {
         }).onFailure(e -> sendErrorResponse(routingContext, e));
     }
 
+    /**
+     * Applies a batch of operations, each one of {@code {"op":"create","service":{...}}},
+     * {@code {"op":"update","service":{"id":...}}} and {@code {"op":"delete","id":...}}. The response holds one
+     * result per operation, in order, with the status the single service endpoint would have answered and the id of
+     * a created service. The body, a JSON array or newline delimited JSON, is buffered whole: a larger one than
+     * {@value #MAX_BODY_SIZE} bytes is answered with a 413.
+     */
+    private void applyBatch(RoutingContext routingContext) {
+        List<JsonObject> items = batchItems(routingContext);
+        if (items.size() > MAX_BATCH_SIZE) {
+            sendQueryError(routingContext, "batch larger than " + MAX_BATCH_SIZE + " operations");
+            return;
+        }
+        LOG.debug("received a request on batch endpoint: " + items.size() + " operations");
+        JsonObject[] results = new JsonObject[items.size()];
+        List<ServiceOperation> operations = new ArrayList<>(items.size());
+        List<Integer> indexes = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            try {
+                operations.add(batchOperation(items.get(i)));
+                indexes.add(i);
+            } catch (IllegalArgumentException | ClassCastException | DecodeException | ValidationException e) {
+                results[i] = new JsonObject().put("status", 400).put("error", "invalid service operation received");
+            }
+        }
+        applyBatch(operations, indexes, 0, results).onComplete(v -> routingContext.response()
+                .setStatusCode(200)
+                .putHeader(CONTENT_TYPE_HEADER, APPLICATION_JSON)
+                .end(new JsonObject().put("results", new JsonArray(Arrays.asList(results))).encode()));
+    }
+
+    /**
+     * Applies the operations from the given one on, one transaction after the other.
+     */
+    private Future<Void> applyBatch(List<ServiceOperation> operations, List<Integer> indexes, int from,
+                                    JsonObject[] results) {
+        if (from >= operations.size()) {
+            return Future.succeededFuture();
+        }
+        int to = Math.min(from + BATCH_TRANSACTION_SIZE, operations.size());
+        return dbCon.applyBatch(operations.subList(from, to)).compose(applied -> {
+            for (int i = from; i < to; i++) {
+                results[indexes.get(i)] = batchResult(operations.get(i), applied.get(i - from));
+            }
+            return applyBatch(operations, indexes, to, results);
+        }, e -> {
+            for (int i = from; i < to; i++) {
+                results[indexes.get(i)] = new JsonObject().put("status", 500).put("error", "internal server error");
+            }
+            return applyBatch(operations, indexes, to, results);
+        });
+    }
+
+    private static List<JsonObject> batchItems(RoutingContext routingContext) {
+        List<JsonObject> items = new ArrayList<>();
+        String contentType = routingContext.request().getHeader(CONTENT_TYPE_HEADER);
+        if (contentType != null && contentType.startsWith(APPLICATION_NDJSON)) {
+            for (String line : routingContext.getBodyAsString().split("\n")) {
+                if (!line.isBlank()) {
+                    items.add(new JsonObject(line));
+                }
+            }
+            return items;
+        }
+        for (Object item : new JsonArray(routingContext.getBodyAsString())) {
+            items.add(item instanceof JsonObject ? (JsonObject) item : null);
+        }
+        return items;
+    }
+
+    private ServiceOperation batchOperation(JsonObject item) {
+        if (item == null) {
+            throw new IllegalArgumentException("operation is not an object");
+        }
+        String op = item.getString("op", "");
+        if ("delete".equals(op)) {
+            if (!(item.getValue("id") instanceof Integer)) {
+                throw new IllegalArgumentException("delete without an id");
+            }
+            return ServiceOperation.delete(item.getInteger("id"));
+        }
+        if (!(item.getValue("service") instanceof JsonObject)) {
+            throw new IllegalArgumentException(op + " without a service");
+        }
+        JsonObject serviceJson = item.getJsonObject("service");
+        serviceSchema.validateSync(serviceJson);
+        Service service = Json.decodeValue(serviceJson.encode(), Service.class);
+        validateBodyMatcher(service);
+        if ("create".equals(op)) {
+            return ServiceOperation.create(service);
+        }
+        if ("update".equals(op) && serviceJson.getValue("id") instanceof Integer) {
+            return ServiceOperation.update(service);
+        }
+        throw new IllegalArgumentException("unknown operation " + op);
+    }
+
+    /**
+     * Result of an applied operation, the registry gets the change.
+     */
+    private JsonObject batchResult(ServiceOperation operation, boolean applied) {
+        if (operation.getType() == ServiceOperation.Type.CREATE) {
+            Service service = operation.getService();
+            if (!applied) {
+                LOG.error("service was not created in DB: " + service);
+                return new JsonObject().put("status", 500).put("error", "system error occurred creating service");
+            }
+            service.setCreatedDate(new Date());
+            service.setCurrentStatus(ServiceStatus.FAIL);
+            registry.put(service);
+            return new JsonObject().put("status", 204).put("id", service.getId());
+        }
+        if (!applied) {
+            String action = operation.getType() == ServiceOperation.Type.UPDATE ? "update" : "delete";
+            return new JsonObject().put("status", 404)
+                    .put("error", "service not found to " + action + ": " + operation.getId());
+        }
+        if (operation.getType() == ServiceOperation.Type.UPDATE) {
+            registry.put(operation.getService());
+        } else {
+            registry.remove(operation.getId());
+        }
+        return new JsonObject().put("status", 204);
+    }
+
     private void deleteService(RoutingContext routingContext) {
         String deletingServiceId = routingContext.pathParam("id");
         LOG.debug("received a request on delete service endpoint: " + deletingServiceId);
         dbCon.delete(Integer.parseInt(deletingServiceId)).onSuccess(deleteResult -> {
             if (deleteResult) {
+                registry.remove(Integer.parseInt(deletingServiceId));
                 routingContext.response()
                         .setStatusCode(204)
                         .end();
@@ -199,9 +734,11 @@ public class EndpointHandlerVerticle extends AbstractVerticle {
 
     private void updateService(RoutingContext routingContext) {
         Service updatingService = Json.decodeValue(routingContext.getBodyAsString(), Service.class);
+        validateBodyMatcher(updatingService);
         LOG.debug("received a request on update service endpoint: " + updatingService);
         dbCon.update(updatingService).onSuccess(updateResult -> {
             if (updateResult) {
+                registry.put(updatingService);
                 routingContext.response()
                         .setStatusCode(204)
                         .end();
@@ -217,11 +754,18 @@ public class EndpointHandlerVerticle extends AbstractVerticle {
         }).onFailure(e -> sendErrorResponse(routingContext, e));
     }
     
+    private static void validateBodyMatcher(Service service) {
+        if (service.getBodyMatcher() != null) {
+            Pattern.compile(service.getBodyMatcher());
+        }
+    }
+
     private static void sendErrorResponse(RoutingContext rc, Throwable throwable) {
         int status;
         String message;
         
-        if (throwable instanceof DecodeException || throwable instanceof BodyProcessorException) {
+        if (throwable instanceof DecodeException || throwable instanceof BodyProcessorException
+                || throwable instanceof PatternSyntaxException) {
             status = 400;
             message = "invalid service payload received";
         } else {
@@ -234,4 +778,34 @@ public class EndpointHandlerVerticle extends AbstractVerticle {
             .putHeader(CONTENT_TYPE_HEADER, APPLICATION_JSON)
             .end(new JsonObject().put("error", message).encode());
     }
+
+    /**
+     * Serialized response body, compressed on first use.
+     */
+    private static class CachedResponse {
+        private final String tag;
+        private final Buffer body;
+        // interval version the body was built at, -1 when it does not show the effective intervals
+        private final long intervalVersion;
+        private Buffer gzipped;
+
+        private CachedResponse(String tag, Buffer body, long intervalVersion) {
+            this.tag = tag;
+            this.body = body;
+            this.intervalVersion = intervalVersion;
+        }
+
+        private Buffer gzipped() {
+            if (gzipped == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length() / 4);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                    gzip.write(body.getBytes());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                gzipped = Buffer.buffer(bytes.toByteArray());
+            }
+            return gzipped;
+        }
+    }
 }
@@ -3,39 +3,115 @@ package com.kry.servicepoller;
 import com.kry.servicepoller.backend.simulators.ServiceA;
 import com.kry.servicepoller.backend.simulators.ServiceB;
 import com.kry.servicepoller.backend.simulators.ServiceC;
+import com.kry.servicepoller.cluster.ClusterShard;
+import com.kry.servicepoller.metrics.Meters;
+import com.kry.servicepoller.metrics.ProbeMetrics;
+import com.kry.servicepoller.registry.ServiceRegistry;
 import com.kry.servicepoller.repositories.ServiceRepository;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.spi.cluster.ClusterManager;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PollerInitializer extends AbstractVerticle {
+    private static final String POLLER_INSTANCES_CONFIG = "poller.instances";
+    private static final String ENDPOINT_INSTANCES_CONFIG = "endpoint.instances";
+    private static final String PER_SERVICE_METRICS_CONFIG = "metrics.per.service.enabled";
     private ServiceRepository dbCon;
+    private ClusterShard shard;
+    private Properties properties;
+
+    public PollerInitializer() {
+    }
+
+    /**
+     * Runs the application on the given configuration instead of the application properties, e.g. in a load test.
+     */
+    public PollerInitializer(Properties properties) {
+        this.properties = properties;
+    }
 
     @Override
     public void start(Promise<Void> startPromise) throws Exception {
         // get configuration properties
-        Properties properties = new Properties();
-        try (InputStream is = PollerInitializer.class.getClassLoader().getResourceAsStream("application.properties")) {
-            properties.load(is);
+        if (properties == null) {
+            properties = new Properties();
+            try (InputStream is = PollerInitializer.class.getClassLoader()
+                    .getResourceAsStream("application.properties")) {
+                properties.load(is);
+            }
         }
 
-        this.dbCon = new ServiceRepository(properties);
-        vertx.deployVerticle(new EndpointHandlerVerticle(this.dbCon));
-        vertx.deployVerticle(new ServicePollerVerticle(this.dbCon));
-        vertx.deployVerticle(new DBStatusUpdateVerticle(this.dbCon));
-        vertx.deployVerticle(ServiceA.class.getName());
-        vertx.deployVerticle(ServiceB.class.getName());
-        vertx.deployVerticle(ServiceC.class.getName());
+        // without the cluster manager every node would own and poll the whole fleet
+        ClusterManager clusterManager = PollerLauncher.clusterManager();
+        if (vertx.isClustered() && clusterManager == null) {
+            startPromise.fail(new IllegalStateException("clustered Vert.x without the cluster manager of "
+                    + PollerLauncher.class.getSimpleName() + ", start the application with it"));
+            return;
+        }
+
+        this.dbCon = ServiceRepository.create(vertx, properties);
+        // the registry is loaded once, afterwards the poller works from memory only
+        ServiceRegistry registry = new ServiceRegistry(vertx, this.dbCon, properties);
+        // nothing is deployed if the DB cannot be initialized, and the start only completes once every verticle is
+        // deployed, a failed start stops the application
+        this.dbCon.init().compose(v -> registry.load()).compose(loaded -> {
+            List<Future> deployments = new ArrayList<>();
+            // the HTTP server is shared by the endpoint instances, only the first one conflates the status events
+            int endpointInstances = instances(properties, ENDPOINT_INSTANCES_CONFIG);
+            AtomicInteger endpointInstance = new AtomicInteger();
+            deployments.add(vertx.deployVerticle(() -> new EndpointHandlerVerticle(this.dbCon, registry,
+                            endpointInstance.getAndIncrement() == 0, properties),
+                    new DeploymentOptions().setInstances(endpointInstances)));
+            // every poller instance probes its own partition of the services on its own event loop
+            int pollerInstances = instances(properties, POLLER_INSTANCES_CONFIG);
+            ProbeMetrics probeMetrics = new ProbeMetrics(Meters.registry(), pollerInstances,
+                    Boolean.parseBoolean(properties.getProperty(PER_SERVICE_METRICS_CONFIG, "false")));
+            // a single shard follows the cluster membership for the node and tells every instance of a rebalance
+            this.shard = new ClusterShard(vertx, vertx.isClustered() ? clusterManager : null, properties);
+            this.shard.start();
+            AtomicInteger pollerInstance = new AtomicInteger();
+            deployments.add(vertx.deployVerticle(() -> new ServicePollerVerticle(registry, properties, probeMetrics,
+                            this.shard, pollerInstance.getAndIncrement(), pollerInstances),
+                    new DeploymentOptions().setInstances(pollerInstances)));
+            deployments.add(vertx.deployVerticle(new DBStatusUpdateVerticle(this.dbCon, properties)));
+            deployments.add(vertx.deployVerticle(new ProbeHistoryVerticle(this.dbCon, properties)));
+            deployments.add(vertx.deployVerticle(ServiceA.class.getName()));
+            deployments.add(vertx.deployVerticle(ServiceB.class.getName()));
+            deployments.add(vertx.deployVerticle(ServiceC.class.getName()));
+            return CompositeFuture.all(deployments);
+        }).<Void>mapEmpty().recover(e -> {
+            // the verticles already deployed are undeployed with this one, the shard and the DB are not verticles
+            if (this.shard != null) {
+                this.shard.stop();
+            }
+            return this.dbCon.close().compose(v -> Future.<Void>failedFuture(e), r -> Future.<Void>failedFuture(e));
+        }).onComplete(startPromise);
+    }
 
-        startPromise.complete();
+    /**
+     * Returns the configured number of instances of a verticle, one per core by default.
+     */
+    private static int instances(Properties properties, String key) {
+        int instances = Integer.parseInt(properties.getProperty(key, "0"));
+        return instances > 0 ? instances : Runtime.getRuntime().availableProcessors();
     }
 
     @Override
     public void stop(Promise<Void> stopPromise) {
-        this.dbCon.close();
+        if (this.shard != null) {
+            this.shard.stop();
+        }
+        Future<Void> closed = this.dbCon.close();
         vertx.deploymentIDs().forEach(a -> vertx.undeploy(a));
-        stopPromise.complete();
+        closed.onComplete(ar -> stopPromise.complete());
     }
 }
@@ -0,0 +1,58 @@
+package com.kry.servicepoller;
+
+import io.vertx.core.Launcher;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.spi.cluster.ClusterManager;
+import io.vertx.micrometer.Label;
+import io.vertx.micrometer.Match;
+import io.vertx.micrometer.MatchType;
+import io.vertx.micrometer.MetricsDomain;
+import io.vertx.micrometer.MicrometerMetricsOptions;
+import io.vertx.micrometer.VertxPrometheusOptions;
+import io.vertx.spi.cluster.hazelcast.HazelcastClusterManager;
+
+/**
+ * Launcher enabling the Micrometer metrics of Vert.x, exposed in Prometheus format on the {@code /metrics} endpoint.
+ * It also provides the Hazelcast cluster manager a clustered node joins with, so that the poller can follow the
+ * cluster membership.
+ */
+public class PollerLauncher extends Launcher {
+    private static final Logger LOG = LoggerFactory.getLogger(PollerLauncher.class);
+    private static volatile ClusterManager clusterManager;
+
+    public static void main(String[] args) {
+        new PollerLauncher().dispatch(args);
+    }
+
+    /**
+     * Returns the cluster manager given to Vert.x, {@code null} when the application was not started by this launcher.
+     * It is only joined when the node is started with the {@code -cluster} option.
+     */
+    public static ClusterManager clusterManager() {
+        return clusterManager;
+    }
+
+    @Override
+    public void beforeStartingVertx(VertxOptions options) {
+        // set explicitly instead of being discovered by Vert.x, it is unused unless the node is clustered
+        if (options.getClusterManager() == null) {
+            options.setClusterManager(new HazelcastClusterManager());
+        }
+        clusterManager = options.getClusterManager();
+        options.setMetricsOptions(new MicrometerMetricsOptions()
+                .setEnabled(true)
+                .setJvmMetricsEnabled(true)
+                .setPrometheusOptions(new VertxPrometheusOptions().setEnabled(true))
+                // REST latency per route instead of per raw path
+                .addLabels(Label.HTTP_ROUTE)
+                // the per probe results address runs at the probe rate, it is covered by the poller metrics
+                .addLabelMatch(new Match()
+                        .setDomain(MetricsDomain.EVENT_BUS)
+                        .setLabel(Label.EB_ADDRESS.toString())
+                        .setType(MatchType.REGEX)
+                        .setValue("^(?!kry\\.services\\.probes$).*")));
+        LOG.info("Micrometer metrics enabled");
+    }
+}
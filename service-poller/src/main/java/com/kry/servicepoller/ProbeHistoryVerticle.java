@@ -0,0 +1,183 @@
+package com.kry.servicepoller;
+
+import com.kry.servicepoller.codecs.StatusEventCodec;
+import com.kry.servicepoller.entities.ProbeRollup;
+import com.kry.servicepoller.entities.RollupResolution;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.history.LatencyHistogram;
+import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verticle responsible for recording the probe history. Every probe result is aggregated in memory into minute, hour
+ * and day buckets per service, and a bucket is written as a rollup row once it is over. Raw samples are optionally
+ * appended in batches as well. Old history is purged according to the per resolution retention.
+ */
+public class ProbeHistoryVerticle extends AbstractVerticle {
+    private static final Logger LOG = LoggerFactory.getLogger(ProbeHistoryVerticle.class);
+    private static final String RAW_ENABLED_CONFIG = "history.raw.enabled";
+    private static final String BATCH_SIZE_CONFIG = "history.batch.size";
+    private static final String FLUSH_INTERVAL_CONFIG = "history.flush.interval.ms";
+    private static final String PURGE_INTERVAL_CONFIG = "history.purge.interval.ms";
+    private static final String RAW_RETENTION_CONFIG = "history.retention.raw.hours";
+    private static final String MINUTE_RETENTION_CONFIG = "history.retention.minute.hours";
+    private static final String HOUR_RETENTION_CONFIG = "history.retention.hour.days";
+    private static final String DAY_RETENTION_CONFIG = "history.retention.day.days";
+    private final ServiceRepository dbCon;
+    private final boolean rawEnabled;
+    private final int batchSize;
+    private final long flushInterval;
+    private final long purgeInterval;
+    private final long rawRetentionMillis;
+    private final Map<RollupResolution, Long> rollupRetentionMillis = new EnumMap<>(RollupResolution.class);
+    // open buckets per resolution and service, and the rows waiting to be written, all confined to the event loop
+    private final Map<RollupResolution, Map<Integer, Bucket>> buckets = new EnumMap<>(RollupResolution.class);
+    private List<StatusEvent> pendingSamples = new ArrayList<>();
+    private List<ProbeRollup> pendingRollups = new ArrayList<>();
+
+    public ProbeHistoryVerticle(ServiceRepository dbCon) {
+        this(dbCon, new Properties());
+    }
+
+    public ProbeHistoryVerticle(ServiceRepository dbCon, Properties properties) {
+        this.dbCon = dbCon;
+        this.rawEnabled = Boolean.parseBoolean(properties.getProperty(RAW_ENABLED_CONFIG, "false"));
+        this.batchSize = Integer.parseInt(properties.getProperty(BATCH_SIZE_CONFIG, "500"));
+        this.flushInterval = Long.parseLong(properties.getProperty(FLUSH_INTERVAL_CONFIG, "5000"));
+        this.purgeInterval = Long.parseLong(properties.getProperty(PURGE_INTERVAL_CONFIG, "3600000"));
+        this.rawRetentionMillis = TimeUnit.HOURS.toMillis(
+                Long.parseLong(properties.getProperty(RAW_RETENTION_CONFIG, "24")));
+        this.rollupRetentionMillis.put(RollupResolution.MINUTE, TimeUnit.HOURS.toMillis(
+                Long.parseLong(properties.getProperty(MINUTE_RETENTION_CONFIG, "48"))));
+        this.rollupRetentionMillis.put(RollupResolution.HOUR, TimeUnit.DAYS.toMillis(
+                Long.parseLong(properties.getProperty(HOUR_RETENTION_CONFIG, "30"))));
+        this.rollupRetentionMillis.put(RollupResolution.DAY, TimeUnit.DAYS.toMillis(
+                Long.parseLong(properties.getProperty(DAY_RETENTION_CONFIG, "365"))));
+        for (RollupResolution resolution : RollupResolution.values()) {
+            this.buckets.put(resolution, new HashMap<>());
+        }
+    }
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        StatusEventCodec.register(vertx.eventBus());
+        vertx.eventBus().<StatusEvent>localConsumer(StatusEvent.PROBE_ADDRESS, message -> record(message.body()));
+        vertx.setPeriodic(flushInterval, l -> {
+            closeBuckets(System.currentTimeMillis(), false);
+            flush();
+        });
+        if (purgeInterval > 0) {
+            vertx.setPeriodic(purgeInterval, l -> purge());
+        }
+
+        startPromise.complete();
+    }
+
+    @Override
+    public void stop(Promise<Void> stopPromise) {
+        // open buckets are written as partial rollups, they are merged with the rest of the bucket when queried
+        closeBuckets(Long.MAX_VALUE, true);
+        flush().onComplete(ar -> stopPromise.complete());
+    }
+
+    private void record(StatusEvent event) {
+        boolean failed = event.getStatus() != ServiceStatus.OK;
+        for (RollupResolution resolution : RollupResolution.values()) {
+            long bucketStart = resolution.bucketStart(event.getTimestamp());
+            Bucket bucket = buckets.get(resolution).computeIfAbsent(event.getId(), id -> new Bucket(bucketStart));
+            if (bucket.start != bucketStart) {
+                closeBucket(event.getId(), resolution, bucket);
+                bucket.start = bucketStart;
+            }
+            bucket.histogram.record(event.getLatencyMillis(), failed);
+        }
+        if (rawEnabled) {
+            pendingSamples.add(event);
+            if (pendingSamples.size() >= batchSize) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Turns the buckets that are over at the given time into rollups, so that the history does not wait for the next
+     * probe of the service. Empty buckets are dropped, e.g. those of removed services.
+     */
+    private void closeBuckets(long now, boolean includeOpen) {
+        buckets.forEach((resolution, serviceBuckets) -> {
+            Iterator<Map.Entry<Integer, Bucket>> iterator = serviceBuckets.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Integer, Bucket> entry = iterator.next();
+                Bucket bucket = entry.getValue();
+                if (includeOpen || bucket.start + resolution.getBucketMillis() <= now) {
+                    if (bucket.histogram.getCount() == 0) {
+                        iterator.remove();
+                    } else {
+                        closeBucket(entry.getKey(), resolution, bucket);
+                    }
+                }
+            }
+        });
+    }
+
+    private void closeBucket(int serviceId, RollupResolution resolution, Bucket bucket) {
+        LatencyHistogram histogram = bucket.histogram;
+        if (histogram.getCount() > 0) {
+            pendingRollups.add(new ProbeRollup(serviceId, resolution, bucket.start, histogram.getCount(),
+                    histogram.getFailures(), histogram.getMin(), histogram.getMax(), histogram.percentile(0.50),
+                    histogram.percentile(0.95), histogram.percentile(0.99)));
+        }
+        histogram.reset();
+    }
+
+    private Future<Void> flush() {
+        List<Future> writes = new ArrayList<>();
+        if (!pendingSamples.isEmpty()) {
+            List<StatusEvent> samples = pendingSamples;
+            pendingSamples = new ArrayList<>();
+            // raw samples are best effort, a failed batch is not retried
+            writes.add(dbCon.insertProbeSamples(samples));
+        }
+        if (!pendingRollups.isEmpty()) {
+            List<ProbeRollup> rollups = pendingRollups;
+            pendingRollups = new ArrayList<>();
+            writes.add(dbCon.insertRollups(rollups).onFailure(e -> context.runOnContext(v -> {
+                LOG.error("error writing " + rollups.size() + " probe rollups, retrying with the next flush");
+                pendingRollups.addAll(rollups);
+            })));
+        }
+        return CompositeFuture.join(writes).mapEmpty();
+    }
+
+    private void purge() {
+        long now = System.currentTimeMillis();
+        dbCon.purgeProbeSamples(now - rawRetentionMillis)
+                .onSuccess(deleted -> LOG.debug("purged probe samples: " + deleted));
+        rollupRetentionMillis.forEach((resolution, retention) -> dbCon.purgeRollups(resolution, now - retention)
+                .onSuccess(deleted -> LOG.debug("purged " + resolution + " probe rollups: " + deleted)));
+    }
+
+    private static class Bucket {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private long start;
+
+        private Bucket(long start) {
+            this.start = start;
+        }
+    }
+}
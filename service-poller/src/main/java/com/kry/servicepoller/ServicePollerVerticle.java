@@ -1,69 +1,341 @@
 package com.kry.servicepoller;
 
-import com.kry.servicepoller.repositories.ServiceRepository;
-import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.cluster.ClusterShard;
+import com.kry.servicepoller.codecs.StatusEventCodec;
 import com.kry.servicepoller.entities.ServiceStatus;
-import io.vertx.circuitbreaker.CircuitBreaker;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.metrics.Meters;
+import com.kry.servicepoller.metrics.ProbeMetrics;
+import com.kry.servicepoller.polling.AdaptiveIntervals;
+import com.kry.servicepoller.polling.CircuitBreakerRegistry;
+import com.kry.servicepoller.polling.ProbeScheduler;
+import com.kry.servicepoller.polling.ProbeTarget;
+import com.kry.servicepoller.registry.ServiceRegistry;
 import io.vertx.circuitbreaker.CircuitBreakerOptions;
+import io.vertx.circuitbreaker.CircuitBreakerState;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.http.RequestOptions;
 import io.vertx.core.impl.logging.Logger;
 import io.vertx.core.impl.logging.LoggerFactory;
-import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
- * Verticle responsible for polling the backend services to obtain the status.
+ * Verticle responsible for polling the backend services to obtain the status. In clustered mode every node polls its
+ * own share of the services, and on a node the services are partitioned by id between the poller instances.
  */
 public class ServicePollerVerticle extends AbstractVerticle {
     private static final Logger LOG = LoggerFactory.getLogger(ServicePollerVerticle.class);
-    private final ServiceRepository dbCon;
+    private static final String HTTP_POOL_SIZE_CONFIG = "poller.http.pool.size";
+    private static final String HTTP_KEEPALIVE_CONFIG = "poller.http.keepalive";
+    private static final String HTTP_KEEPALIVE_TIMEOUT_CONFIG = "poller.http.keepalive.timeout.seconds";
+    private static final String HTTP_IDLE_TIMEOUT_CONFIG = "poller.http.idle.timeout.seconds";
+    private static final String HTTP_CONNECT_TIMEOUT_CONFIG = "poller.http.connect.timeout.ms";
+    private static final String HTTP_MAX_WAIT_QUEUE_CONFIG = "poller.http.max.wait.queue";
+    private static final String HTTP2_ENABLED_CONFIG = "poller.http.http2.enabled";
+    private static final String HTTP2_POOL_SIZE_CONFIG = "poller.http.http2.pool.size";
+    private static final String HTTP2_MULTIPLEXING_LIMIT_CONFIG = "poller.http.http2.multiplexing.limit";
+    private static final String BREAKER_MAX_FAILURES_CONFIG = "poller.breaker.max.failures";
+    private static final String BREAKER_TIMEOUT_CONFIG = "poller.breaker.timeout.ms";
+    private static final String BREAKER_RESET_TIMEOUT_CONFIG = "poller.breaker.reset.timeout.ms";
+    private static final String BREAKER_REGISTRY_MAX_SIZE_CONFIG = "poller.breaker.registry.max.size";
+    private static final String SCHEDULER_TICK_CONFIG = "poller.scheduler.tick.ms";
+    private static final String SCHEDULER_WHEEL_SIZE_CONFIG = "poller.scheduler.wheel.size";
+    private static final String SNAPSHOT_INTERVAL_CONFIG = "poller.snapshot.interval.ms";
+    private static final String ADAPTIVE_CONFIRM_WINDOW_CONFIG = "poller.adaptive.confirm.window.ms";
+    private static final String ADAPTIVE_CONFIRM_FACTOR_CONFIG = "poller.adaptive.confirm.factor";
+    private static final String ADAPTIVE_BACKOFF_DELAY_CONFIG = "poller.adaptive.backoff.delay.ms";
+    private static final String ADAPTIVE_BACKOFF_MULTIPLIER_CONFIG = "poller.adaptive.backoff.multiplier";
+    private static final String ADAPTIVE_BACKOFF_MAX_CONFIG = "poller.adaptive.backoff.max.ms";
+    private static final long LAG_REPORT_INTERVAL = 10_000L;
+    private static final DeliveryOptions PROBE_DELIVERY_OPTIONS = new DeliveryOptions().setLocalOnly(true);
+    private final ServiceRegistry registry;
+    private final Properties properties;
+    private final int instance;
+    private final int instances;
+    private final boolean ownsShard;
+    // probes still running, a service is not probed again before its previous probe completed
+    private final Set<Integer> inFlight = new HashSet<>();
+    private HttpClient httpClient;
+    private CircuitBreakerRegistry breakers;
+    private ProbeScheduler scheduler;
+    private AdaptiveIntervals intervals;
+    private ProbeMetrics probeMetrics;
+    private ClusterShard shard;
+
+    public ServicePollerVerticle(ServiceRegistry registry) {
+        this(registry, new Properties());
+    }
+
+    public ServicePollerVerticle(ServiceRegistry registry, Properties properties) {
+        this(registry, properties, null, null, 0, 1);
+    }
 
-    public ServicePollerVerticle(ServiceRepository dbCon) {
-        this.dbCon = dbCon;
+    /**
+     * Creates one of several poller instances, each probing the services whose id falls in its partition. The probe
+     * metrics and the cluster shard are shared by the instances, {@code null} ones are created at start and owned by
+     * this verticle.
+     */
+    public ServicePollerVerticle(ServiceRegistry registry, Properties properties, ProbeMetrics probeMetrics,
+                                 ClusterShard shard, int instance, int instances) {
+        this.registry = registry;
+        this.properties = properties;
+        this.probeMetrics = probeMetrics;
+        this.shard = shard;
+        this.ownsShard = shard == null;
+        this.instance = instance;
+        this.instances = instances;
     }
 
     @Override
     public void start(Promise<Void> startPromise) {
+        StatusEventCodec.register(vertx.eventBus());
+
+        // single long-lived client shared by every probe so that connections are pooled and kept alive
+        this.httpClient = vertx.createHttpClient(httpClientOptions(this.properties));
+
+        // polling done through a circuit breaker per service to protect the verticle from misbehaving services,
+        // without letting one failing backend open the circuit of the others
+        this.breakers = new CircuitBreakerRegistry(vertx, new CircuitBreakerOptions()
+                .setMaxFailures(Integer.parseInt(properties.getProperty(BREAKER_MAX_FAILURES_CONFIG, "5")))
+                .setTimeout(Long.parseLong(properties.getProperty(BREAKER_TIMEOUT_CONFIG, "2000")))
+                .setResetTimeout(Long.parseLong(properties.getProperty(BREAKER_RESET_TIMEOUT_CONFIG, "30000"))),
+                Integer.parseInt(properties.getProperty(BREAKER_REGISTRY_MAX_SIZE_CONFIG, "10000")));
+
+        // probes are spread over the poll interval by the timing wheel instead of being fired all at once
+        long tickMillis = Long.parseLong(properties.getProperty(SCHEDULER_TICK_CONFIG, "100"));
+        this.scheduler = new ProbeScheduler(tickMillis,
+                Integer.parseInt(properties.getProperty(SCHEDULER_WHEEL_SIZE_CONFIG, "512")),
+                System.currentTimeMillis());
+        // services with adaptive polling are probed faster after a change and back off while failing for long
+        this.intervals = new AdaptiveIntervals(tickMillis,
+                Long.parseLong(properties.getProperty(ADAPTIVE_CONFIRM_WINDOW_CONFIG, "30000")),
+                Long.parseLong(properties.getProperty(ADAPTIVE_CONFIRM_FACTOR_CONFIG, "4")),
+                Long.parseLong(properties.getProperty(ADAPTIVE_BACKOFF_DELAY_CONFIG, "300000")),
+                Double.parseDouble(properties.getProperty(ADAPTIVE_BACKOFF_MULTIPLIER_CONFIG, "2")),
+                Long.parseLong(properties.getProperty(ADAPTIVE_BACKOFF_MAX_CONFIG, "300000")));
+        if (this.probeMetrics == null) {
+            this.probeMetrics = new ProbeMetrics(Meters.registry());
+        }
+        vertx.setPeriodic(tickMillis, l -> {
+            this.scheduler.advance(System.currentTimeMillis(), this::probeService);
+            this.probeMetrics.recordSchedulerTick(this.instance, this.scheduler.getLastLagMillis(),
+                    this.scheduler.size());
+        });
+        vertx.setPeriodic(LAG_REPORT_INTERVAL, l -> LOG.debug("scheduled services: " + this.scheduler.size()
+                + ", max scheduling lag (ms): " + this.scheduler.getAndResetMaxLagMillis()));
 
-        // polling done through the circuit breaker to protect the verticle from misbehaving services
-        CircuitBreaker breaker = CircuitBreaker.create("kry-svc-circuit-breaker", vertx,
-            new CircuitBreakerOptions().setMaxFailures(5).setTimeout(2000)
-        );
-
-        // periodically obtain the status of the backend services stored in the database
-        vertx.setPeriodic(3000L, l -> {
-            this.dbCon.getAll().onSuccess(event -> {
-                for (Service service : event) {
-                    breaker.<ServiceStatus>execute(promise -> {
-                        // call the GET endpoint of a backend service
-                        this.vertx.createHttpClient().request(HttpMethod.GET,
-                                        service.getUrl().getPort(),
-                                        service.getUrl().getHost(),
-                                        service.getUrl().getPath())
-                                .compose(req -> req
-                                        .send()
-                                        .compose(resp -> {
-                                            if (resp.statusCode() != 200) {
-                                                return Future.succeededFuture(ServiceStatus.FAIL);
-                                            } else {
-                                                return resp.body().map(buffer ->
-                                                        ServiceStatus.valueOf(buffer.toString()));
-                                            }
-                                        })).onComplete(promise);
-                    }).onComplete(ar -> {
-                        if (ar.succeeded()) {
-                            service.setCurrentStatus(ar.result());
-                        } else {
-                            service.setCurrentStatus(ServiceStatus.FAIL);
-                        }
-                        vertx.eventBus().publish("kry.services", Json.encode(service));
-                    });
-                }
-            });
+        // schedule the registered services this node owns and follow the registry changes and the cluster
+        // membership, the DB is never queried here
+        if (this.ownsShard) {
+            // a poller deployed on its own polls every service
+            this.shard = new ClusterShard(vertx, null, properties);
+        }
+        vertx.eventBus().<JsonObject>localConsumer(ServiceRegistry.CHANGES_ADDRESS, message -> {
+            int serviceId = message.body().getInteger("id");
+            // the breaker is recreated so that a changed timeout applies, and the interval starts over from the base
+            this.breakers.remove(serviceId);
+            this.intervals.remove(serviceId);
+            reschedule(serviceId);
         });
-    
+        this.registry.all().forEach(target -> reschedule(target.getService().getId()));
+        vertx.eventBus().localConsumer(ClusterShard.REBALANCE_ADDRESS, message -> rebalance());
+        if (this.ownsShard) {
+            this.shard.start();
+        }
+
+        // low rate snapshot of every status so that clients which missed a transition can resync, published by the
+        // first instance for the whole node
+        if (this.instance == 0) {
+            vertx.setPeriodic(Long.parseLong(properties.getProperty(SNAPSHOT_INTERVAL_CONFIG, "30000")),
+                    l -> publishSnapshot());
+        }
+
         startPromise.complete();
     }
+
+    @Override
+    public void stop(Promise<Void> stopPromise) {
+        if (this.ownsShard && this.shard != null) {
+            this.shard.stop();
+        }
+        if (this.breakers != null) {
+            this.breakers.close();
+        }
+        if (this.httpClient == null) {
+            stopPromise.complete();
+            return;
+        }
+        this.httpClient.close(stopPromise);
+    }
+
+    private void reschedule(int serviceId) {
+        ProbeTarget target = this.registry.get(serviceId);
+        if (target != null && owns(serviceId)) {
+            long interval = target.isAdaptive()
+                    ? this.intervals.current(serviceId, target.getIntervalMillis()) : target.getIntervalMillis();
+            this.scheduler.schedule(serviceId, interval);
+            this.registry.updateEffectiveInterval(serviceId, interval);
+        } else if (this.scheduler.isScheduled(serviceId)) {
+            // the metrics are shared, only the instance which probed the service drops them
+            this.scheduler.cancel(serviceId);
+            this.intervals.remove(serviceId);
+            this.probeMetrics.remove(serviceId);
+        }
+    }
+
+    /**
+     * Returns whether the service is probed by this instance: owned by this cluster node and in this instance's
+     * partition.
+     */
+    private boolean owns(int serviceId) {
+        return Math.floorMod(serviceId, this.instances) == this.instance && this.shard.owns(serviceId);
+    }
+
+    /**
+     * Takes over the services this node owns after a membership change, and hands over the others.
+     */
+    private void rebalance() {
+        Set<Integer> serviceIds = new HashSet<>(this.scheduler.scheduledIds());
+        this.registry.all().forEach(target -> serviceIds.add(target.getService().getId()));
+        serviceIds.forEach(this::reschedule);
+        // breakers of the services handed over are dropped, they start closed again when taken back
+        this.breakers.retain(this.scheduler.scheduledIds());
+        LOG.info("poller " + this.instance + " of node " + this.shard.getNodeId() + " polls " + this.scheduler.size()
+                + " of " + this.registry.size() + " services");
+    }
+
+    private void probeService(int serviceId) {
+        ProbeTarget target = this.registry.get(serviceId);
+        if (target == null || !owns(serviceId)) {
+            reschedule(serviceId);
+            return;
+        }
+        if (!this.inFlight.add(serviceId)) {
+            // a slow service is probed at most once at a time instead of piling up requests
+            return;
+        }
+        long startTime = System.nanoTime();
+        this.breakers.get(serviceId, target.getTimeoutMillis()).<ServiceStatus>execute(promise ->
+                probe(this.httpClient, target).onComplete(promise)
+        ).onComplete(ar -> {
+            this.inFlight.remove(serviceId);
+            ServiceStatus status = ar.succeeded() ? ar.result() : ServiceStatus.FAIL;
+            CircuitBreakerState circuitState = this.breakers.state(serviceId);
+            long latencyNanos = System.nanoTime() - startTime;
+            this.probeMetrics.recordProbe(serviceId, ar.succeeded() ? status : null, circuitState, latencyNanos);
+            int latency = (int) TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+            ProbeTarget current = this.registry.get(serviceId);
+            // the previous status lets the status filtered subscribers drop a service leaving their status
+            StatusEvent event = new StatusEvent(serviceId, status,
+                    current == null ? null : current.getService().getCurrentStatus(), circuitState,
+                    System.currentTimeMillis(), latency);
+            vertx.eventBus().publish(StatusEvent.PROBE_ADDRESS, event, PROBE_DELIVERY_OPTIONS);
+            // skipped when the service was changed, handed over or removed while it was probed
+            if (target.isAdaptive() && current != null && current.isFor(target.getService())
+                    && this.scheduler.isScheduled(serviceId)) {
+                long interval = this.intervals.next(serviceId, target.getIntervalMillis(), status,
+                        event.getTimestamp());
+                this.scheduler.adjust(serviceId, interval);
+                this.registry.updateEffectiveInterval(serviceId, interval);
+            }
+            // only status transitions are published, steady state is covered by the periodic snapshot
+            if (this.registry.updateStatus(serviceId, status, circuitState)) {
+                vertx.eventBus().publish(StatusEvent.ADDRESS, event);
+            }
+        });
+    }
+
+    private void publishSnapshot() {
+        JsonArray statuses = new JsonArray();
+        // only the services probed on this node, the other statuses are published by the nodes owning them
+        for (ProbeTarget target : this.registry.all()) {
+            if (!this.shard.owns(target.getService().getId())) {
+                continue;
+            }
+            statuses.add(new JsonObject()
+                    .put("id", target.getService().getId())
+                    .put("currentStatus", target.getService().getCurrentStatus())
+                    .put("circuitState", target.getService().getCircuitState()));
+        }
+        vertx.eventBus().publish("kry.services.snapshot", new JsonObject().put("services", statuses).encode());
+    }
+
+    /**
+     * Returns the scheduling lag of the most recent wheel tick, in milliseconds.
+     */
+    public long getSchedulingLagMillis() {
+        return this.scheduler == null ? 0 : this.scheduler.getLastLagMillis();
+    }
+
+    /**
+     * Calls the GET endpoint of a backend service and maps the response to a service status. A service with an
+     * expected status code and/or body matcher is OK when the response satisfies them, otherwise the response body is
+     * expected to carry the status itself.
+     */
+    static Future<ServiceStatus> probe(HttpClient client, ProbeTarget target) {
+        RequestOptions requestOptions = new RequestOptions()
+                .setMethod(HttpMethod.GET)
+                .setHost(target.getHost())
+                .setPort(target.getPort())
+                .setURI(target.getUri())
+                .setSsl(target.isSsl())
+                .setTimeout(target.getTimeoutMillis());
+        return client.request(requestOptions)
+                .compose(req -> req
+                        .send()
+                        .compose(resp -> {
+                            Integer expectedStatus = target.getExpectedStatusCode();
+                            Pattern bodyMatcher = target.getBodyMatcher();
+                            if (resp.statusCode() != (expectedStatus != null ? expectedStatus : 200)) {
+                                return Future.succeededFuture(ServiceStatus.FAIL);
+                            } else if (bodyMatcher != null) {
+                                return resp.body().map(buffer -> bodyMatcher.matcher(buffer.toString()).find()
+                                        ? ServiceStatus.OK : ServiceStatus.FAIL);
+                            } else if (expectedStatus != null) {
+                                return Future.succeededFuture(ServiceStatus.OK);
+                            } else {
+                                return resp.body().map(buffer -> ServiceStatus.valueOf(buffer.toString()));
+                            }
+                        }));
+    }
+
+    /**
+     * Builds the options of the shared probe client. The pool size applies per host, so a single slow backend cannot
+     * take the connections needed to poll the others.
+     */
+    static HttpClientOptions httpClientOptions(Properties properties) {
+        HttpClientOptions options = new HttpClientOptions()
+                .setMaxPoolSize(Integer.parseInt(properties.getProperty(HTTP_POOL_SIZE_CONFIG, "4")))
+                .setKeepAlive(Boolean.parseBoolean(properties.getProperty(HTTP_KEEPALIVE_CONFIG, "true")))
+                .setKeepAliveTimeout(Integer.parseInt(properties.getProperty(HTTP_KEEPALIVE_TIMEOUT_CONFIG, "60")))
+                .setIdleTimeout(Integer.parseInt(properties.getProperty(HTTP_IDLE_TIMEOUT_CONFIG, "30")))
+                .setIdleTimeoutUnit(TimeUnit.SECONDS)
+                .setConnectTimeout(Integer.parseInt(properties.getProperty(HTTP_CONNECT_TIMEOUT_CONFIG, "1000")))
+                .setMaxWaitQueueSize(Integer.parseInt(properties.getProperty(HTTP_MAX_WAIT_QUEUE_CONFIG, "256")));
+
+        if (Boolean.parseBoolean(properties.getProperty(HTTP2_ENABLED_CONFIG, "false"))) {
+            // h2c upgrade falls back to HTTP/1.1 for backends that do not speak HTTP/2
+            options.setProtocolVersion(HttpVersion.HTTP_2)
+                    .setHttp2ClearTextUpgrade(true)
+                    .setHttp2MaxPoolSize(Integer.parseInt(properties.getProperty(HTTP2_POOL_SIZE_CONFIG, "1")))
+                    .setHttp2MultiplexingLimit(
+                            Integer.parseInt(properties.getProperty(HTTP2_MULTIPLEXING_LIMIT_CONFIG, "100")));
+        }
+        LOG.debug("probe HTTP client options: " + options.toJson());
+        return options;
+    }
 }
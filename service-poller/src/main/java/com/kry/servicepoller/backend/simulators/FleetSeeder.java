@@ -0,0 +1,66 @@
+package com.kry.servicepoller.backend.simulators;
+
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.repositories.ServiceOperation;
+import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Registers the services of the {@link FleetSimulator} in the configured repository, in batches. Meant to be run
+ * once against an empty DB, before the poller is started.
+ */
+public class FleetSeeder {
+    private static final Logger LOG = LoggerFactory.getLogger(FleetSeeder.class);
+    private static final int BATCH_SIZE = 1000;
+
+    private FleetSeeder() {
+    }
+
+    public static void main(String[] args) {
+        Properties properties = FleetSimulator.properties();
+        Vertx vertx = Vertx.vertx();
+        ServiceRepository repository = ServiceRepository.create(vertx, properties);
+        long started = System.currentTimeMillis();
+        repository.init()
+                .compose(v -> seed(repository, properties, 0))
+                .onSuccess(v -> LOG.info(FleetSimulator.services(properties) + " services registered in "
+                        + (System.currentTimeMillis() - started) + " ms"))
+                .onFailure(e -> LOG.error("error registering the simulated services", e))
+                .onComplete(ar -> repository.close().onComplete(v -> vertx.close()));
+    }
+
+    /**
+     * Registers the services from the given index on, one batch after the other.
+     */
+    public static Future<Void> seed(ServiceRepository repository, Properties properties, int from) {
+        int services = FleetSimulator.services(properties);
+        if (from >= services) {
+            return Future.succeededFuture();
+        }
+        int to = Math.min(from + BATCH_SIZE, services);
+        List<ServiceOperation> operations = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            Service service = new Service();
+            service.setName(String.format("fleet-%05d", i));
+            try {
+                service.setUrl(new URL(FleetSimulator.url(properties, i)));
+            } catch (MalformedURLException e) {
+                return Future.failedFuture(e);
+            }
+            operations.add(ServiceOperation.create(service));
+        }
+        return repository.applyBatch(operations).compose(applied -> {
+            LOG.info(to + "/" + services + " services registered");
+            return seed(repository, properties, to);
+        });
+    }
+}
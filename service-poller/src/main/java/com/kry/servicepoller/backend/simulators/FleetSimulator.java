@@ -0,0 +1,229 @@
+package com.kry.servicepoller.backend.simulators;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Fleet of virtual services for load and soak tests, served on {@code /fleet/<index>/health} over one or a few
+ * ports. Every service answers {@code OK} or {@code FAIL} after a log-normal latency and fails at the configured
+ * rate. A fraction of them flaps between OK and FAIL on a schedule, sends its body slowly or never answers. The
+ * behaviour of a service only depends on its index and on the seed, so every instance of the verticle and every run
+ * serve the same fleet.
+ */
+public class FleetSimulator extends AbstractVerticle {
+    private static final Logger LOG = LoggerFactory.getLogger(FleetSimulator.class);
+    private static final String SERVICES_CONFIG = "simulator.services";
+    private static final String PORTS_CONFIG = "simulator.ports";
+    private static final String SEED_CONFIG = "simulator.seed";
+    private static final String LATENCY_MEDIAN_CONFIG = "simulator.latency.median.ms";
+    private static final String LATENCY_SIGMA_CONFIG = "simulator.latency.sigma";
+    private static final String FAILURE_RATE_CONFIG = "simulator.failure.rate";
+    private static final String FLAPPING_FRACTION_CONFIG = "simulator.flapping.fraction";
+    private static final String FLAPPING_PERIOD_CONFIG = "simulator.flapping.period.ms";
+    private static final String SLOW_BODY_FRACTION_CONFIG = "simulator.slow.body.fraction";
+    private static final String SLOW_BODY_DELAY_CONFIG = "simulator.slow.body.ms";
+    private static final String HANG_FRACTION_CONFIG = "simulator.hang.fraction";
+    private static final String PATH_PREFIX = "/fleet/";
+    private static final String PATH_SUFFIX = "/health";
+    private final Properties properties;
+    private final Map<Integer, String> overrides;
+    private Profile[] profiles;
+    private double latencyMedian;
+    private double latencySigma;
+    private double failureRate;
+    private long flappingPeriod;
+    private long slowBodyDelay;
+
+    public FleetSimulator(Properties properties) {
+        this(properties, Collections.emptyMap());
+    }
+
+    /**
+     * @param overrides status forced per service index, shared by the instances of the verticle; such a service
+     *                  answers it after the usual latency whatever its behaviour, e.g. for a load test to flip a
+     *                  service at a known time
+     */
+    public FleetSimulator(Properties properties, Map<Integer, String> overrides) {
+        this.properties = properties;
+        this.overrides = overrides;
+    }
+
+    /**
+     * Runs the simulator on its own, one instance per core.
+     */
+    public static void main(String[] args) {
+        Properties properties = properties();
+        Vertx vertx = Vertx.vertx();
+        vertx.deployVerticle(() -> new FleetSimulator(properties),
+                        new DeploymentOptions().setInstances(Runtime.getRuntime().availableProcessors()))
+                .onSuccess(id -> LOG.info("fleet of " + services(properties) + " services simulated on ports "
+                        + properties.getProperty(PORTS_CONFIG, "9100")))
+                .onFailure(e -> {
+                    LOG.error("error starting the fleet simulator", e);
+                    vertx.close();
+                });
+    }
+
+    /**
+     * Loads the application properties, the {@code simulator.*} system properties take precedence.
+     */
+    static Properties properties() {
+        Properties properties = new Properties();
+        try (InputStream is = FleetSimulator.class.getClassLoader().getResourceAsStream("application.properties")) {
+            properties.load(is);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith("simulator."))
+                .forEach(name -> properties.setProperty(name, System.getProperty(name)));
+        return properties;
+    }
+
+    static int services(Properties properties) {
+        return Integer.parseInt(properties.getProperty(SERVICES_CONFIG, "10000"));
+    }
+
+    /**
+     * Returns the URL of the service of the given index, the services are spread over the ports.
+     */
+    static String url(Properties properties, int index) {
+        String[] ports = properties.getProperty(PORTS_CONFIG, "9100").split(",");
+        return "http://localhost:" + ports[index % ports.length].trim() + PATH_PREFIX + index + PATH_SUFFIX;
+    }
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        latencyMedian = Double.parseDouble(properties.getProperty(LATENCY_MEDIAN_CONFIG, "20"));
+        latencySigma = Double.parseDouble(properties.getProperty(LATENCY_SIGMA_CONFIG, "0.5"));
+        failureRate = Double.parseDouble(properties.getProperty(FAILURE_RATE_CONFIG, "0.05"));
+        flappingPeriod = Long.parseLong(properties.getProperty(FLAPPING_PERIOD_CONFIG, "60000"));
+        slowBodyDelay = Long.parseLong(properties.getProperty(SLOW_BODY_DELAY_CONFIG, "3000"));
+        profiles = profiles(properties);
+
+        List<Future> servers = new ArrayList<>();
+        for (String port : properties.getProperty(PORTS_CONFIG, "9100").split(",")) {
+            servers.add(vertx.createHttpServer().requestHandler(this::handle).listen(Integer.parseInt(port.trim())));
+        }
+        CompositeFuture.all(servers).<Void>mapEmpty().onComplete(startPromise);
+    }
+
+    private static Profile[] profiles(Properties properties) {
+        SplittableRandom random = new SplittableRandom(Long.parseLong(properties.getProperty(SEED_CONFIG, "42")));
+        double flapping = Double.parseDouble(properties.getProperty(FLAPPING_FRACTION_CONFIG, "0.02"));
+        double slowBody = Double.parseDouble(properties.getProperty(SLOW_BODY_FRACTION_CONFIG, "0.01"));
+        double hang = Double.parseDouble(properties.getProperty(HANG_FRACTION_CONFIG, "0.005"));
+        Profile[] profiles = new Profile[services(properties)];
+        for (int i = 0; i < profiles.length; i++) {
+            // a service has a single misbehaviour at most
+            double draw = random.nextDouble();
+            Behaviour behaviour = draw < hang ? Behaviour.HANG
+                    : draw < hang + slowBody ? Behaviour.SLOW_BODY
+                    : draw < hang + slowBody + flapping ? Behaviour.FLAPPING
+                    : Behaviour.NORMAL;
+            profiles[i] = new Profile(behaviour, random.nextLong(Long.MAX_VALUE));
+        }
+        return profiles;
+    }
+
+    private void handle(HttpServerRequest request) {
+        int index = index(request.path());
+        if (index < 0) {
+            request.response().setStatusCode(404).end();
+            return;
+        }
+        String forced = overrides.get(index);
+        Profile profile = forced != null ? Profile.FORCED : profiles[index];
+        if (profile.behaviour == Behaviour.HANG) {
+            // never answered, the client times out
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String status;
+        if (forced != null) {
+            status = forced;
+        } else if (profile.behaviour == Behaviour.FLAPPING) {
+            status = ((System.currentTimeMillis() + profile.phase % flappingPeriod) / flappingPeriod) % 2 == 0
+                    ? "OK" : "FAIL";
+        } else {
+            status = random.nextDouble() < failureRate ? "FAIL" : "OK";
+        }
+        long latency = Math.round(latencyMedian * Math.exp(latencySigma * random.nextGaussian()));
+        if (latency < 1) {
+            respond(request.response(), status, profile.behaviour);
+        } else {
+            vertx.setTimer(latency, l -> respond(request.response(), status, profile.behaviour));
+        }
+    }
+
+    private void respond(HttpServerResponse response, String status, Behaviour behaviour) {
+        if (response.closed()) {
+            return;
+        }
+        response.putHeader("Content-Type", "text/plain");
+        if (behaviour == Behaviour.SLOW_BODY) {
+            // the headers come on time, the rest of the body late
+            response.setChunked(true).write(status.substring(0, 1));
+            vertx.setTimer(slowBodyDelay, l -> {
+                if (!response.closed()) {
+                    response.end(status.substring(1));
+                }
+            });
+        } else {
+            response.end(status);
+        }
+    }
+
+    /**
+     * Returns the index of the service of the given path, -1 for an unknown one.
+     */
+    private int index(String path) {
+        if (path == null || !path.startsWith(PATH_PREFIX) || !path.endsWith(PATH_SUFFIX)) {
+            return -1;
+        }
+        try {
+            int index = Integer.parseInt(path.substring(PATH_PREFIX.length(), path.length() - PATH_SUFFIX.length()));
+            return index >= 0 && index < profiles.length ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private enum Behaviour {
+        NORMAL,
+        FLAPPING,
+        SLOW_BODY,
+        HANG
+    }
+
+    private static class Profile {
+        private static final Profile FORCED = new Profile(Behaviour.NORMAL, 0);
+        private final Behaviour behaviour;
+        // shifts the flapping schedule, so the flapping services do not all change at once
+        private final long phase;
+
+        private Profile(Behaviour behaviour, long phase) {
+            this.behaviour = behaviour;
+            this.phase = phase;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.kry.servicepoller.cluster;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.spi.cluster.ClusterManager;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Share of the monitored services this node is responsible for. In clustered mode the services are split between the
+ * cluster members with a consistent hash ring on the service id, and the ring is rebuilt when a member joins or
+ * leaves. A node that is not clustered owns every service.
+ * The membership is checked periodically rather than through a node listener, the cluster manager only supports one
+ * listener and Vert.x itself relies on it.
+ * A single shard is shared by the poller instances of a node, they are told of a rebalance on
+ * {@link #REBALANCE_ADDRESS}.
+ */
+public class ClusterShard {
+    public static final String REBALANCE_ADDRESS = "kry.cluster.rebalance";
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterShard.class);
+    private static final String LOCAL_NODE_ID = "local";
+    private static final String VIRTUAL_NODES_CONFIG = "cluster.ring.virtual.nodes";
+    private static final String MEMBERSHIP_CHECK_INTERVAL_CONFIG = "cluster.membership.check.interval.ms";
+    private static final DeliveryOptions LOCAL_DELIVERY_OPTIONS = new DeliveryOptions().setLocalOnly(true);
+    private final Vertx vertx;
+    private final ClusterManager clusterManager;
+    private final int virtualNodes;
+    private final long membershipCheckInterval;
+    private volatile ConsistentHashRing ring;
+    private long timerId = -1;
+
+    /**
+     * @param clusterManager cluster manager the node joined with, {@code null} when the node is not clustered
+     */
+    public ClusterShard(Vertx vertx, ClusterManager clusterManager, Properties properties) {
+        this.vertx = vertx;
+        this.clusterManager = clusterManager;
+        this.virtualNodes = Integer.parseInt(properties.getProperty(VIRTUAL_NODES_CONFIG, "128"));
+        this.membershipCheckInterval = Long.parseLong(properties.getProperty(MEMBERSHIP_CHECK_INTERVAL_CONFIG, "1000"));
+        this.ring = new ConsistentHashRing(members(), virtualNodes);
+    }
+
+    /**
+     * Starts following the cluster membership, every rebalance is published locally on {@link #REBALANCE_ADDRESS}
+     * so that each poller instance takes over or hands over its services on its own event loop.
+     */
+    public void start() {
+        if (clusterManager == null) {
+            return;
+        }
+        timerId = vertx.setPeriodic(membershipCheckInterval, l -> {
+            Set<String> members = members();
+            if (!members.equals(ring.getNodes())) {
+                LOG.info("cluster membership changed, rebalancing services over nodes: " + members);
+                ring = new ConsistentHashRing(members, virtualNodes);
+                vertx.eventBus().publish(REBALANCE_ADDRESS, null, LOCAL_DELIVERY_OPTIONS);
+            }
+        });
+    }
+
+    public void stop() {
+        if (timerId != -1) {
+            vertx.cancelTimer(timerId);
+        }
+    }
+
+    /**
+     * Returns whether this node has to probe the given service.
+     */
+    public boolean owns(int serviceId) {
+        return getNodeId().equals(ring.ownerOf(serviceId));
+    }
+
+    public String getNodeId() {
+        return clusterManager == null ? LOCAL_NODE_ID : clusterManager.getNodeId();
+    }
+
+    public Set<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    private Set<String> members() {
+        if (clusterManager == null) {
+            return Collections.singleton(LOCAL_NODE_ID);
+        }
+        Set<String> members = new HashSet<>(clusterManager.getNodes());
+        // the local node is not always listed yet while joining
+        members.add(clusterManager.getNodeId());
+        return members;
+    }
+}
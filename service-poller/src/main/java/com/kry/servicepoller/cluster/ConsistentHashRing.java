@@ -0,0 +1,62 @@
+package com.kry.servicepoller.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Immutable consistent hash ring assigning services to cluster nodes. Every node is placed on the ring many times
+ * (virtual nodes) so the services are split evenly, and a node joining or leaving only moves the services of its own
+ * ring segments.
+ */
+public final class ConsistentHashRing {
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final Set<String> nodes;
+
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        this.nodes = new TreeSet<>(nodes);
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + '#' + i), node);
+            }
+        }
+    }
+
+    /**
+     * Returns the node owning the given service, or {@code null} if the ring has no node.
+     */
+    public String ownerOf(int serviceId) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> owner = ring.ceilingEntry(mix(serviceId));
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    // FNV-1a, finalized with the same mixer as the service ids
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // murmur3 64 bit finalizer, consecutive ids end up far apart on the ring
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,64 @@
+package com.kry.servicepoller.codecs;
+
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageCodec;
+
+/**
+ * Event bus codec of {@link StatusEvent}. Local delivery passes the immutable event as is, clustered delivery uses a
+ * fixed 19 byte binary form: id, status, previous status (-1 if unknown), circuit state, timestamp and latency.
+ */
+public class StatusEventCodec implements MessageCodec<StatusEvent, StatusEvent> {
+    private static final ServiceStatus[] STATUSES = ServiceStatus.values();
+    private static final CircuitBreakerState[] CIRCUIT_STATES = CircuitBreakerState.values();
+
+    /**
+     * Registers the codec as the default one for status events, unless it is already registered.
+     */
+    public static void register(EventBus eventBus) {
+        try {
+            eventBus.registerDefaultCodec(StatusEvent.class, new StatusEventCodec());
+        } catch (IllegalStateException e) {
+            // registered by another verticle of the same Vert.x instance
+        }
+    }
+
+    @Override
+    public void encodeToWire(Buffer buffer, StatusEvent event) {
+        buffer.appendInt(event.getId())
+                .appendByte((byte) event.getStatus().ordinal())
+                .appendByte((byte) (event.getPreviousStatus() == null ? -1 : event.getPreviousStatus().ordinal()))
+                .appendByte((byte) event.getCircuitState().ordinal())
+                .appendLong(event.getTimestamp())
+                .appendInt(event.getLatencyMillis());
+    }
+
+    @Override
+    public StatusEvent decodeFromWire(int pos, Buffer buffer) {
+        byte previousStatus = buffer.getByte(pos + 5);
+        return new StatusEvent(buffer.getInt(pos),
+                STATUSES[buffer.getByte(pos + 4)],
+                previousStatus < 0 ? null : STATUSES[previousStatus],
+                CIRCUIT_STATES[buffer.getByte(pos + 6)],
+                buffer.getLong(pos + 7),
+                buffer.getInt(pos + 15));
+    }
+
+    @Override
+    public StatusEvent transform(StatusEvent event) {
+        return event;
+    }
+
+    @Override
+    public String name() {
+        return "kry-status-event";
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1;
+    }
+}
@@ -0,0 +1,151 @@
+package com.kry.servicepoller.dashboard;
+
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.metrics.Meters;
+import com.kry.servicepoller.polling.ProbeTarget;
+import com.kry.servicepoller.registry.ServiceRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.bridge.BridgeEventType;
+import io.vertx.ext.web.handler.sockjs.BridgeEvent;
+import io.vertx.ext.web.handler.sockjs.SockJSSocket;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fan-out of the status updates to the dashboards connected to the event bus bridge of an endpoint instance. The
+ * status events are conflated per service over a window and published as a single delta frame, so a dashboard gets
+ * at most one frame per window whatever the probe rate. A dashboard whose socket write queue is full gets no frame
+ * until the queue has drained, it is then resynced with a snapshot of the registry instead of the frames it missed,
+ * so a slow dashboard never holds more than what its socket already buffers.
+ */
+public class DashboardFanOut {
+    public static final String DELTA_ADDRESS = "kry.services";
+    public static final String SNAPSHOT_ADDRESS = "kry.services.snapshot";
+    private static final DeliveryOptions LOCAL_DELIVERY = new DeliveryOptions().setLocalOnly(true);
+    // summed over the endpoint instances of the node, which all register the same gauges
+    private static final AtomicInteger CLIENTS = new AtomicInteger();
+    private static final AtomicInteger LAGGING = new AtomicInteger();
+    private final Vertx vertx;
+    private final ServiceRegistry registry;
+    // dashboards of this endpoint instance and the lagging ones, confined to its event loop like their sockets
+    private final Set<SockJSSocket> dashboards = new HashSet<>();
+    private final Set<SockJSSocket> lagging = new HashSet<>();
+    private final Counter delivered;
+    private final Counter dropped;
+    private final Counter resyncs;
+    private String snapshot;
+    private long snapshotVersion = -1;
+
+    public DashboardFanOut(Vertx vertx, ServiceRegistry registry) {
+        this.vertx = vertx;
+        this.registry = registry;
+        MeterRegistry meters = Meters.registry();
+        Gauge.builder("dashboard.clients", CLIENTS, AtomicInteger::get)
+                .description("Dashboards connected to the event bus bridge")
+                .register(meters);
+        Gauge.builder("dashboard.clients.lagging", LAGGING, AtomicInteger::get)
+                .description("Dashboards whose socket write queue is full, waiting for a resync")
+                .register(meters);
+        this.delivered = Counter.builder("dashboard.frames.delivered")
+                .description("Status frames written to the dashboards")
+                .register(meters);
+        this.dropped = Counter.builder("dashboard.frames.dropped")
+                .description("Status frames not written to lagging dashboards")
+                .register(meters);
+        this.resyncs = Counter.builder("dashboard.resyncs")
+                .description("Snapshots written to dashboards instead of the frames they missed")
+                .register(meters);
+    }
+
+    /**
+     * Conflates the status events of the whole cluster over windows of the given length and publishes them to the
+     * dashboards of every endpoint instance of this node. Started by a single instance.
+     */
+    public void conflate(long windowMillis) {
+        Map<Integer, JsonObject> window = new LinkedHashMap<>();
+        vertx.eventBus().<StatusEvent>consumer(StatusEvent.ADDRESS,
+                message -> window.put(message.body().getId(), message.body().toJson()));
+        vertx.setPeriodic(windowMillis, l -> {
+            if (window.isEmpty()) {
+                return;
+            }
+            JsonArray services = new JsonArray();
+            window.values().forEach(services::add);
+            window.clear();
+            vertx.eventBus().publish(DELTA_ADDRESS, new JsonObject().put("services", services).encode(),
+                    LOCAL_DELIVERY);
+        });
+    }
+
+    /**
+     * Bridge event handler, decides frame by frame whether a dashboard gets it.
+     */
+    public void handle(BridgeEvent event) {
+        if (event.type() == BridgeEventType.SOCKET_CREATED) {
+            if (dashboards.add(event.socket())) {
+                CLIENTS.incrementAndGet();
+            }
+        } else if (event.type() == BridgeEventType.SOCKET_CLOSED) {
+            if (dashboards.remove(event.socket())) {
+                CLIENTS.decrementAndGet();
+            }
+            if (lagging.remove(event.socket())) {
+                LAGGING.decrementAndGet();
+            }
+        } else if (event.type() == BridgeEventType.RECEIVE) {
+            event.complete(deliver(event));
+            return;
+        }
+        event.complete(true);
+    }
+
+    private boolean deliver(BridgeEvent event) {
+        if (event.socket().writeQueueFull()) {
+            if (lagging.add(event.socket())) {
+                LAGGING.incrementAndGet();
+            }
+            dropped.increment();
+            return false;
+        }
+        if (lagging.remove(event.socket())) {
+            LAGGING.decrementAndGet();
+            // the frames dropped meanwhile are replaced by the current state of every service
+            event.getRawMessage().put("address", SNAPSHOT_ADDRESS).put("body", snapshot());
+            resyncs.increment();
+        }
+        delivered.increment();
+        return true;
+    }
+
+    /**
+     * Returns the statuses of every service, in the format of the snapshots published by the poller. Encoded once
+     * per registry version.
+     */
+    private String snapshot() {
+        long version = registry.version();
+        if (snapshot == null || version != snapshotVersion) {
+            JsonArray statuses = new JsonArray();
+            for (ProbeTarget target : registry.all()) {
+                Service service = target.getService();
+                statuses.add(new JsonObject()
+                        .put("id", service.getId())
+                        .put("currentStatus", service.getCurrentStatus())
+                        .put("circuitState", service.getCircuitState()));
+            }
+            snapshot = new JsonObject().put("services", statuses).encode();
+            snapshotVersion = version;
+        }
+        return snapshot;
+    }
+}
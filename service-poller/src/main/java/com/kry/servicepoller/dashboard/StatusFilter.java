@@ -0,0 +1,77 @@
+package com.kry.servicepoller.dashboard;
+
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Services a subscriber wants the updates of: the ones with the given ids, names starting with the given prefix and
+ * the given status, each criterion being optional. The name prefix is matched ignoring the case.
+ */
+public class StatusFilter {
+    private final Set<Integer> ids;
+    private final String namePrefix;
+    private final ServiceStatus status;
+
+    public StatusFilter(Set<Integer> ids, String namePrefix, ServiceStatus status) {
+        this.ids = ids;
+        this.namePrefix = namePrefix == null || namePrefix.isEmpty() ? null : namePrefix.toLowerCase();
+        this.status = status;
+    }
+
+    /**
+     * Parses the filter from the query parameters of a subscription, e.g. {@code ids=1,2,3}, any of them can be
+     * {@code null}.
+     *
+     * @throws IllegalArgumentException if a parameter is invalid
+     */
+    public static StatusFilter parse(String idsParam, String namePrefix, String statusParam) {
+        Set<Integer> ids = null;
+        if (idsParam != null) {
+            ids = new LinkedHashSet<>();
+            for (String id : idsParam.split(",")) {
+                ids.add(Integer.parseInt(id.trim()));
+            }
+        }
+        return new StatusFilter(ids, namePrefix,
+                statusParam == null ? null : ServiceStatus.valueOf(statusParam.toUpperCase()));
+    }
+
+    /**
+     * Ids of the services, {@code null} for any.
+     */
+    public Set<Integer> getIds() {
+        return ids;
+    }
+
+    /**
+     * Lower case prefix of the service names, {@code null} for any.
+     */
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    /**
+     * Status of the services, {@code null} for any.
+     */
+    public ServiceStatus getStatus() {
+        return status;
+    }
+
+    public boolean matches(Service service, ServiceStatus currentStatus) {
+        return matches(service, currentStatus, null);
+    }
+
+    /**
+     * Returns whether a transition of the service from the previous status, {@code null} if unknown, to the current
+     * one concerns the subscriber: the status criterion is met by either, so that a service leaving the status is
+     * seen as well.
+     */
+    public boolean matches(Service service, ServiceStatus currentStatus, ServiceStatus previousStatus) {
+        return (ids == null || ids.contains(service.getId()))
+                && (namePrefix == null || service.getName().regionMatches(true, 0, namePrefix, 0, namePrefix.length()))
+                && (status == null || status == currentStatus || status == previousStatus);
+    }
+}
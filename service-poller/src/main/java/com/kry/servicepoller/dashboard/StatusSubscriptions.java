@@ -0,0 +1,145 @@
+package com.kry.servicepoller.dashboard;
+
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.metrics.Meters;
+import com.kry.servicepoller.polling.ProbeTarget;
+import com.kry.servicepoller.registry.ServiceRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Filtered status updates over WebSocket and Server-Sent Events, for the subscriptions of an endpoint instance.
+ * A subscriber first gets the current status of the services it subscribed to, then every status transition of
+ * these services, including a transition out of the status a subscriber filters on. Updates are dropped while the
+ * stream to a subscriber is full, and the current statuses sent again once it has drained.
+ */
+public class StatusSubscriptions {
+    // summed over the endpoint instances of the node, which all register the same gauge
+    private static final AtomicInteger SUBSCRIPTIONS = new AtomicInteger();
+    private final ServiceRegistry registry;
+    // confined to the event loop of the endpoint instance, like the streams of its subscribers
+    private final SubscriptionIndex index = new SubscriptionIndex();
+    private final Counter delivered;
+    private final Counter dropped;
+
+    public StatusSubscriptions(Vertx vertx, ServiceRegistry registry) {
+        this.registry = registry;
+        MeterRegistry meters = Meters.registry();
+        Gauge.builder("subscriptions", SUBSCRIPTIONS, AtomicInteger::get)
+                .description("WebSocket and Server-Sent Events subscriptions to status updates")
+                .register(meters);
+        this.delivered = Counter.builder("subscriptions.updates.delivered")
+                .description("Status updates written to the subscribers")
+                .register(meters);
+        this.dropped = Counter.builder("subscriptions.updates.dropped")
+                .description("Status updates not written to subscribers whose stream was full")
+                .register(meters);
+        // every node gets the transitions of the whole cluster
+        vertx.eventBus().<StatusEvent>consumer(StatusEvent.ADDRESS, message -> publish(message.body()));
+    }
+
+    /**
+     * Streams the updates as Server-Sent Events on the given response, until the client closes it.
+     */
+    public void serverSentEvents(HttpServerResponse response, StatusFilter filter) {
+        response.setChunked(true)
+                .putHeader("Content-Type", "text/event-stream")
+                .putHeader("Cache-Control", "no-cache");
+        Subscription subscription = new Subscription(filter, response,
+                update -> response.write("data: " + update + "\n\n"));
+        response.closeHandler(v -> unsubscribe(subscription));
+        subscribe(subscription);
+    }
+
+    /**
+     * Streams the updates as text messages on the given WebSocket, until the client closes it.
+     */
+    public void webSocket(ServerWebSocket webSocket, StatusFilter filter) {
+        Subscription subscription = new Subscription(filter, webSocket, webSocket::writeTextMessage);
+        webSocket.closeHandler(v -> unsubscribe(subscription));
+        subscribe(subscription);
+    }
+
+    private void subscribe(Subscription subscription) {
+        index.add(subscription);
+        SUBSCRIPTIONS.incrementAndGet();
+        subscription.getStream().drainHandler(v -> {
+            if (subscription.isLagging()) {
+                subscription.setLagging(false);
+                resync(subscription);
+            }
+        });
+        resync(subscription);
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        index.remove(subscription);
+        SUBSCRIPTIONS.decrementAndGet();
+    }
+
+    private void publish(StatusEvent event) {
+        ProbeTarget target = registry.get(event.getId());
+        if (target == null) {
+            return;
+        }
+        List<Subscription> matching = index.matching(target.getService(), event.getStatus(),
+                event.getPreviousStatus());
+        if (matching.isEmpty()) {
+            return;
+        }
+        String update = event.toJson().encode();
+        for (Subscription subscription : matching) {
+            if (subscription.isLagging() || subscription.getStream().writeQueueFull()) {
+                subscription.setLagging(true);
+                dropped.increment();
+            } else {
+                subscription.write(update);
+                delivered.increment();
+            }
+        }
+    }
+
+    /**
+     * Sends the current status of every service the subscription matches. It stops when the stream is full, like
+     * an update, and starts over once the stream has drained.
+     */
+    private void resync(Subscription subscription) {
+        StatusFilter filter = subscription.getFilter();
+        List<ProbeTarget> targets = new ArrayList<>();
+        if (filter.getIds() != null) {
+            filter.getIds().forEach(id -> {
+                ProbeTarget target = registry.get(id);
+                if (target != null) {
+                    targets.add(target);
+                }
+            });
+        } else {
+            targets.addAll(registry.all());
+        }
+        for (ProbeTarget target : targets) {
+            Service service = target.getService();
+            if (filter.matches(service, service.getCurrentStatus())) {
+                if (subscription.getStream().writeQueueFull()) {
+                    subscription.setLagging(true);
+                    dropped.increment();
+                    return;
+                }
+                subscription.write(new JsonObject()
+                        .put("id", service.getId())
+                        .put("currentStatus", service.getCurrentStatus())
+                        .put("circuitState", service.getCircuitState())
+                        .encode());
+            }
+        }
+    }
+}
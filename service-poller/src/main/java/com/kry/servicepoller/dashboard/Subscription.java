@@ -0,0 +1,43 @@
+package com.kry.servicepoller.dashboard;
+
+import io.vertx.core.Handler;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Session of a subscriber: its filter, the stream to it and the way a JSON update is framed on that stream.
+ */
+class Subscription {
+    private final StatusFilter filter;
+    private final WriteStream<?> stream;
+    private final Handler<String> writer;
+    private boolean lagging;
+
+    Subscription(StatusFilter filter, WriteStream<?> stream, Handler<String> writer) {
+        this.filter = filter;
+        this.stream = stream;
+        this.writer = writer;
+    }
+
+    StatusFilter getFilter() {
+        return filter;
+    }
+
+    WriteStream<?> getStream() {
+        return stream;
+    }
+
+    /**
+     * Whether updates were dropped since the last resync because the stream did not keep up.
+     */
+    boolean isLagging() {
+        return lagging;
+    }
+
+    void setLagging(boolean lagging) {
+        this.lagging = lagging;
+    }
+
+    void write(String update) {
+        writer.handle(update);
+    }
+}
@@ -0,0 +1,107 @@
+package com.kry.servicepoller.dashboard;
+
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Subscriptions indexed by their most selective criterion: the service ids, else the name prefix, else the status.
+ * An update is only tested against the subscriptions indexed under its service id, the prefixes of its service name
+ * and its status, and the unfiltered ones, whatever the total number of subscriptions. Not thread safe.
+ */
+class SubscriptionIndex {
+    private final Map<Integer, Set<Subscription>> byId = new HashMap<>();
+    private final Map<String, Set<Subscription>> byPrefix = new HashMap<>();
+    private final Map<ServiceStatus, Set<Subscription>> byStatus = new EnumMap<>(ServiceStatus.class);
+    private final Set<Subscription> unfiltered = new LinkedHashSet<>();
+    // prefixes of a name longer than the longest indexed one cannot match
+    private int maxPrefixLength;
+    private int size;
+
+    void add(Subscription subscription) {
+        StatusFilter filter = subscription.getFilter();
+        if (filter.getIds() != null) {
+            filter.getIds().forEach(id -> byId.computeIfAbsent(id, k -> new LinkedHashSet<>()).add(subscription));
+        } else if (filter.getNamePrefix() != null) {
+            byPrefix.computeIfAbsent(filter.getNamePrefix(), k -> new LinkedHashSet<>()).add(subscription);
+            maxPrefixLength = Math.max(maxPrefixLength, filter.getNamePrefix().length());
+        } else if (filter.getStatus() != null) {
+            byStatus.computeIfAbsent(filter.getStatus(), k -> new LinkedHashSet<>()).add(subscription);
+        } else {
+            unfiltered.add(subscription);
+        }
+        size++;
+    }
+
+    void remove(Subscription subscription) {
+        StatusFilter filter = subscription.getFilter();
+        if (filter.getIds() != null) {
+            filter.getIds().forEach(id -> remove(byId, id, subscription));
+        } else if (filter.getNamePrefix() != null) {
+            remove(byPrefix, filter.getNamePrefix(), subscription);
+        } else if (filter.getStatus() != null) {
+            remove(byStatus, filter.getStatus(), subscription);
+        } else {
+            unfiltered.remove(subscription);
+        }
+        size--;
+    }
+
+    private static <K> void remove(Map<K, Set<Subscription>> index, K key, Subscription subscription) {
+        Set<Subscription> subscriptions = index.get(key);
+        if (subscriptions != null && subscriptions.remove(subscription) && subscriptions.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Returns the subscriptions matching a service with the given status, each one once.
+     */
+    List<Subscription> matching(Service service, ServiceStatus status) {
+        return matching(service, status, null);
+    }
+
+    /**
+     * Returns the subscriptions concerned by a transition of the service from the previous status, {@code null} if
+     * unknown, to the given one, each one once. A subscription to either status gets it.
+     */
+    List<Subscription> matching(Service service, ServiceStatus status, ServiceStatus previousStatus) {
+        List<Subscription> matching = new ArrayList<>(unfiltered);
+        collect(byId.get(service.getId()), service, status, previousStatus, matching);
+        if (!byPrefix.isEmpty()) {
+            String name = service.getName().toLowerCase();
+            for (int length = 1; length <= Math.min(name.length(), maxPrefixLength); length++) {
+                collect(byPrefix.get(name.substring(0, length)), service, status, previousStatus, matching);
+            }
+        }
+        collect(byStatus.get(status), service, status, previousStatus, matching);
+        if (previousStatus != null && previousStatus != status) {
+            collect(byStatus.get(previousStatus), service, status, previousStatus, matching);
+        }
+        return matching;
+    }
+
+    // the candidates are checked against the criteria they are not indexed by
+    private static void collect(Set<Subscription> candidates, Service service, ServiceStatus status,
+                                ServiceStatus previousStatus, List<Subscription> matching) {
+        if (candidates == null) {
+            return;
+        }
+        for (Subscription subscription : candidates) {
+            if (subscription.getFilter().matches(service, status, previousStatus)) {
+                matching.add(subscription);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,134 @@
+package com.kry.servicepoller.entities;
+
+/**
+ * Aggregated probe results of a service over one history bucket. Latencies are in milliseconds.
+ */
+public class ProbeRollup {
+    private int serviceId;
+    private RollupResolution resolution;
+    private long bucketStart;
+    private int count;
+    private int failures;
+    private int minLatency;
+    private int maxLatency;
+    private int p50Latency;
+    private int p95Latency;
+    private int p99Latency;
+
+    public ProbeRollup() {
+    }
+
+    public ProbeRollup(int serviceId, RollupResolution resolution, long bucketStart, int count, int failures,
+                       int minLatency, int maxLatency, int p50Latency, int p95Latency, int p99Latency) {
+        this.serviceId = serviceId;
+        this.resolution = resolution;
+        this.bucketStart = bucketStart;
+        this.count = count;
+        this.failures = failures;
+        this.minLatency = minLatency;
+        this.maxLatency = maxLatency;
+        this.p50Latency = p50Latency;
+        this.p95Latency = p95Latency;
+        this.p99Latency = p99Latency;
+    }
+
+    public int getServiceId() {
+        return serviceId;
+    }
+
+    public void setServiceId(int serviceId) {
+        this.serviceId = serviceId;
+    }
+
+    public RollupResolution getResolution() {
+        return resolution;
+    }
+
+    public void setResolution(RollupResolution resolution) {
+        this.resolution = resolution;
+    }
+
+    /**
+     * Start of the bucket, in epoch milliseconds.
+     */
+    public long getBucketStart() {
+        return bucketStart;
+    }
+
+    public void setBucketStart(long bucketStart) {
+        this.bucketStart = bucketStart;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public void setFailures(int failures) {
+        this.failures = failures;
+    }
+
+    public int getMinLatency() {
+        return minLatency;
+    }
+
+    public void setMinLatency(int minLatency) {
+        this.minLatency = minLatency;
+    }
+
+    public int getMaxLatency() {
+        return maxLatency;
+    }
+
+    public void setMaxLatency(int maxLatency) {
+        this.maxLatency = maxLatency;
+    }
+
+    public int getP50Latency() {
+        return p50Latency;
+    }
+
+    public void setP50Latency(int p50Latency) {
+        this.p50Latency = p50Latency;
+    }
+
+    public int getP95Latency() {
+        return p95Latency;
+    }
+
+    public void setP95Latency(int p95Latency) {
+        this.p95Latency = p95Latency;
+    }
+
+    public int getP99Latency() {
+        return p99Latency;
+    }
+
+    public void setP99Latency(int p99Latency) {
+        this.p99Latency = p99Latency;
+    }
+
+    /**
+     * Folds another partial rollup of the same bucket into this one, e.g. rows written before and after a restart.
+     * Percentiles are combined as a count weighted average, which is an approximation.
+     */
+    public void merge(ProbeRollup other) {
+        int total = count + other.count;
+        if (total > 0) {
+            p50Latency = (int) (((long) p50Latency * count + (long) other.p50Latency * other.count) / total);
+            p95Latency = (int) (((long) p95Latency * count + (long) other.p95Latency * other.count) / total);
+            p99Latency = (int) (((long) p99Latency * count + (long) other.p99Latency * other.count) / total);
+        }
+        minLatency = Math.min(minLatency, other.minLatency);
+        maxLatency = Math.max(maxLatency, other.maxLatency);
+        count = total;
+        failures += other.failures;
+    }
+}
@@ -0,0 +1,29 @@
+package com.kry.servicepoller.entities;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bucket sizes of the probe history rollups.
+ */
+public enum RollupResolution {
+    MINUTE(TimeUnit.MINUTES.toMillis(1)),
+    HOUR(TimeUnit.HOURS.toMillis(1)),
+    DAY(TimeUnit.DAYS.toMillis(1));
+
+    private final long bucketMillis;
+
+    RollupResolution(long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * Start of the bucket the given time falls in, buckets are aligned to the epoch (UTC).
+     */
+    public long bucketStart(long epochMillis) {
+        return epochMillis - Math.floorMod(epochMillis, bucketMillis);
+    }
+}
@@ -1,5 +1,7 @@
 package com.kry.servicepoller.entities;
 
+import io.vertx.circuitbreaker.CircuitBreakerState;
+
 import java.net.URL;
 import java.util.Date;
 
@@ -8,7 +10,16 @@ public class Service {
     private String name;
     private URL url;
     private Date createdDate;
+    // live state, the registry replaces its snapshot of the service rather than updating these in place
     private ServiceStatus currentStatus;
+    private CircuitBreakerState circuitState;
+    // interval the service is currently probed at, known on the node polling it
+    private Integer effectiveIntervalMs;
+    private Integer pollIntervalMs;
+    private Integer timeoutMs;
+    private Integer expectedStatusCode;
+    private String bodyMatcher;
+    private Boolean adaptivePolling;
     
     public Service() {
     }
@@ -21,6 +32,24 @@ public class Service {
         this.currentStatus = currentStatus;
     }
 
+    /**
+     * Copies the given service, definition and live state.
+     */
+    public Service(Service other) {
+        this.id = other.id;
+        this.name = other.name;
+        this.url = other.url;
+        this.createdDate = other.createdDate;
+        this.currentStatus = other.currentStatus;
+        this.circuitState = other.circuitState;
+        this.effectiveIntervalMs = other.effectiveIntervalMs;
+        this.pollIntervalMs = other.pollIntervalMs;
+        this.timeoutMs = other.timeoutMs;
+        this.expectedStatusCode = other.expectedStatusCode;
+        this.bodyMatcher = other.bodyMatcher;
+        this.adaptivePolling = other.adaptivePolling;
+    }
+
     public int getId() {
         return id;
     }
@@ -61,6 +90,65 @@ public class Service {
         this.currentStatus = currentStatus;
     }
     
+    public Integer getPollIntervalMs() {
+        return pollIntervalMs;
+    }
+
+    public void setPollIntervalMs(Integer pollIntervalMs) {
+        this.pollIntervalMs = pollIntervalMs;
+    }
+
+    public Integer getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(Integer timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    public Integer getExpectedStatusCode() {
+        return expectedStatusCode;
+    }
+
+    public void setExpectedStatusCode(Integer expectedStatusCode) {
+        this.expectedStatusCode = expectedStatusCode;
+    }
+
+    public String getBodyMatcher() {
+        return bodyMatcher;
+    }
+
+    public void setBodyMatcher(String bodyMatcher) {
+        this.bodyMatcher = bodyMatcher;
+    }
+
+    /**
+     * Whether the probe interval adapts to the status of the service, {@code null} for the poller default.
+     */
+    public Boolean getAdaptivePolling() {
+        return adaptivePolling;
+    }
+
+    public void setAdaptivePolling(Boolean adaptivePolling) {
+        this.adaptivePolling = adaptivePolling;
+    }
+
+    public CircuitBreakerState getCircuitState() {
+        return circuitState;
+    }
+
+    public void setCircuitState(CircuitBreakerState circuitState) {
+        this.circuitState = circuitState;
+    }
+
+    public Integer getEffectiveIntervalMs() {
+        return effectiveIntervalMs;
+    }
+
+    public void setEffectiveIntervalMs(Integer effectiveIntervalMs) {
+        this.effectiveIntervalMs = effectiveIntervalMs;
+    }
+
     @Override
     public String toString() {
         return "Service{" + "name='" + name + "'" + ", url=" + url + '}';
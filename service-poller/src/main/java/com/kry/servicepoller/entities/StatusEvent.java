@@ -0,0 +1,90 @@
+package com.kry.servicepoller.entities;
+
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Result of a single probe, as sent over the event bus. Instances are immutable so that local delivery can hand the
+ * same object to every consumer.
+ */
+public final class StatusEvent {
+    public static final String ADDRESS = "kry.services.events";
+    // every probe result, not only the transitions, delivered to the local history recorder
+    public static final String PROBE_ADDRESS = "kry.services.probes";
+    private final int id;
+    private final ServiceStatus status;
+    private final ServiceStatus previousStatus;
+    private final CircuitBreakerState circuitState;
+    private final long timestamp;
+    private final int latencyMillis;
+
+    public StatusEvent(int id, ServiceStatus status, CircuitBreakerState circuitState, long timestamp,
+                       int latencyMillis) {
+        this(id, status, null, circuitState, timestamp, latencyMillis);
+    }
+
+    /**
+     * @param previousStatus status of the service before this probe, {@code null} if unknown
+     */
+    public StatusEvent(int id, ServiceStatus status, ServiceStatus previousStatus, CircuitBreakerState circuitState,
+                       long timestamp, int latencyMillis) {
+        this.id = id;
+        this.status = status;
+        this.previousStatus = previousStatus;
+        this.circuitState = circuitState;
+        this.timestamp = timestamp;
+        this.latencyMillis = latencyMillis;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public ServiceStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Status of the service before this probe, {@code null} if unknown.
+     */
+    public ServiceStatus getPreviousStatus() {
+        return previousStatus;
+    }
+
+    public CircuitBreakerState getCircuitState() {
+        return circuitState;
+    }
+
+    /**
+     * Time the probe completed, in epoch milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * JSON form used towards the browser clients, which identify the status by the service field names. The previous
+     * status lets a client filtering on the status drop a service which no longer matches.
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject()
+                .put("id", id)
+                .put("currentStatus", status.toString())
+                .put("circuitState", circuitState.toString())
+                .put("timestamp", timestamp)
+                .put("latencyMillis", latencyMillis);
+        if (previousStatus != null) {
+            json.put("previousStatus", previousStatus.toString());
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return "StatusEvent{" + "id=" + id + ", status=" + status + ", latencyMillis=" + latencyMillis + '}';
+    }
+}
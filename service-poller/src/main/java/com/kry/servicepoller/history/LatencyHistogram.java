@@ -0,0 +1,97 @@
+package com.kry.servicepoller.history;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed size latency histogram with geometric buckets (25% apart, from 1 ms to about 2 minutes), used to derive
+ * percentiles of a rollup bucket without keeping every sample. Reported percentiles are the upper bound of the bucket
+ * they fall in, capped by the maximum latency seen.
+ */
+public class LatencyHistogram {
+    private static final double GROWTH = 1.25;
+    private static final int[] UPPER_BOUNDS = upperBounds();
+    private final int[] counts = new int[UPPER_BOUNDS.length + 1];
+    private int count;
+    private int failures;
+    private int min = Integer.MAX_VALUE;
+    private int max;
+
+    public void record(int latencyMillis, boolean failed) {
+        counts[bucketOf(latencyMillis)]++;
+        count++;
+        if (failed) {
+            failures++;
+        }
+        min = Math.min(min, latencyMillis);
+        max = Math.max(max, latencyMillis);
+    }
+
+    public int percentile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i < UPPER_BOUNDS.length ? Math.min(UPPER_BOUNDS[i], max) : max;
+            }
+        }
+        return max;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public int getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        failures = 0;
+        min = Integer.MAX_VALUE;
+        max = 0;
+    }
+
+    private static int bucketOf(int latencyMillis) {
+        int low = 0;
+        int high = UPPER_BOUNDS.length;
+        // first bucket whose upper bound is not below the latency, the last one is the overflow bucket
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (UPPER_BOUNDS[mid] < latencyMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int[] upperBounds() {
+        List<Integer> bounds = new ArrayList<>();
+        double bound = 1;
+        while (bound < 120_000) {
+            int rounded = (int) Math.ceil(bound);
+            if (bounds.isEmpty() || bounds.get(bounds.size() - 1) < rounded) {
+                bounds.add(rounded);
+            }
+            bound *= GROWTH;
+        }
+        return bounds.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,79 @@
+package com.kry.servicepoller.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics of the DB access: connection pool usage and wait time, and latency per query. Thread safe, queries complete
+ * on the pool's own threads. The pool gauges sum up the repositories of the node.
+ */
+public class DBMetrics {
+    private final MeterRegistry registry;
+    private final int poolSize;
+    private final AtomicInteger size;
+    private final AtomicInteger inUse;
+    private final Timer poolWait;
+    private final Map<String, QueryTimers> queries = new ConcurrentHashMap<>();
+
+    public DBMetrics(MeterRegistry registry, int poolSize) {
+        this.registry = registry;
+        this.poolSize = poolSize;
+        this.size = Meters.gauge(registry, "db.pool.size", "Maximum number of DB connections");
+        this.size.addAndGet(poolSize);
+        this.inUse = Meters.gauge(registry, "db.pool.in.use", "Number of DB connections in use");
+        this.poolWait = Timer.builder("db.pool.wait")
+                .description("Time spent waiting for a DB connection")
+                .register(registry);
+    }
+
+    /**
+     * Called once a connection is taken from the pool, with the time spent waiting for it.
+     */
+    public void connectionAcquired(long waitNanos) {
+        inUse.incrementAndGet();
+        poolWait.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void connectionReleased() {
+        inUse.decrementAndGet();
+    }
+
+    /**
+     * Called once the pool is closed, its connections no longer count.
+     */
+    public void close() {
+        size.addAndGet(-poolSize);
+    }
+
+    public void recordQuery(String query, long latencyNanos, boolean succeeded) {
+        QueryTimers timers = queries.computeIfAbsent(query, this::createTimers);
+        (succeeded ? timers.success : timers.failure).record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private QueryTimers createTimers(String query) {
+        return new QueryTimers(queryTimer(query, "success"), queryTimer(query, "failure"));
+    }
+
+    private Timer queryTimer(String query, String outcome) {
+        return Timer.builder("db.query.latency")
+                .description("Latency of the DB queries, excluding the wait for a connection")
+                .tag("query", query)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private static class QueryTimers {
+        private final Timer success;
+        private final Timer failure;
+
+        private QueryTimers(Timer success, Timer failure) {
+            this.success = success;
+            this.failure = failure;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.kry.servicepoller.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives access to the meter registry of the Vert.x Micrometer metrics, scraped on the {@code /metrics} endpoint.
+ */
+public final class Meters {
+    // values of the node wide gauges per registry, kept strongly reachable since the gauges only hold weak references
+    private static final Map<MeterRegistry, Map<Meter.Id, AtomicInteger>> GAUGES = new ConcurrentHashMap<>();
+
+    private Meters() {
+    }
+
+    /**
+     * Returns the registry Vert.x reports to, or the no-op global registry when metrics are not enabled (e.g. tests).
+     */
+    public static MeterRegistry registry() {
+        MeterRegistry registry = BackendRegistries.getDefaultNow();
+        return registry != null ? registry : Metrics.globalRegistry;
+    }
+
+    /**
+     * Returns the value of a gauge shared by every instance of a verticle or a component on this node, registered on
+     * first use. Each instance adds its own share to it rather than registering a gauge over its own state, which
+     * would be hidden by the one registered first under the same name and tags.
+     */
+    public static AtomicInteger gauge(MeterRegistry registry, String name, String description, String... tags) {
+        Meter.Id id = new Meter.Id(name, Tags.of(tags), null, description, Meter.Type.GAUGE);
+        return GAUGES.computeIfAbsent(registry, r -> new ConcurrentHashMap<>()).computeIfAbsent(id, k -> {
+            AtomicInteger value = new AtomicInteger();
+            Gauge.builder(name, value, AtomicInteger::get)
+                    .description(description)
+                    .tags(tags)
+                    .register(registry);
+            return value;
+        });
+    }
+}
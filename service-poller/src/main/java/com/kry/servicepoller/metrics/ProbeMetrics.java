@@ -0,0 +1,156 @@
+package com.kry.servicepoller.metrics;
+
+import com.kry.servicepoller.entities.ServiceStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Probe metrics of the poller: latency histogram and outcomes, number of circuits per breaker state and scheduling
+ * lag per poller instance. Latency and outcomes are recorded for all the services together, or per service when
+ * enabled, which costs a dozen series per service. Meters are created once per service and cached, so recording a
+ * probe does not allocate. Shared by the poller instances, each service being probed by a single instance.
+ */
+public class ProbeMetrics {
+    // fixed buckets instead of a percentile histogram keep the series per service low
+    private static final Duration[] LATENCY_BUCKETS = {
+            Duration.ofMillis(10), Duration.ofMillis(25), Duration.ofMillis(50), Duration.ofMillis(100),
+            Duration.ofMillis(250), Duration.ofMillis(500), Duration.ofMillis(1000), Duration.ofMillis(2000),
+            Duration.ofMillis(5000)};
+    private final MeterRegistry registry;
+    private final boolean perService;
+    private final Map<Integer, ServiceMeters> services = new ConcurrentHashMap<>();
+    private final Map<CircuitBreakerState, AtomicInteger> circuits = new EnumMap<>(CircuitBreakerState.class);
+    private final AtomicInteger[] scheduled;
+    // share of each instance in the scheduled gauges, updated on the event loop of the instance
+    private final int[] scheduledShare;
+    private final Timer[] schedulerLag;
+    private final ServiceMeters allServices;
+
+    public ProbeMetrics(MeterRegistry registry) {
+        this(registry, 1, false);
+    }
+
+    public ProbeMetrics(MeterRegistry registry, int instances, boolean perService) {
+        this.registry = registry;
+        this.perService = perService;
+        for (CircuitBreakerState state : CircuitBreakerState.values()) {
+            circuits.put(state, Meters.gauge(registry, "poller.circuits",
+                    "Number of services per circuit breaker state", "state", state.name().toLowerCase()));
+        }
+        this.scheduled = new AtomicInteger[instances];
+        this.scheduledShare = new int[instances];
+        this.schedulerLag = new Timer[instances];
+        for (int i = 0; i < instances; i++) {
+            scheduled[i] = Meters.gauge(registry, "poller.scheduler.services",
+                    "Number of services scheduled for probing", "instance", String.valueOf(i));
+            schedulerLag[i] = Timer.builder("poller.scheduler.lag")
+                    .description("Delay of the oldest wheel tick processed by each timer run")
+                    .tag("instance", String.valueOf(i))
+                    .register(registry);
+        }
+        this.allServices = perService ? null : createMeters("all");
+    }
+
+    /**
+     * Records a completed probe, a {@code null} status means the probe failed without a response (connection error,
+     * timeout or open circuit).
+     */
+    public void recordProbe(int serviceId, ServiceStatus status, CircuitBreakerState circuitState, long latencyNanos) {
+        ServiceMeters meters = services.computeIfAbsent(serviceId, this::serviceMeters);
+        meters.latency.record(latencyNanos, TimeUnit.NANOSECONDS);
+        if (status == ServiceStatus.OK) {
+            meters.ok.increment();
+        } else if (status == ServiceStatus.FAIL) {
+            meters.fail.increment();
+        } else {
+            meters.error.increment();
+        }
+        if (meters.circuitState != circuitState) {
+            if (meters.circuitState != null) {
+                circuits.get(meters.circuitState).decrementAndGet();
+            }
+            circuits.get(circuitState).incrementAndGet();
+            meters.circuitState = circuitState;
+        }
+    }
+
+    /**
+     * Drops the meters of a service which is no longer monitored.
+     */
+    public void remove(int serviceId) {
+        ServiceMeters meters = services.remove(serviceId);
+        if (meters != null) {
+            if (meters.circuitState != null) {
+                circuits.get(meters.circuitState).decrementAndGet();
+            }
+            if (!perService) {
+                return;
+            }
+            registry.remove(meters.latency);
+            registry.remove(meters.ok);
+            registry.remove(meters.fail);
+            registry.remove(meters.error);
+        }
+    }
+
+    public void recordSchedulerTick(int instance, long lagMillis, int scheduledServices) {
+        schedulerLag[instance].record(lagMillis, TimeUnit.MILLISECONDS);
+        scheduled[instance].addAndGet(scheduledServices - scheduledShare[instance]);
+        scheduledShare[instance] = scheduledServices;
+    }
+
+    /**
+     * Returns the meters a service records to, its own ones or those of all the services. The circuit state is
+     * always tracked per service.
+     */
+    private ServiceMeters serviceMeters(int serviceId) {
+        if (perService) {
+            return createMeters(String.valueOf(serviceId));
+        }
+        return new ServiceMeters(allServices.latency, allServices.ok, allServices.fail, allServices.error);
+    }
+
+    private ServiceMeters createMeters(String service) {
+        return new ServiceMeters(
+                Timer.builder("poller.probe.latency")
+                        .description("Probe latency, including the circuit breaker")
+                        .tag("service", service)
+                        .serviceLevelObjectives(LATENCY_BUCKETS)
+                        .register(registry),
+                outcomeCounter(service, "ok"),
+                outcomeCounter(service, "fail"),
+                outcomeCounter(service, "error"));
+    }
+
+    private Counter outcomeCounter(String service, String outcome) {
+        return Counter.builder("poller.probe.outcomes")
+                .description("Probe results per outcome")
+                .tag("service", service)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private static class ServiceMeters {
+        private final Timer latency;
+        private final Counter ok;
+        private final Counter fail;
+        private final Counter error;
+        private CircuitBreakerState circuitState;
+
+        private ServiceMeters(Timer latency, Counter ok, Counter fail, Counter error) {
+            this.latency = latency;
+            this.ok = ok;
+            this.fail = fail;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.kry.servicepoller.polling;
+
+import com.kry.servicepoller.entities.ServiceStatus;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Probe intervals adapting to the status of the services. A steadily OK service is probed at its base interval. For a
+ * confirmation window after a status change the service is probed faster, so that a flap or a recovery shows quickly.
+ * A service which has been failing for long is probed less and less often, its interval growing exponentially up to a
+ * cap on every probe that still fails.
+ * Not thread safe, it is meant to be used from the event loop of the owning poller verticle.
+ */
+public class AdaptiveIntervals {
+    private final long minIntervalMillis;
+    private final long confirmWindowMillis;
+    private final long confirmFactor;
+    private final long backoffDelayMillis;
+    private final double backoffMultiplier;
+    private final long maxIntervalMillis;
+    private final Map<Integer, State> states = new HashMap<>();
+
+    /**
+     * @param minIntervalMillis   shortest interval, e.g. the scheduler tick
+     * @param confirmWindowMillis time after a status change during which the service is probed faster
+     * @param confirmFactor       how many times faster the service is probed during the confirmation window
+     * @param backoffDelayMillis  time a service has to be failing before its interval grows
+     * @param backoffMultiplier   growth of the interval on every probe of a failing service after the delay
+     * @param maxIntervalMillis   cap of the grown interval
+     */
+    public AdaptiveIntervals(long minIntervalMillis, long confirmWindowMillis, long confirmFactor,
+                             long backoffDelayMillis, double backoffMultiplier, long maxIntervalMillis) {
+        this.minIntervalMillis = minIntervalMillis;
+        this.confirmWindowMillis = confirmWindowMillis;
+        this.confirmFactor = Math.max(1, confirmFactor);
+        this.backoffDelayMillis = backoffDelayMillis;
+        this.backoffMultiplier = Math.max(1, backoffMultiplier);
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    /**
+     * Records the status returned by a probe of the service and returns the interval until its next probe.
+     */
+    public long next(int serviceId, long baseIntervalMillis, ServiceStatus status, long nowMillis) {
+        State state = states.get(serviceId);
+        if (state == null) {
+            // the first probe is no change, the service may have had this status for long
+            state = new State(status, nowMillis - confirmWindowMillis);
+            states.put(serviceId, state);
+        } else if (state.status != status) {
+            state.status = status;
+            state.changedAt = nowMillis;
+        }
+        long unchangedFor = nowMillis - state.changedAt;
+        if (unchangedFor < confirmWindowMillis) {
+            state.intervalMillis = Math.min(baseIntervalMillis,
+                    Math.max(minIntervalMillis, baseIntervalMillis / confirmFactor));
+        } else if (status == ServiceStatus.FAIL && unchangedFor >= backoffDelayMillis) {
+            long grown = (long) (Math.max(state.intervalMillis, baseIntervalMillis) * backoffMultiplier);
+            state.intervalMillis = Math.max(baseIntervalMillis, Math.min(maxIntervalMillis, grown));
+        } else {
+            state.intervalMillis = baseIntervalMillis;
+        }
+        return state.intervalMillis;
+    }
+
+    /**
+     * Returns the interval of the service decided by its last probe, the base interval before its first one.
+     */
+    public long current(int serviceId, long baseIntervalMillis) {
+        State state = states.get(serviceId);
+        return state != null ? state.intervalMillis : baseIntervalMillis;
+    }
+
+    /**
+     * Forgets the service, e.g. when its definition changed or another poller took it over.
+     */
+    public void remove(int serviceId) {
+        states.remove(serviceId);
+    }
+
+    private static final class State {
+        private ServiceStatus status;
+        private long changedAt;
+        private long intervalMillis;
+
+        private State(ServiceStatus status, long changedAt) {
+            this.status = status;
+            this.changedAt = changedAt;
+        }
+    }
+}
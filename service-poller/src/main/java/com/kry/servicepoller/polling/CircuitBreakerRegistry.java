@@ -0,0 +1,97 @@
+package com.kry.servicepoller.polling;
+
+import io.vertx.circuitbreaker.CircuitBreaker;
+import io.vertx.circuitbreaker.CircuitBreakerOptions;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps one circuit breaker per monitored service so that failures of a single backend only open its own circuit.
+ * The registry is bounded: once the maximum size is reached the least recently used breaker is closed and evicted.
+ * Not thread safe, it is meant to be used from the event loop of the owning poller verticle.
+ */
+public class CircuitBreakerRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreakerRegistry.class);
+    private static final String BREAKER_NAME_PREFIX = "kry-svc-circuit-breaker-";
+    private final Vertx vertx;
+    private final CircuitBreakerOptions options;
+    private final Map<Integer, CircuitBreaker> breakers;
+
+    public CircuitBreakerRegistry(Vertx vertx, CircuitBreakerOptions options, int maxSize) {
+        this.vertx = vertx;
+        // periodic breaker notifications would mean one event bus message per service every period
+        this.options = new CircuitBreakerOptions(options).setNotificationAddress(null);
+        this.breakers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CircuitBreaker> eldest) {
+                if (size() > maxSize) {
+                    LOG.warn("circuit breaker registry is full, evicting breaker of service: " + eldest.getKey());
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the breaker of the given service, creating it on first use.
+     */
+    public CircuitBreaker get(int serviceId) {
+        return get(serviceId, options.getTimeout());
+    }
+
+    /**
+     * Returns the breaker of the given service, creating it with the given call timeout on first use. A service whose
+     * timeout changes should be {@link #remove(int) removed} first so its breaker is recreated.
+     */
+    public CircuitBreaker get(int serviceId, long timeoutMillis) {
+        return breakers.computeIfAbsent(serviceId, id -> CircuitBreaker.create(BREAKER_NAME_PREFIX + id, vertx,
+                new CircuitBreakerOptions(options).setTimeout(timeoutMillis)));
+    }
+
+    /**
+     * Returns the breaker state of the given service, a service that was never probed is reported as closed.
+     */
+    public CircuitBreakerState state(int serviceId) {
+        CircuitBreaker breaker = breakers.get(serviceId);
+        return breaker == null ? CircuitBreakerState.CLOSED : breaker.state();
+    }
+
+    /**
+     * Closes and removes the breakers of the services which are no longer monitored.
+     */
+    public void retain(Collection<Integer> serviceIds) {
+        Iterator<Map.Entry<Integer, CircuitBreaker>> iterator = breakers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, CircuitBreaker> entry = iterator.next();
+            if (!serviceIds.contains(entry.getKey())) {
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+    }
+
+    public void remove(int serviceId) {
+        CircuitBreaker breaker = breakers.remove(serviceId);
+        if (breaker != null) {
+            breaker.close();
+        }
+    }
+
+    public int size() {
+        return breakers.size();
+    }
+
+    public void close() {
+        breakers.values().forEach(CircuitBreaker::close);
+        breakers.clear();
+    }
+}
@@ -0,0 +1,180 @@
+package com.kry.servicepoller.polling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * Hashed timing wheel deciding when each service is probed. Every service gets a stable phase offset inside its
+ * interval, derived from its id, so probes are spread evenly over the interval instead of all firing at once.
+ * Ticks are counted from the epoch, which keeps the phase of a service the same across restarts.
+ * Not thread safe, it is meant to be driven from the event loop of the owning poller verticle.
+ */
+public class ProbeScheduler {
+    private final long tickMillis;
+    private final List<Entry>[] wheel;
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private long currentTick;
+    private long lastLagMillis;
+    private long maxLagMillis;
+
+    @SuppressWarnings("unchecked")
+    public ProbeScheduler(long tickMillis, int wheelSize, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.wheel = new List[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            this.wheel[i] = new ArrayList<>();
+        }
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedules the given service, or reschedules it if its interval changed.
+     */
+    public void schedule(int serviceId, long intervalMillis) {
+        long intervalTicks = Math.max(1, intervalMillis / tickMillis);
+        Entry existing = entries.get(serviceId);
+        if (existing != null) {
+            if (existing.intervalTicks == intervalTicks) {
+                return;
+            }
+            existing.cancelled = true;
+        }
+        long phase = phase(serviceId, intervalTicks);
+        Entry entry = new Entry(serviceId, intervalTicks, currentTick + Math.floorMod(phase - currentTick, intervalTicks));
+        entries.put(serviceId, entry);
+        slot(entry.dueTick).add(entry);
+    }
+
+    /**
+     * Changes the interval of a scheduled service, e.g. adapted after a probe: its next probe is due one new interval
+     * from now rather than at its phase.
+     */
+    public void adjust(int serviceId, long intervalMillis) {
+        long intervalTicks = Math.max(1, intervalMillis / tickMillis);
+        Entry existing = entries.get(serviceId);
+        if (existing == null || existing.intervalTicks == intervalTicks) {
+            return;
+        }
+        existing.cancelled = true;
+        Entry entry = new Entry(serviceId, intervalTicks, currentTick + intervalTicks);
+        entries.put(serviceId, entry);
+        slot(entry.dueTick).add(entry);
+    }
+
+    /**
+     * Removes the given service from the wheel, it is dropped lazily from its slot.
+     */
+    public void cancel(int serviceId) {
+        Entry entry = entries.remove(serviceId);
+        if (entry != null) {
+            entry.cancelled = true;
+        }
+    }
+
+    public boolean isScheduled(int serviceId) {
+        return entries.containsKey(serviceId);
+    }
+
+    public Set<Integer> scheduledIds() {
+        return entries.keySet();
+    }
+
+    /**
+     * Processes every tick up to the given time, handing the services that are due to the probe consumer.
+     * Ticks missed because the timer fired late are caught up, and the delay is recorded as scheduling lag. A service
+     * due several times over the missed ticks, e.g. after a stall or a GC pause, is probed once and keeps its phase.
+     *
+     * @return number of probes fired
+     */
+    public int advance(long nowMillis, IntConsumer probe) {
+        long targetTick = nowMillis / tickMillis;
+        // the oldest tick processed is the most late one, its lag shows how long the event loop was stalled
+        lastLagMillis = currentTick <= targetTick ? nowMillis - currentTick * tickMillis : 0;
+        maxLagMillis = Math.max(maxLagMillis, lastLagMillis);
+        int fired = 0;
+        while (currentTick <= targetTick) {
+            fired += fire(currentTick, targetTick, probe);
+            currentTick++;
+        }
+        return fired;
+    }
+
+    private int fire(long tick, long targetTick, IntConsumer probe) {
+        List<Entry> bucket = slot(tick);
+        int fired = 0;
+        int i = 0;
+        while (i < bucket.size()) {
+            Entry entry = bucket.get(i);
+            if (entry.cancelled || entry.dueTick <= tick) {
+                // swap remove, the entry moved into position i is visited next
+                Entry last = bucket.remove(bucket.size() - 1);
+                if (i < bucket.size()) {
+                    bucket.set(i, last);
+                }
+                if (!entry.cancelled) {
+                    probe.accept(entry.serviceId);
+                    fired++;
+                    entry.dueTick = tick + entry.intervalTicks;
+                    if (entry.dueTick <= targetTick) {
+                        // the probes due again before the end of the catch-up are collapsed into this one
+                        long skipped = (targetTick - entry.dueTick) / entry.intervalTicks + 1;
+                        entry.dueTick += skipped * entry.intervalTicks;
+                    }
+                    slot(entry.dueTick).add(entry);
+                }
+            } else {
+                i++;
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Lag of the last advance, i.e. of the oldest tick it processed, in milliseconds.
+     */
+    public long getLastLagMillis() {
+        return lastLagMillis;
+    }
+
+    /**
+     * Highest lag observed since the last call, in milliseconds.
+     */
+    public long getAndResetMaxLagMillis() {
+        long max = maxLagMillis;
+        maxLagMillis = 0;
+        return max;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private List<Entry> slot(long tick) {
+        return wheel[(int) Math.floorMod(tick, (long) wheel.length)];
+    }
+
+    /**
+     * Fibonacci hashing of the id scaled into the interval, spreads sequential ids evenly over its ticks.
+     */
+    static long phase(int serviceId, long intervalTicks) {
+        long hash = (serviceId * 0x9E3779B9L) & 0xFFFFFFFFL;
+        return (hash * intervalTicks) >>> 32;
+    }
+
+    private static final class Entry {
+        private final int serviceId;
+        private final long intervalTicks;
+        private long dueTick;
+        private boolean cancelled;
+
+        private Entry(int serviceId, long intervalTicks, long dueTick) {
+            this.serviceId = serviceId;
+            this.intervalTicks = intervalTicks;
+            this.dueTick = dueTick;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.kry.servicepoller.polling;
+
+import com.kry.servicepoller.entities.Service;
+
+import java.net.URL;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Probe settings of a service, parsed once from the service definition so the probe path does not re-parse the URL
+ * or recompile the body matcher. Settings missing from the definition fall back to the poller defaults.
+ */
+public final class ProbeTarget {
+    private final Service service;
+    private final String host;
+    private final int port;
+    private final String uri;
+    private final boolean ssl;
+    private final long intervalMillis;
+    private final long timeoutMillis;
+    private final boolean adaptive;
+    private final Integer expectedStatusCode;
+    private final Pattern bodyMatcher;
+
+    private ProbeTarget(Service service, long defaultIntervalMillis, long defaultTimeoutMillis,
+                        boolean defaultAdaptive) {
+        URL url = service.getUrl();
+        this.service = service;
+        this.host = url.getHost();
+        this.port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        this.uri = url.getFile().isEmpty() ? "/" : url.getFile();
+        this.ssl = "https".equalsIgnoreCase(url.getProtocol());
+        this.intervalMillis = service.getPollIntervalMs() != null ? service.getPollIntervalMs() : defaultIntervalMillis;
+        this.timeoutMillis = service.getTimeoutMs() != null ? service.getTimeoutMs() : defaultTimeoutMillis;
+        this.adaptive = service.getAdaptivePolling() != null ? service.getAdaptivePolling() : defaultAdaptive;
+        this.expectedStatusCode = service.getExpectedStatusCode();
+        this.bodyMatcher = service.getBodyMatcher() != null ? Pattern.compile(service.getBodyMatcher()) : null;
+    }
+
+    private ProbeTarget(ProbeTarget target, Service service) {
+        this.service = service;
+        this.host = target.host;
+        this.port = target.port;
+        this.uri = target.uri;
+        this.ssl = target.ssl;
+        this.intervalMillis = target.intervalMillis;
+        this.timeoutMillis = target.timeoutMillis;
+        this.adaptive = target.adaptive;
+        this.expectedStatusCode = target.expectedStatusCode;
+        this.bodyMatcher = target.bodyMatcher;
+    }
+
+    public static ProbeTarget of(Service service, long defaultIntervalMillis, long defaultTimeoutMillis) {
+        return of(service, defaultIntervalMillis, defaultTimeoutMillis, false);
+    }
+
+    public static ProbeTarget of(Service service, long defaultIntervalMillis, long defaultTimeoutMillis,
+                                 boolean defaultAdaptive) {
+        return new ProbeTarget(service, defaultIntervalMillis, defaultTimeoutMillis, defaultAdaptive);
+    }
+
+    /**
+     * Checks whether this target was built from a definition equivalent to the given one, in which case it can be
+     * reused as is.
+     */
+    public boolean isFor(Service other) {
+        return service.getUrl().toString().equals(other.getUrl().toString())
+                && Objects.equals(service.getPollIntervalMs(), other.getPollIntervalMs())
+                && Objects.equals(service.getTimeoutMs(), other.getTimeoutMs())
+                && Objects.equals(service.getExpectedStatusCode(), other.getExpectedStatusCode())
+                && Objects.equals(service.getBodyMatcher(), other.getBodyMatcher())
+                && Objects.equals(service.getAdaptivePolling(), other.getAdaptivePolling());
+    }
+
+    /**
+     * Returns this target holding another snapshot of the same service, e.g. with a new status, without parsing the
+     * definition again.
+     */
+    public ProbeTarget withService(Service snapshot) {
+        return new ProbeTarget(this, snapshot);
+    }
+
+    public Service getService() {
+        return service;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public boolean isSsl() {
+        return ssl;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Whether the interval adapts to the status of the service, in which case {@link #getIntervalMillis()} is its
+     * base interval.
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Expected HTTP status code, {@code null} when the service relies on the OK/FAIL body contract.
+     */
+    public Integer getExpectedStatusCode() {
+        return expectedStatusCode;
+    }
+
+    public Pattern getBodyMatcher() {
+        return bodyMatcher;
+    }
+}
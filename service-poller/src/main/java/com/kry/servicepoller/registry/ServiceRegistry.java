@@ -0,0 +1,323 @@
+package com.kry.servicepoller.registry;
+
+import com.kry.servicepoller.codecs.StatusEventCodec;
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.polling.ProbeTarget;
+import com.kry.servicepoller.repositories.ServiceQuery;
+import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Authoritative in-memory view of the monitored services, keyed by id. It is loaded once from the DB and then kept
+ * up to date by the REST endpoints, so the poller never has to query the DB to know what to probe. Every change is
+ * announced locally on the {@link #CHANGES_ADDRESS} event bus address. In clustered mode the changes made through the
+ * endpoints of one node are replayed on the registries of the other nodes, and so are the status transitions.
+ */
+public class ServiceRegistry {
+    public static final String CHANGES_ADDRESS = "kry.services.registry";
+    public static final String ACTION_PUT = "put";
+    public static final String ACTION_REMOVE = "remove";
+    // cluster wide address on which the changes made through one node are replayed on the others
+    public static final String SYNC_ADDRESS = "kry.services.registry.sync";
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceRegistry.class);
+    private static final String POLL_INTERVAL_CONFIG = "poller.interval.ms";
+    private static final String TIMEOUT_CONFIG = "poller.breaker.timeout.ms";
+    private static final String ADAPTIVE_ENABLED_CONFIG = "poller.adaptive.enabled";
+    private static final String RECONCILE_INTERVAL_CONFIG = "registry.reconcile.interval.ms";
+    private static final DeliveryOptions LOCAL_DELIVERY = new DeliveryOptions().setLocalOnly(true);
+    private final Vertx vertx;
+    private final ServiceRepository dbCon;
+    private final long defaultIntervalMillis;
+    private final long defaultTimeoutMillis;
+    private final boolean defaultAdaptive;
+    private final long reconcileIntervalMillis;
+    private final Map<Integer, ProbeTarget> services = new ConcurrentHashMap<>();
+    // ids of the services in order, kept in line with the map under its per key lock, so pages are read in order
+    private final NavigableSet<Integer> sortedIds = new ConcurrentSkipListSet<>();
+    private final String instanceId = UUID.randomUUID().toString();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong intervalVersion = new AtomicLong();
+    // registry version at which each service was put or removed while a reconciliation runs, cleared once it is done
+    private final Map<Integer, Long> touched = new ConcurrentHashMap<>();
+    private final AtomicBoolean reconciling = new AtomicBoolean();
+
+    public ServiceRegistry(Vertx vertx, ServiceRepository dbCon, Properties properties) {
+        this.vertx = vertx;
+        this.dbCon = dbCon;
+        this.defaultIntervalMillis = Long.parseLong(properties.getProperty(POLL_INTERVAL_CONFIG, "3000"));
+        this.defaultTimeoutMillis = Long.parseLong(properties.getProperty(TIMEOUT_CONFIG, "2000"));
+        this.defaultAdaptive = Boolean.parseBoolean(properties.getProperty(ADAPTIVE_ENABLED_CONFIG, "false"));
+        this.reconcileIntervalMillis = Long.parseLong(properties.getProperty(RECONCILE_INTERVAL_CONFIG, "0"));
+    }
+
+    /**
+     * Loads the registry from the DB and, when configured, starts the periodic reconciliation with the DB.
+     */
+    public Future<Void> load() {
+        vertx.eventBus().<JsonObject>consumer(SYNC_ADDRESS, message -> applySync(message.body()));
+        if (vertx.isClustered()) {
+            // transitions of the services polled by the other nodes, the local ones are already applied
+            StatusEventCodec.register(vertx.eventBus());
+            vertx.eventBus().<StatusEvent>consumer(StatusEvent.ADDRESS, message -> updateStatus(message.body().getId(),
+                    message.body().getStatus(), message.body().getCircuitState()));
+        }
+        return reconcile().onSuccess(v -> {
+            LOG.info("service registry loaded with " + services.size() + " services");
+            if (reconcileIntervalMillis > 0) {
+                vertx.setPeriodic(reconcileIntervalMillis, l -> reconcile());
+            }
+        });
+    }
+
+    /**
+     * Brings the registry in line with the DB, e.g. after changes made by another process. Live statuses are kept.
+     * The services put or removed while the DB is read are left as they are, the read may predate their change. A
+     * call while a reconciliation runs is skipped.
+     */
+    public Future<Void> reconcile() {
+        if (!reconciling.compareAndSet(false, true)) {
+            LOG.debug("reconciliation already running, skipped");
+            return Future.succeededFuture();
+        }
+        long started = version.get();
+        return dbCon.getAll().<Void>map(latest -> {
+            Set<Integer> latestIds = new HashSet<>();
+            for (Service service : latest) {
+                latestIds.add(service.getId());
+                ProbeTarget existing = services.get(service.getId());
+                if (existing == null || !existing.isFor(service)
+                        || !Objects.equals(existing.getService().getName(), service.getName())) {
+                    apply(service, started);
+                }
+            }
+            for (Integer id : services.keySet()) {
+                if (!latestIds.contains(id)) {
+                    applyRemove(id, started);
+                }
+            }
+            return null;
+        }).onComplete(ar -> {
+            reconciling.set(false);
+            touched.clear();
+        });
+    }
+
+    private boolean touchedAfter(int id, long version) {
+        Long stamp = touched.get(id);
+        return stamp != null && stamp > version;
+    }
+
+    // called under the lock of the service, after the version was bumped for the change, so that a reconciliation
+    // which read the version before sees the change as newer than its DB read
+    private void stamp(int id, long stamp) {
+        if (reconciling.get()) {
+            touched.put(id, stamp);
+        }
+    }
+
+    /**
+     * Adds or replaces a service, on this node and on the other cluster nodes.
+     */
+    public void put(Service service) {
+        apply(service);
+        broadcast(new JsonObject().put("action", ACTION_PUT).put("service", JsonObject.mapFrom(service)));
+    }
+
+    public void remove(int id) {
+        applyRemove(id);
+        broadcast(new JsonObject().put("action", ACTION_REMOVE).put("id", id));
+    }
+
+    private void apply(Service definition) {
+        apply(definition, Long.MAX_VALUE);
+    }
+
+    /**
+     * Adds or replaces a service locally, unless it was put or removed after the given version. A replaced service
+     * keeps its live status, and its creation time when the new definition does not have one. The registry holds its
+     * own copy of the service, replaced as a whole on every change and never modified in place, so that readers on
+     * other event loops always see a consistent snapshot.
+     */
+    private void apply(Service definition, long unlessTouchedAfter) {
+        boolean[] applied = new boolean[1];
+        services.compute(definition.getId(), (id, existing) -> {
+            if (touchedAfter(id, unlessTouchedAfter)) {
+                return existing;
+            }
+            applied[0] = true;
+            Service service = new Service(definition);
+            if (existing != null) {
+                Service previous = existing.getService();
+                if (service.getCreatedDate() == null) {
+                    service.setCreatedDate(previous.getCreatedDate());
+                }
+                service.setCurrentStatus(previous.getCurrentStatus());
+                service.setCircuitState(previous.getCircuitState());
+                service.setEffectiveIntervalMs(previous.getEffectiveIntervalMs());
+            }
+            if (service.getCurrentStatus() == null) {
+                service.setCurrentStatus(ServiceStatus.FAIL);
+            }
+            sortedIds.add(id);
+            stamp(id, version.incrementAndGet());
+            return ProbeTarget.of(service, defaultIntervalMillis, defaultTimeoutMillis, defaultAdaptive);
+        });
+        if (applied[0]) {
+            publishChange(ACTION_PUT, definition.getId());
+        }
+    }
+
+    private void applyRemove(int id) {
+        applyRemove(id, Long.MAX_VALUE);
+    }
+
+    private void applyRemove(int id, long unlessTouchedAfter) {
+        boolean[] removed = new boolean[1];
+        services.computeIfPresent(id, (key, target) -> {
+            if (touchedAfter(key, unlessTouchedAfter)) {
+                return target;
+            }
+            sortedIds.remove(key);
+            stamp(key, version.incrementAndGet());
+            removed[0] = true;
+            return null;
+        });
+        if (removed[0]) {
+            publishChange(ACTION_REMOVE, id);
+        }
+    }
+
+    private void broadcast(JsonObject change) {
+        vertx.eventBus().publish(SYNC_ADDRESS, change.put("origin", instanceId));
+    }
+
+    private void applySync(JsonObject change) {
+        if (instanceId.equals(change.getString("origin"))) {
+            return;
+        }
+        if (ACTION_PUT.equals(change.getString("action"))) {
+            apply(change.getJsonObject("service").mapTo(Service.class));
+        } else {
+            applyRemove(change.getInteger("id"));
+        }
+    }
+
+    /**
+     * Records the latest polled status of a service, ignored if the service was removed in the meantime.
+     *
+     * @return whether the status of the service changed
+     */
+    public boolean updateStatus(int id, ServiceStatus status, CircuitBreakerState circuitState) {
+        boolean[] statusChanged = new boolean[1];
+        services.computeIfPresent(id, (key, target) -> {
+            Service current = target.getService();
+            if (current.getCurrentStatus() == status && current.getCircuitState() == circuitState) {
+                return target;
+            }
+            statusChanged[0] = current.getCurrentStatus() != status;
+            Service updated = new Service(current);
+            updated.setCurrentStatus(status);
+            updated.setCircuitState(circuitState);
+            version.incrementAndGet();
+            return target.withService(updated);
+        });
+        return statusChanged[0];
+    }
+
+    /**
+     * Records the interval a service is currently probed at, ignored if the service was removed in the meantime.
+     */
+    public void updateEffectiveInterval(int id, long intervalMillis) {
+        services.computeIfPresent(id, (key, target) -> {
+            Integer previous = target.getService().getEffectiveIntervalMs();
+            if (previous != null && previous == intervalMillis) {
+                return target;
+            }
+            Service updated = new Service(target.getService());
+            updated.setEffectiveIntervalMs((int) intervalMillis);
+            intervalVersion.incrementAndGet();
+            return target.withService(updated);
+        });
+    }
+
+    /**
+     * Returns the version of the registry content, bumped on every change of a service, its status included, but the
+     * effective interval. Two reads returning the same version saw the same services.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Returns the version of the effective intervals, kept apart since they change on most probes of the adaptively
+     * polled services. Readers which do not show the intervals do not need to follow it.
+     */
+    public long intervalVersion() {
+        return intervalVersion.get();
+    }
+
+    /**
+     * Returns a page of the services, ordered by id. The name prefix is matched ignoring the case, like the DB does.
+     * The ids are walked in order from the cursor, so an unfiltered page costs its size whatever the registry size.
+     */
+    public List<Service> page(ServiceQuery query) {
+        String prefix = query.getNamePrefix();
+        List<Service> page = new ArrayList<>(Math.min(query.getLimit(), 64));
+        for (Integer id : sortedIds.tailSet(query.getAfter(), false)) {
+            ProbeTarget target = services.get(id);
+            if (target == null) {
+                continue;
+            }
+            Service service = target.getService();
+            if ((query.getStatus() == null || query.getStatus() == service.getCurrentStatus())
+                    && (prefix == null || service.getName().regionMatches(true, 0, prefix, 0, prefix.length()))) {
+                page.add(service);
+                if (page.size() == query.getLimit()) {
+                    break;
+                }
+            }
+        }
+        return page;
+    }
+
+    public ProbeTarget get(int id) {
+        return services.get(id);
+    }
+
+    public Collection<ProbeTarget> all() {
+        return services.values();
+    }
+
+    public int size() {
+        return services.size();
+    }
+
+    // local only, every node replays the changes itself
+    private void publishChange(String action, int id) {
+        vertx.eventBus().publish(CHANGES_ADDRESS, new JsonObject().put("action", action).put("id", id),
+                LOCAL_DELIVERY);
+    }
+}
@@ -0,0 +1,873 @@
+package com.kry.servicepoller.repositories;
+
+import com.kry.servicepoller.entities.ProbeRollup;
+import com.kry.servicepoller.entities.RollupResolution;
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.exceptions.DBException;
+import com.kry.servicepoller.metrics.DBMetrics;
+import com.kry.servicepoller.metrics.Meters;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Repository on an embedded append-only log, for single node deployments without a DB server. The services, their
+ * statuses and the probe rollups are held in memory, every change is appended to the log as a JSON line and synced
+ * before it is applied. Concurrent writes are group committed: a single writer thread appends and syncs everything
+ * queued since its last sync at once. The log is replayed on startup and periodically compacted into a snapshot of
+ * the live state. Raw probe samples are only appended, to one file per hour deleted once the hour is past retention.
+ * The rollups of a service past the history retention are evicted as newer ones come in, so the memory they take is
+ * bounded even if the periodic purge does not run.
+ */
+public class EmbeddedServiceRepository implements ServiceRepository {
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedServiceRepository.class);
+    private static final String DB_EMBEDDED_PATH_CONFIG = "db.embedded.path";
+    private static final String DB_EMBEDDED_COMPACTION_INTERVAL_CONFIG = "db.embedded.compaction.interval.ms";
+    private static final String DB_EMBEDDED_WORKER_POOL_NAME = "kry-embedded-db";
+    private static final long SAMPLE_SEGMENT_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int SNAPSHOT_BUFFER_SIZE = 64 * 1024;
+    private static final String MINUTE_RETENTION_CONFIG = "history.retention.minute.hours";
+    private static final String HOUR_RETENTION_CONFIG = "history.retention.hour.days";
+    private static final String DAY_RETENTION_CONFIG = "history.retention.day.days";
+    private final Vertx vertx;
+    private final Path logPath;
+    private final Path samplesPath;
+    private final long compactionInterval;
+    private final Map<RollupResolution, Long> rollupRetentionMillis = new EnumMap<>(RollupResolution.class);
+    private final DBMetrics metrics;
+    // live state, only changed by the writer and read from any event loop
+    private final Map<Integer, Service> services = new ConcurrentHashMap<>();
+    private final Map<Integer, List<ProbeRollup>> rollups = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    // writes waiting for the next group commit
+    private final Queue<Write<?>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    // confined to the writer context
+    private Context writerContext;
+    private FileChannel log;
+    private long logRecords;
+    private String deploymentId;
+
+    public EmbeddedServiceRepository(Vertx vertx, Properties properties) {
+        this.vertx = vertx;
+        this.logPath = Paths.get(properties.getProperty(DB_EMBEDDED_PATH_CONFIG, "data/service-poller.log"));
+        this.samplesPath = logPath.resolveSibling(logPath.getFileName() + ".samples");
+        this.compactionInterval = Long.parseLong(properties.getProperty(DB_EMBEDDED_COMPACTION_INTERVAL_CONFIG,
+                "600000"));
+        this.rollupRetentionMillis.put(RollupResolution.MINUTE, TimeUnit.HOURS.toMillis(
+                Long.parseLong(properties.getProperty(MINUTE_RETENTION_CONFIG, "48"))));
+        this.rollupRetentionMillis.put(RollupResolution.HOUR, TimeUnit.DAYS.toMillis(
+                Long.parseLong(properties.getProperty(HOUR_RETENTION_CONFIG, "30"))));
+        this.rollupRetentionMillis.put(RollupResolution.DAY, TimeUnit.DAYS.toMillis(
+                Long.parseLong(properties.getProperty(DAY_RETENTION_CONFIG, "365"))));
+        // a single writer, the pool metrics report it as a pool of one connection
+        this.metrics = new DBMetrics(Meters.registry(), 1);
+    }
+
+    /**
+     * Replays the log, the writer runs on a worker pool of a single thread, so the file accesses are sequential.
+     */
+    @Override
+    public Future<Void> init() {
+        return vertx.deployVerticle(new WriterVerticle(), new DeploymentOptions()
+                        .setWorker(true)
+                        .setWorkerPoolName(DB_EMBEDDED_WORKER_POOL_NAME)
+                        .setWorkerPoolSize(1))
+                .onSuccess(id -> {
+                    this.deploymentId = id;
+                    LOG.info("embedded store recovered: " + services.size() + " services from " + logRecords
+                            + " records");
+                })
+                .onFailure(e -> LOG.error("error opening the embedded store: " + logPath, e))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<List<Service>> getAll() {
+        List<Service> all = new ArrayList<>(services.size());
+        for (Service service : services.values()) {
+            all.add(copy(service));
+        }
+        all.sort(Comparator.comparingInt(Service::getId));
+        return Future.succeededFuture(all);
+    }
+
+    @Override
+    public Future<Service> get(int id) {
+        Service service = services.get(id);
+        return Future.succeededFuture(service == null ? null : copy(service));
+    }
+
+    /**
+     * Streams from the ids present when the stream is created, a service is only copied when it is emitted.
+     */
+    @Override
+    public Future<ServiceStream> streamAll() {
+        int[] ids = services.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        return Future.succeededFuture(new MemoryServiceStream(vertx.getOrCreateContext(), ids));
+    }
+
+    @Override
+    public Future<Boolean> insert(Service service) {
+        int id = nextId.getAndIncrement();
+        JsonObject record = serviceRecord(id, service)
+                .put("createdTime", System.currentTimeMillis())
+                .put("status", ServiceStatus.FAIL.toString());
+        return write("insert", new JsonObject().put("op", "put").put("service", record), () -> applyPut(record))
+                .map(inserted -> {
+                    // hand the generated id back to the caller
+                    service.setId(id);
+                    return inserted;
+                })
+                .onFailure(e -> LOG.error("error when inserting service to the embedded store: " + service, e));
+    }
+
+    @Override
+    public Future<Boolean> delete(int id) {
+        return write("delete", new JsonObject().put("op", "delete").put("id", id), () -> applyDelete(id))
+                .onFailure(e -> LOG.error("error when deleting service from the embedded store: " + id, e));
+    }
+
+    @Override
+    public Future<Boolean> update(Service service) {
+        JsonObject record = serviceRecord(service.getId(), service);
+        return write("update", new JsonObject().put("op", "update").put("service", record), () -> applyUpdate(record))
+                .onFailure(e -> LOG.error("error when updating service in the embedded store: " + service, e));
+    }
+
+    /**
+     * Writes the whole batch as a single record, so a crash in the middle of its append drops all of it.
+     */
+    @Override
+    public Future<List<Boolean>> applyBatch(List<ServiceOperation> operations) {
+        JsonArray records = new JsonArray(new ArrayList<>(operations.size()));
+        for (ServiceOperation operation : operations) {
+            switch (operation.getType()) {
+                case CREATE:
+                    JsonObject record = serviceRecord(nextId.getAndIncrement(), operation.getService())
+                            .put("createdTime", System.currentTimeMillis())
+                            .put("status", ServiceStatus.FAIL.toString());
+                    records.add(new JsonObject().put("op", "put").put("service", record));
+                    break;
+                case UPDATE:
+                    records.add(new JsonObject().put("op", "update")
+                            .put("service", serviceRecord(operation.getId(), operation.getService())));
+                    break;
+                default:
+                    records.add(new JsonObject().put("op", "delete").put("id", operation.getId()));
+            }
+        }
+        return write("applyBatch", new JsonObject().put("op", "batch").put("operations", records),
+                () -> applyBatch(records))
+                .onSuccess(applied -> {
+                    // hand the generated ids back to the caller
+                    for (int i = 0; i < operations.size(); i++) {
+                        if (operations.get(i).getType() == ServiceOperation.Type.CREATE) {
+                            operations.get(i).getService().setId(records.getJsonObject(i).getJsonObject("service")
+                                    .getInteger("id"));
+                        }
+                    }
+                })
+                .onFailure(e -> LOG.error("error when applying a batch of " + operations.size()
+                        + " service operations in the embedded store", e));
+    }
+
+    @Override
+    public Future<Boolean> updateStatus(int id, ServiceStatus status) {
+        JsonObject statuses = new JsonObject().put(String.valueOf(id), status.toString());
+        return write("updateStatus", new JsonObject().put("op", "status").put("statuses", statuses),
+                () -> applyStatuses(statuses) == 1)
+                .onFailure(e -> LOG.error("error when updating service status in the embedded store: [" + id + ":"
+                        + status + "]", e));
+    }
+
+    @Override
+    public Future<Integer> updateStatuses(Map<Integer, ServiceStatus> statuses) {
+        JsonObject record = new JsonObject();
+        statuses.forEach((id, status) -> record.put(String.valueOf(id), status.toString()));
+        return write("updateStatuses", new JsonObject().put("op", "status").put("statuses", record),
+                () -> applyStatuses(record))
+                .onSuccess(updated -> LOG.debug("service statuses updated in the embedded store: " + updated + "/"
+                        + statuses.size()))
+                .onFailure(e -> LOG.error("error when updating service statuses in the embedded store: " + statuses,
+                        e));
+    }
+
+    /**
+     * Raw samples are not synced, losing the last ones on a crash only leaves a gap in the raw history.
+     */
+    @Override
+    public Future<Void> insertProbeSamples(List<StatusEvent> samples) {
+        Map<Long, StringBuilder> segments = new TreeMap<>();
+        for (StatusEvent sample : samples) {
+            long segment = sample.getTimestamp() - Math.floorMod(sample.getTimestamp(), SAMPLE_SEGMENT_MILLIS);
+            segments.computeIfAbsent(segment, s -> new StringBuilder())
+                    .append(sample.getId()).append(',')
+                    .append(sample.getTimestamp()).append(',')
+                    .append(sample.getLatencyMillis()).append(',')
+                    .append(sample.getStatus()).append('\n');
+        }
+        return write("insertProbeSamples", null, () -> {
+            Files.createDirectories(samplesPath);
+            for (Map.Entry<Long, StringBuilder> segment : segments.entrySet()) {
+                Files.write(samplesPath.resolve(segment.getKey() + ".log"),
+                        segment.getValue().toString().getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            return null;
+        })
+                .<Void>mapEmpty()
+                .onFailure(e -> LOG.error("error when inserting probe samples to the embedded store", e));
+    }
+
+    @Override
+    public Future<Void> insertRollups(List<ProbeRollup> newRollups) {
+        JsonArray records = new JsonArray();
+        newRollups.forEach(rollup -> records.add(rollupRecord(rollup)));
+        return write("insertRollups", new JsonObject().put("op", "rollups").put("rollups", records),
+                () -> applyRollups(records))
+                .<Void>mapEmpty()
+                .onFailure(e -> LOG.error("error when inserting probe rollups to the embedded store", e));
+    }
+
+    @Override
+    public Future<List<ProbeRollup>> getRollups(int serviceId, RollupResolution resolution, long from, long to) {
+        List<ProbeRollup> result = new ArrayList<>();
+        List<ProbeRollup> serviceRollups = rollups.get(serviceId);
+        if (serviceRollups != null) {
+            synchronized (serviceRollups) {
+                for (ProbeRollup rollup : serviceRollups) {
+                    if (rollup.getResolution() == resolution && rollup.getBucketStart() >= from
+                            && rollup.getBucketStart() < to) {
+                        result.add(rollup);
+                    }
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong(ProbeRollup::getBucketStart));
+        return Future.succeededFuture(result);
+    }
+
+    /**
+     * Deletes the hourly sample files which end before the given time, the samples are purged by whole hours.
+     */
+    @Override
+    public Future<Integer> purgeProbeSamples(long before) {
+        return write("purgeProbeSamples", null, () -> {
+            int purged = 0;
+            if (!Files.isDirectory(samplesPath)) {
+                return purged;
+            }
+            try (DirectoryStream<Path> segments = Files.newDirectoryStream(samplesPath, "*.log")) {
+                for (Path segment : segments) {
+                    String name = segment.getFileName().toString();
+                    long start = Long.parseLong(name.substring(0, name.length() - ".log".length()));
+                    if (start + SAMPLE_SEGMENT_MILLIS <= before) {
+                        try (Stream<String> lines = Files.lines(segment, StandardCharsets.UTF_8)) {
+                            purged += (int) lines.count();
+                        }
+                        Files.delete(segment);
+                    }
+                }
+            }
+            return purged;
+        })
+                .onFailure(e -> LOG.error("error when purging probe samples from the embedded store", e));
+    }
+
+    @Override
+    public Future<Integer> purgeRollups(RollupResolution resolution, long before) {
+        JsonObject record = new JsonObject().put("op", "purgeRollups").put("resolution", resolution.toString())
+                .put("before", before);
+        return write("purgeRollups", record, () -> applyPurgeRollups(resolution, before))
+                .onFailure(e -> LOG.error("error when purging " + resolution + " probe rollups from the embedded "
+                        + "store", e));
+    }
+
+    @Override
+    public Future<Void> close() {
+        if (this.deploymentId == null) {
+            return Future.succeededFuture();
+        }
+        return vertx.undeploy(this.deploymentId).onComplete(ar -> metrics.close());
+    }
+
+    /**
+     * Queues a write for the next group commit. The record, if any, is appended to the log and the operation applied
+     * once the log is synced; the result is handed back on the caller's context.
+     */
+    private <T> Future<T> write(String query, JsonObject record, Operation<T> operation) {
+        Promise<T> promise = Promise.promise();
+        pending.add(new Write<>(query, record, operation, vertx.getOrCreateContext(), promise));
+        if (draining.compareAndSet(false, true)) {
+            writerContext.runOnContext(v -> drain());
+        }
+        return promise.future();
+    }
+
+    /**
+     * Commits every queued write at once, the writes queued meanwhile make the next group.
+     */
+    private void drain() {
+        List<Write<?>> group = new ArrayList<>();
+        for (Write<?> write = pending.poll(); write != null; write = pending.poll()) {
+            group.add(write);
+        }
+        IOException failure = null;
+        try {
+            append(group);
+        } catch (IOException e) {
+            failure = e;
+        }
+        for (Write<?> write : group) {
+            write.complete(failure);
+        }
+        draining.set(false);
+        // a write queued after the poll loop but before the flag was cleared did not schedule a drain
+        if (!pending.isEmpty() && draining.compareAndSet(false, true)) {
+            writerContext.runOnContext(v -> drain());
+        }
+    }
+
+    private void append(List<Write<?>> group) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        int records = 0;
+        for (Write<?> write : group) {
+            if (write.record != null) {
+                lines.append(write.record.encode()).append('\n');
+                records++;
+            }
+        }
+        if (records == 0) {
+            return;
+        }
+        long position = log.position();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(false);
+            logRecords += records;
+        } catch (IOException e) {
+            // the failed writes must not come back on the next replay
+            try {
+                log.truncate(position);
+            } catch (IOException t) {
+                e.addSuppressed(t);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the log and replays it. A record cut by a crash in the middle of an append ends the replay and is
+     * truncated, it was never acknowledged.
+     */
+    private void recover() throws IOException {
+        Path directory = logPath.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        byte[] data = Files.readAllBytes(logPath);
+        int start = 0;
+        for (int end = indexOf(data, start); end >= 0; end = indexOf(data, start)) {
+            String line = new String(data, start, end - start, StandardCharsets.UTF_8);
+            try {
+                replay(new JsonObject(line));
+            } catch (DecodeException e) {
+                throw new DBException("corrupted record in the embedded store at offset " + start, e);
+            }
+            logRecords++;
+            start = end + 1;
+        }
+        if (start < data.length) {
+            LOG.warn("dropping an incomplete record at the end of the embedded store: " + (data.length - start)
+                    + " bytes");
+            log.truncate(start);
+        }
+        log.position(start);
+    }
+
+    private static int indexOf(byte[] data, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void replay(JsonObject record) {
+        switch (record.getString("op")) {
+            case "put":
+                applyPut(record.getJsonObject("service"));
+                break;
+            case "update":
+                applyUpdate(record.getJsonObject("service"));
+                break;
+            case "delete":
+                applyDelete(record.getInteger("id"));
+                break;
+            case "status":
+                applyStatuses(record.getJsonObject("statuses"));
+                break;
+            case "batch":
+                applyBatch(record.getJsonArray("operations"));
+                break;
+            case "rollups":
+                applyRollups(record.getJsonArray("rollups"));
+                break;
+            case "purgeRollups":
+                applyPurgeRollups(RollupResolution.valueOf(record.getString("resolution")), record.getLong("before"));
+                break;
+            case "nextId":
+                nextId.accumulateAndGet(record.getInteger("id"), Math::max);
+                break;
+            default:
+                throw new DBException("unknown record in the embedded store: " + record.getString("op"), null);
+        }
+    }
+
+    /**
+     * Rewrites the log as a snapshot of the live state once it holds more records than that state. The snapshot is
+     * synced before it replaces the log, so a crash at any point leaves either the old or the new log. It starts with
+     * the next id, so the ids of the services deleted before the compaction are never given again.
+     */
+    private void compact() {
+        List<List<ProbeRollup>> rollupLists = new ArrayList<>(rollups.values());
+        if (logRecords <= services.size() + rollupLists.size() + 1) {
+            return;
+        }
+        long started = System.nanoTime();
+        Path snapshot = logPath.resolveSibling(logPath.getFileName() + ".compact");
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder lines = new StringBuilder(SNAPSHOT_BUFFER_SIZE);
+            appendLine(channel, lines, new JsonObject().put("op", "nextId").put("id", nextId.get()));
+            records++;
+            for (Service service : services.values()) {
+                JsonObject record = serviceRecord(service.getId(), service)
+                        .put("createdTime", service.getCreatedDate().getTime())
+                        .put("status", service.getCurrentStatus().toString());
+                appendLine(channel, lines, new JsonObject().put("op", "put").put("service", record));
+                records++;
+            }
+            for (List<ProbeRollup> serviceRollups : rollupLists) {
+                JsonArray rollupRecords = new JsonArray();
+                synchronized (serviceRollups) {
+                    serviceRollups.forEach(rollup -> rollupRecords.add(rollupRecord(rollup)));
+                }
+                if (!rollupRecords.isEmpty()) {
+                    appendLine(channel, lines, new JsonObject().put("op", "rollups").put("rollups", rollupRecords));
+                    records++;
+                }
+            }
+            flush(channel, lines);
+            channel.force(false);
+        } catch (IOException e) {
+            LOG.error("error compacting the embedded store, keeping the current log", e);
+            return;
+        }
+        boolean replaced = false;
+        try {
+            log.close();
+            Files.move(snapshot, logPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            replaced = true;
+        } catch (IOException e) {
+            LOG.error("error replacing the embedded store by its compaction, keeping the current log", e);
+        }
+        try {
+            log = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            log.position(log.size());
+        } catch (IOException e) {
+            // the following writes fail until the store is restarted
+            LOG.error("error reopening the embedded store", e);
+            return;
+        }
+        if (replaced) {
+            LOG.info("embedded store compacted from " + logRecords + " to " + records + " records in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + "ms");
+            logRecords = records;
+        }
+    }
+
+    private static void appendLine(FileChannel channel, StringBuilder lines, JsonObject record) throws IOException {
+        lines.append(record.encode()).append('\n');
+        if (lines.length() >= SNAPSHOT_BUFFER_SIZE) {
+            flush(channel, lines);
+        }
+    }
+
+    private static void flush(FileChannel channel, StringBuilder lines) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        lines.setLength(0);
+    }
+
+    private boolean applyPut(JsonObject record) {
+        Service service = toService(record);
+        services.put(service.getId(), service);
+        nextId.accumulateAndGet(service.getId() + 1, Math::max);
+        return true;
+    }
+
+    private boolean applyUpdate(JsonObject record) {
+        Service current = services.get(record.getInteger("id"));
+        if (current == null) {
+            return false;
+        }
+        // replaced rather than changed, so readers never copy a half updated service
+        Service updated = toService(record.copy()
+                .put("createdTime", current.getCreatedDate().getTime())
+                .put("status", current.getCurrentStatus().toString()));
+        services.put(updated.getId(), updated);
+        return true;
+    }
+
+    private boolean applyDelete(int id) {
+        rollups.remove(id);
+        return services.remove(id) != null;
+    }
+
+    private List<Boolean> applyBatch(JsonArray records) {
+        List<Boolean> applied = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            JsonObject record = records.getJsonObject(i);
+            switch (record.getString("op")) {
+                case "put":
+                    applied.add(applyPut(record.getJsonObject("service")));
+                    break;
+                case "update":
+                    applied.add(applyUpdate(record.getJsonObject("service")));
+                    break;
+                default:
+                    applied.add(applyDelete(record.getInteger("id")));
+            }
+        }
+        return applied;
+    }
+
+    private int applyStatuses(JsonObject statuses) {
+        int updated = 0;
+        for (Map.Entry<String, Object> entry : statuses) {
+            Service current = services.get(Integer.parseInt(entry.getKey()));
+            if (current != null) {
+                // replaced rather than changed, like an update
+                Service service = copy(current);
+                service.setCurrentStatus(ServiceStatus.valueOf((String) entry.getValue()));
+                services.put(service.getId(), service);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Adds the rollups, then evicts the rollups of the same services and resolutions which are past retention
+     * relative to the newest one added. Evicting relative to the rollups rather than to the clock keeps the replay of
+     * the log the same whenever it runs.
+     */
+    private Void applyRollups(JsonArray records) {
+        Map<Integer, Map<RollupResolution, Long>> newest = new HashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            ProbeRollup rollup = toRollup(records.getJsonObject(i));
+            List<ProbeRollup> serviceRollups = rollups.computeIfAbsent(rollup.getServiceId(), id -> new ArrayList<>());
+            synchronized (serviceRollups) {
+                serviceRollups.add(rollup);
+            }
+            newest.computeIfAbsent(rollup.getServiceId(), id -> new EnumMap<>(RollupResolution.class))
+                    .merge(rollup.getResolution(), rollup.getBucketStart(), Math::max);
+        }
+        newest.forEach((serviceId, resolutions) -> {
+            List<ProbeRollup> serviceRollups = rollups.get(serviceId);
+            synchronized (serviceRollups) {
+                serviceRollups.removeIf(rollup -> {
+                    Long newestStart = resolutions.get(rollup.getResolution());
+                    return newestStart != null
+                            && rollup.getBucketStart() < newestStart - rollupRetentionMillis.get(rollup.getResolution());
+                });
+            }
+        });
+        return null;
+    }
+
+    private int applyPurgeRollups(RollupResolution resolution, long before) {
+        int purged = 0;
+        for (List<ProbeRollup> serviceRollups : rollups.values()) {
+            synchronized (serviceRollups) {
+                int size = serviceRollups.size();
+                serviceRollups.removeIf(rollup -> rollup.getResolution() == resolution
+                        && rollup.getBucketStart() < before);
+                purged += size - serviceRollups.size();
+            }
+        }
+        return purged;
+    }
+
+    private static JsonObject serviceRecord(int id, Service service) {
+        return new JsonObject()
+                .put("id", id)
+                .put("name", service.getName())
+                .put("url", service.getUrl().toString())
+                .put("pollIntervalMs", service.getPollIntervalMs())
+                .put("timeoutMs", service.getTimeoutMs())
+                .put("expectedStatus", service.getExpectedStatusCode())
+                .put("bodyMatcher", service.getBodyMatcher())
+                .put("adaptivePolling", service.getAdaptivePolling());
+    }
+
+    private static Service toService(JsonObject record) {
+        Service service;
+        try {
+            service = new Service(record.getInteger("id"),
+                    record.getString("name"),
+                    new URL(record.getString("url")),
+                    new Timestamp(record.getLong("createdTime")),
+                    ServiceStatus.valueOf(record.getString("status")));
+        } catch (MalformedURLException e) {
+            throw new DBException("invalid Service URL found in the embedded store", e);
+        }
+        service.setPollIntervalMs(record.getInteger("pollIntervalMs"));
+        service.setTimeoutMs(record.getInteger("timeoutMs"));
+        service.setExpectedStatusCode(record.getInteger("expectedStatus"));
+        service.setBodyMatcher(record.getString("bodyMatcher"));
+        service.setAdaptivePolling(record.getBoolean("adaptivePolling"));
+        return service;
+    }
+
+    private static Service copy(Service service) {
+        Service copy = new Service(service.getId(), service.getName(), service.getUrl(), service.getCreatedDate(),
+                service.getCurrentStatus());
+        copy.setPollIntervalMs(service.getPollIntervalMs());
+        copy.setTimeoutMs(service.getTimeoutMs());
+        copy.setExpectedStatusCode(service.getExpectedStatusCode());
+        copy.setBodyMatcher(service.getBodyMatcher());
+        copy.setAdaptivePolling(service.getAdaptivePolling());
+        return copy;
+    }
+
+    private static JsonObject rollupRecord(ProbeRollup rollup) {
+        return new JsonObject()
+                .put("serviceId", rollup.getServiceId())
+                .put("resolution", rollup.getResolution().toString())
+                .put("bucketStart", rollup.getBucketStart())
+                .put("count", rollup.getCount())
+                .put("failures", rollup.getFailures())
+                .put("min", rollup.getMinLatency())
+                .put("max", rollup.getMaxLatency())
+                .put("p50", rollup.getP50Latency())
+                .put("p95", rollup.getP95Latency())
+                .put("p99", rollup.getP99Latency());
+    }
+
+    private static ProbeRollup toRollup(JsonObject record) {
+        return new ProbeRollup(record.getInteger("serviceId"),
+                RollupResolution.valueOf(record.getString("resolution")),
+                record.getLong("bucketStart"),
+                record.getInteger("count"),
+                record.getInteger("failures"),
+                record.getInteger("min"),
+                record.getInteger("max"),
+                record.getInteger("p50"),
+                record.getInteger("p95"),
+                record.getInteger("p99"));
+    }
+
+    private interface Operation<T> {
+        T run() throws IOException;
+    }
+
+    private class Write<T> {
+        private final String query;
+        private final JsonObject record;
+        private final Operation<T> operation;
+        private final Context caller;
+        private final Promise<T> promise;
+        private final long queued = System.nanoTime();
+
+        private Write(String query, JsonObject record, Operation<T> operation, Context caller, Promise<T> promise) {
+            this.query = query;
+            this.record = record;
+            this.operation = operation;
+            this.caller = caller;
+            this.promise = promise;
+        }
+
+        /**
+         * Applies the write once its group is committed, or fails it with the commit.
+         */
+        private void complete(IOException commitFailure) {
+            T result = null;
+            Throwable failure = commitFailure;
+            if (failure == null) {
+                try {
+                    result = operation.run();
+                } catch (IOException | RuntimeException e) {
+                    failure = e;
+                }
+            }
+            metrics.recordQuery(query, System.nanoTime() - queued, failure == null);
+            if (failure == null) {
+                T succeeded = result;
+                caller.runOnContext(v -> promise.complete(succeeded));
+            } else {
+                DBException error = failure instanceof DBException ? (DBException) failure
+                        : new DBException("error writing to the embedded store", failure);
+                caller.runOnContext(v -> promise.fail(error));
+            }
+        }
+    }
+
+    /**
+     * Owner of the log, its single worker thread runs every file access.
+     */
+    private class WriterVerticle extends AbstractVerticle {
+        private long compactionTimer = -1;
+
+        @Override
+        public void start() throws IOException {
+            writerContext = context;
+            recover();
+            if (compactionInterval > 0) {
+                compactionTimer = vertx.setPeriodic(compactionInterval, l -> compact());
+            }
+        }
+
+        @Override
+        public void stop() throws IOException {
+            vertx.cancelTimer(compactionTimer);
+            log.close();
+        }
+    }
+
+    /**
+     * Emits the services of the given ids on the given context, as long as there is demand.
+     */
+    private class MemoryServiceStream implements ServiceStream {
+        private final Context context;
+        private final int[] ids;
+        private int next;
+        private long demand = Long.MAX_VALUE;
+        private boolean emitting;
+        private boolean closed;
+        private Handler<Service> handler;
+        private Handler<Void> endHandler;
+
+        private MemoryServiceStream(Context context, int[] ids) {
+            this.context = context;
+            this.ids = ids;
+        }
+
+        @Override
+        public ServiceStream handler(Handler<Service> handler) {
+            this.handler = handler;
+            context.runOnContext(v -> emit());
+            return this;
+        }
+
+        @Override
+        public ServiceStream exceptionHandler(Handler<Throwable> handler) {
+            // nothing can fail once the ids are taken
+            return this;
+        }
+
+        @Override
+        public ServiceStream endHandler(Handler<Void> endHandler) {
+            this.endHandler = endHandler;
+            return this;
+        }
+
+        @Override
+        public ServiceStream pause() {
+            demand = 0;
+            return this;
+        }
+
+        @Override
+        public ServiceStream resume() {
+            return fetch(Long.MAX_VALUE);
+        }
+
+        @Override
+        public ServiceStream fetch(long amount) {
+            demand = Long.MAX_VALUE - demand < amount ? Long.MAX_VALUE : demand + amount;
+            context.runOnContext(v -> emit());
+            return this;
+        }
+
+        @Override
+        public Future<Void> close() {
+            closed = true;
+            return Future.succeededFuture();
+        }
+
+        private void emit() {
+            if (emitting) {
+                return;
+            }
+            emitting = true;
+            while (!closed && handler != null && demand > 0 && next < ids.length) {
+                Service service = services.get(ids[next++]);
+                // deleted since the stream was created
+                if (service != null) {
+                    if (demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                    handler.handle(copy(service));
+                }
+            }
+            emitting = false;
+            if (!closed && next == ids.length) {
+                closed = true;
+                if (endHandler != null) {
+                    endHandler.handle(null);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.kry.servicepoller.repositories;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.jdbcclient.JDBCConnectOptions;
+import io.vertx.jdbcclient.JDBCPool;
+import io.vertx.sqlclient.PoolOptions;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.SqlConnection;
+
+import java.util.Properties;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Repository on the JDBC client, used with H2 for the tests. Every query holds a worker thread for its whole duration.
+ */
+public class JDBCServiceRepository extends SqlServiceRepository {
+    private static final Logger LOG = LoggerFactory.getLogger(JDBCServiceRepository.class);
+    private static final String DB_WORKER_POOLSIZE_CONFIG = "db.worker.poolsize";
+    private static final String DB_WORKER_POOL_NAME = "kry-db-worker";
+    private final Vertx vertx;
+    private JDBCPool pool;
+    private Context dbContext;
+    private String deploymentId;
+
+    public JDBCServiceRepository(Vertx vertx, Properties properties) {
+        super(properties);
+        this.vertx = vertx;
+    }
+
+    /**
+     * The pool lives on a context of its own backed by a dedicated, sized worker pool, so the blocking JDBC calls do
+     * not compete with the rest of the application.
+     */
+    @Override
+    public Future<Void> init() {
+        int workerPoolSize = Integer.parseInt(properties.getProperty(DB_WORKER_POOLSIZE_CONFIG,
+                properties.getProperty(DB_POOLSIZE_CONFIG)));
+        return vertx.deployVerticle(new DBContextVerticle(), new DeploymentOptions()
+                        .setWorkerPoolName(DB_WORKER_POOL_NAME)
+                        .setWorkerPoolSize(workerPoolSize))
+                .onFailure(e -> LOG.error("error creating the DB pool", e))
+                .compose(id -> {
+                    this.deploymentId = id;
+                    return createTables();
+                });
+    }
+
+    @Override
+    protected Integer generatedId(RowSet<Row> rows) {
+        Row generatedKeys = rows.property(JDBCPool.GENERATED_KEYS);
+        return generatedKeys != null ? generatedKeys.getInteger(0) : null;
+    }
+
+    @Override
+    protected Future<SqlConnection> connection() {
+        return onDBContext(pool::getConnection);
+    }
+
+    /**
+     * Runs the whole transaction on the DB context, the result is handed back on the caller's context.
+     */
+    @Override
+    protected <T> Future<T> transaction(String query, Function<SqlConnection, Future<T>> operation) {
+        return onDBContext(() -> super.transaction(query, operation));
+    }
+
+    /**
+     * Sets the cursor up on the DB context, the transaction and the statement preparation are blocking JDBC calls as
+     * well. The stream is handed back on the caller's context.
+     */
+    @Override
+    public Future<ServiceStream> streamAll() {
+        return onDBContext(super::streamAll);
+    }
+
+    /**
+     * Runs a query on a pooled connection, recording the wait for the connection and the query latency.
+     */
+    @Override
+    protected <T> Future<T> instrumented(String query, Function<SqlClient, Future<T>> operation) {
+        return onDBContext(() -> {
+            long requested = System.nanoTime();
+            return pool.getConnection().compose(con -> {
+                long acquired = System.nanoTime();
+                metrics.connectionAcquired(acquired - requested);
+                return operation.apply(con).onComplete(ar -> {
+                    metrics.recordQuery(query, System.nanoTime() - acquired, ar.succeeded());
+                    metrics.connectionReleased();
+                    con.close();
+                });
+            });
+        });
+    }
+
+    /**
+     * Runs a DB operation on the DB context, so the JDBC calls use the DB worker pool, and hands the result back on
+     * the caller's context.
+     */
+    private <T> Future<T> onDBContext(Supplier<Future<T>> operation) {
+        Context caller = vertx.getOrCreateContext();
+        Promise<T> promise = Promise.promise();
+        dbContext.runOnContext(v -> operation.get().onComplete(ar -> caller.runOnContext(w -> promise.handle(ar))));
+        return promise.future();
+    }
+
+    @Override
+    public Future<Void> close() {
+        if (this.deploymentId == null) {
+            return Future.succeededFuture();
+        }
+        return vertx.undeploy(this.deploymentId).onComplete(ar -> metrics.close());
+    }
+
+    /**
+     * Owner of the connection pool, its context and worker pool run every DB call.
+     */
+    private class DBContextVerticle extends AbstractVerticle {
+        @Override
+        public void start() {
+            dbContext = context;
+            pool = JDBCPool.pool(vertx,
+                    // configure the db connection
+                    new JDBCConnectOptions()
+                            .setJdbcUrl(properties.getProperty(DB_URL_CONFIG))
+                            .setUser(properties.getProperty(DB_USERNAME_CONFIG))
+                            .setPassword(properties.getProperty(DB_PASSWORD_CONFIG)),
+                    new PoolOptions()
+                            .setMaxSize(Integer.parseInt(properties.getProperty(DB_POOLSIZE_CONFIG)))
+            );
+        }
+
+        @Override
+        public void stop(Promise<Void> stopPromise) {
+            pool.close(stopPromise);
+        }
+    }
+}
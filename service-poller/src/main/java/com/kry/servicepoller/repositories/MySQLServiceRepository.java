@@ -0,0 +1,93 @@
+package com.kry.servicepoller.repositories;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.mysqlclient.MySQLClient;
+import io.vertx.mysqlclient.MySQLConnectOptions;
+import io.vertx.mysqlclient.MySQLPool;
+import io.vertx.sqlclient.PoolOptions;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.SqlConnection;
+
+import java.util.Properties;
+import java.util.function.Function;
+
+/**
+ * Repository on the non-blocking MySQL client. Queries run on the event loop of the caller without any worker thread,
+ * the statements of a batch are pipelined on their connection and the prepared statements are cached per connection,
+ * so the pool only needs a few connections.
+ */
+public class MySQLServiceRepository extends SqlServiceRepository {
+    private static final String DB_PIPELINING_LIMIT_CONFIG = "db.pipelining.limit";
+    private static final String DB_PREPARED_STATEMENT_CACHE_SIZE_CONFIG = "db.prepared.statement.cache.size";
+    private final Vertx vertx;
+    private MySQLPool pool;
+
+    public MySQLServiceRepository(Vertx vertx, Properties properties) {
+        super(properties);
+        this.vertx = vertx;
+    }
+
+    @Override
+    public Future<Void> init() {
+        pool = MySQLPool.pool(vertx, connectOptions(properties), new PoolOptions()
+                .setMaxSize(Integer.parseInt(properties.getProperty(DB_POOLSIZE_CONFIG))));
+        return createTables();
+    }
+
+    /**
+     * Builds the connection options from the same configuration as the JDBC client, the driver parameters of the
+     * JDBC URL do not apply to this client.
+     */
+    static MySQLConnectOptions connectOptions(Properties properties) {
+        String url = properties.getProperty(DB_URL_CONFIG);
+        String uri = url.startsWith("jdbc:") ? url.substring("jdbc:".length()) : url;
+        int parameters = uri.indexOf('?');
+        MySQLConnectOptions options = MySQLConnectOptions.fromUri(parameters < 0 ? uri : uri.substring(0, parameters));
+        options.setUser(properties.getProperty(DB_USERNAME_CONFIG));
+        options.setPassword(properties.getProperty(DB_PASSWORD_CONFIG));
+        options.setPipeliningLimit(Integer.parseInt(properties.getProperty(DB_PIPELINING_LIMIT_CONFIG, "256")));
+        options.setCachePreparedStatements(true);
+        options.setPreparedStatementCacheMaxSize(
+                Integer.parseInt(properties.getProperty(DB_PREPARED_STATEMENT_CACHE_SIZE_CONFIG, "64")));
+        return options;
+    }
+
+    @Override
+    protected Integer generatedId(RowSet<Row> rows) {
+        Long lastInsertedId = rows.property(MySQLClient.LAST_INSERTED_ID);
+        return lastInsertedId != null ? lastInsertedId.intValue() : null;
+    }
+
+    @Override
+    protected Future<SqlConnection> connection() {
+        return pool.getConnection();
+    }
+
+    /**
+     * Runs a query on a pooled connection, recording the wait for the connection and the query latency.
+     */
+    @Override
+    protected <T> Future<T> instrumented(String query, Function<SqlClient, Future<T>> operation) {
+        long requested = System.nanoTime();
+        return pool.getConnection().compose(con -> {
+            long acquired = System.nanoTime();
+            metrics.connectionAcquired(acquired - requested);
+            return operation.apply(con).onComplete(ar -> {
+                metrics.recordQuery(query, System.nanoTime() - acquired, ar.succeeded());
+                metrics.connectionReleased();
+                con.close();
+            });
+        });
+    }
+
+    @Override
+    public Future<Void> close() {
+        if (this.pool == null) {
+            return Future.succeededFuture();
+        }
+        return pool.close().onComplete(ar -> metrics.close());
+    }
+}
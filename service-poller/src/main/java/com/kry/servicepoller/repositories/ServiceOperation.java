@@ -0,0 +1,54 @@
+package com.kry.servicepoller.repositories;
+
+import com.kry.servicepoller.entities.Service;
+
+/**
+ * Change of a service within a batch: the creation or the update of a service, or the deletion of one by id.
+ */
+public class ServiceOperation {
+    private final Type type;
+    private final Service service;
+    private final int id;
+
+    private ServiceOperation(Type type, Service service, int id) {
+        this.type = type;
+        this.service = service;
+        this.id = id;
+    }
+
+    public static ServiceOperation create(Service service) {
+        return new ServiceOperation(Type.CREATE, service, 0);
+    }
+
+    public static ServiceOperation update(Service service) {
+        return new ServiceOperation(Type.UPDATE, service, service.getId());
+    }
+
+    public static ServiceOperation delete(int id) {
+        return new ServiceOperation(Type.DELETE, null, id);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Service to create or to update, {@code null} for a deletion.
+     */
+    public Service getService() {
+        return service;
+    }
+
+    /**
+     * Id of the service to update or to delete.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public enum Type {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+}
@@ -0,0 +1,43 @@
+package com.kry.servicepoller.repositories;
+
+import com.kry.servicepoller.entities.ServiceStatus;
+
+/**
+ * Page of services for a cursor based listing: at most {@code limit} services with an id greater than {@code after},
+ * ordered by id, optionally filtered by status and by name prefix.
+ */
+public class ServiceQuery {
+    private final int after;
+    private final int limit;
+    private final ServiceStatus status;
+    private final String namePrefix;
+
+    public ServiceQuery(int after, int limit, ServiceStatus status, String namePrefix) {
+        this.after = after;
+        this.limit = limit;
+        this.status = status;
+        this.namePrefix = namePrefix;
+    }
+
+    public int getAfter() {
+        return after;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Status the services must have, {@code null} for any.
+     */
+    public ServiceStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Prefix the service names must start with, {@code null} for any.
+     */
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+}
@@ -1,135 +1,105 @@
 package com.kry.servicepoller.repositories;
 
+import com.kry.servicepoller.entities.ProbeRollup;
+import com.kry.servicepoller.entities.RollupResolution;
 import com.kry.servicepoller.entities.Service;
 import com.kry.servicepoller.entities.ServiceStatus;
-import com.kry.servicepoller.exceptions.DBException;
+import com.kry.servicepoller.entities.StatusEvent;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
-import io.vertx.core.impl.logging.Logger;
-import io.vertx.core.impl.logging.LoggerFactory;
-import io.vertx.jdbcclient.JDBCConnectOptions;
-import io.vertx.jdbcclient.JDBCPool;
-import io.vertx.sqlclient.PoolOptions;
-import io.vertx.sqlclient.Row;
-import io.vertx.sqlclient.Tuple;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.sql.Timestamp;
-import java.util.ArrayList;
-import java.util.Collections;
+
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
-
-public class ServiceRepository {
-    private static final Logger LOG = LoggerFactory.getLogger(ServiceRepository.class);
-    private static final String DB_URL_CONFIG = "db.url";
-    private static final String DB_USERNAME_CONFIG = "db.username";
-    private static final String DB_PASSWORD_CONFIG = "db.password";
-    private static final String DB_POOLSIZE_CONFIG = "db.poolsize";
-    private static final String DB_INIT_SCRIPT_CONFIG = "db.init.script.path";
-    private final JDBCPool pool;
-    
-    public ServiceRepository(Properties properties) throws IOException {
-        pool = JDBCPool.pool(Vertx.vertx(),
-                // configure the db connection
-                new JDBCConnectOptions()
-                        .setJdbcUrl(properties.getProperty(DB_URL_CONFIG))
-                        .setUser(properties.getProperty(DB_USERNAME_CONFIG))
-                        .setPassword(properties.getProperty(DB_PASSWORD_CONFIG)),
-                new PoolOptions()
-                        .setMaxSize(Integer.parseInt(properties.getProperty(DB_POOLSIZE_CONFIG)))
-        );
-    
-        try (InputStream is =
-                     getClass().getClassLoader().getResourceAsStream(properties.getProperty(DB_INIT_SCRIPT_CONFIG))) {
-            String sql = new String(is.readAllBytes(), StandardCharsets.UTF_8);
-            
-            // synchronously create the table
-            CompletableFuture<Optional<Throwable>> tableCreateFuture = new CompletableFuture<>();;
-            pool.query(sql)
-                    .execute()
-                    .onSuccess(rowSet -> {
-                        tableCreateFuture.complete(Optional.empty());
-                        LOG.info("service table created");})
-                    .onFailure(e -> {
-                        tableCreateFuture.complete(Optional.of(e));
-                ;
-            });
-            
-            try {
-                Optional<Throwable> errorOccurred = tableCreateFuture.get(2, TimeUnit.SECONDS);
-                if (errorOccurred.isPresent()) {
-                    throw new RuntimeException("error occurred creating 'service' table", errorOccurred.get());
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+
+/**
+ * Storage of the services and of their probe history. The results are completed on the caller's context.
+ */
+public interface ServiceRepository {
+    String DB_CLIENT_CONFIG = "db.client";
+
+    /**
+     * Creates the repository of the configured client: {@code mysql} (default) for the non-blocking MySQL client,
+     * {@code embedded} for the embedded log store without a DB server, {@code jdbc} for the JDBC client, e.g. with H2.
+     */
+    static ServiceRepository create(Vertx vertx, Properties properties) {
+        String client = properties.getProperty(DB_CLIENT_CONFIG, "mysql");
+        if ("jdbc".equals(client)) {
+            return new JDBCServiceRepository(vertx, properties);
         }
-    }
-    
-    public Future<List<Service>> getAll() {
-        return pool.query("SELECT id, name, url, created_time, current_status FROM service")
-            .execute()
-            .map(rowSet -> {
-                List<Service> services = new ArrayList<>();
-                for (Row row : rowSet) {
-                    Service newService;
-                    try {
-                        newService = new Service(row.getInteger("id"),
-                                row.getString("name"),
-                                new URL(row.getString("url")),
-                                Timestamp.valueOf(row.getLocalDateTime("created_time")),
-                                ServiceStatus.valueOf(row.getString("current_status")));
-                    } catch (MalformedURLException e) {
-                        throw new DBException("invalid Service URL found in DB", e);
-                    }
-                    services.add(newService);
-                }
-                return services;
-            })
-            .onSuccess(success -> LOG.debug("retrieved services from DB"))
-            .onFailure(e -> LOG.error("error getting services from DB", e));
-    }
-    
-    public Future<Boolean> insert(Service service) {
-        return pool.withTransaction(con -> pool.preparedQuery("INSERT INTO service(name, url) VALUES (?,?)")
-                .execute(Tuple.tuple(List.of(service.getName(), service.getUrl().toString())))
-                .map(rows -> rows.rowCount() == 1)
-                .onFailure(e -> LOG.error("error when inserting service to the DB: " + service, e))
-        );
-    }
-    
-    public Future<Boolean> delete(int id) {
-        return pool.preparedQuery("DELETE FROM service WHERE id = ?")
-                .execute(Tuple.tuple(Collections.singletonList(id)))
-                .map(rows -> rows.rowCount() == 1)
-                .onFailure(e -> LOG.error("error when deleting service from DB: " + id, e));
-    }
-    
-    public Future<Boolean> update(Service service) {
-        return pool.preparedQuery("UPDATE service SET name = ?, url = ? WHERE id = ?")
-                .execute(Tuple.tuple(List.of(service.getName(), service.getUrl().toString(), service.getId())))
-                .map(rows -> rows.rowCount() == 1)
-                .onFailure(e -> LOG.error("error when updating service in the DB: " + service, e));
-    }
-    
-    public Future<Boolean> updateStatus(int id, ServiceStatus status) {
-        return pool.preparedQuery("UPDATE service SET current_status = ? WHERE id = ?")
-                .execute(Tuple.tuple(List.of(status.toString(), id)))
-                .map(rows -> rows.rowCount() == 1)
-                .onSuccess(success -> LOG.debug("service stats updated in DB: [" + id + ":" + status + "]"))
-                .onFailure(e -> LOG.error("error when updating service status in the DB: [" + id + ":" + status + "]",
-                        e));
+        if ("embedded".equals(client)) {
+            return new EmbeddedServiceRepository(vertx, properties);
+        }
+        return new MySQLServiceRepository(vertx, properties);
     }
 
-    public void close() {
-        this.pool.close();
-    }
+    /**
+     * Creates the connection pool and the tables, the repository must not be used before it completes.
+     */
+    Future<Void> init();
+
+    Future<List<Service>> getAll();
+
+    /**
+     * Returns the service with the given id, {@code null} if there is none.
+     */
+    Future<Service> get(int id);
+
+    /**
+     * Streams every service, ordered by id, so that they do not have to be held in memory all at once.
+     */
+    Future<ServiceStream> streamAll();
+
+    /**
+     * Inserts the given service and sets the id generated by the DB on it.
+     */
+    Future<Boolean> insert(Service service);
+
+    Future<Boolean> delete(int id);
+
+    Future<Boolean> update(Service service);
+
+    /**
+     * Applies the given operations in order, all of them or none. A creation sets the generated id on its service.
+     *
+     * @return per operation, whether it applied: the update or the deletion of a missing service does not
+     */
+    Future<List<Boolean>> applyBatch(List<ServiceOperation> operations);
+
+    Future<Boolean> updateStatus(int id, ServiceStatus status);
+
+    /**
+     * Writes the given statuses in a single batch.
+     *
+     * @return number of services updated
+     */
+    Future<Integer> updateStatuses(Map<Integer, ServiceStatus> statuses);
+
+    /**
+     * Appends raw probe results to the history.
+     */
+    Future<Void> insertProbeSamples(List<StatusEvent> samples);
+
+    Future<Void> insertRollups(List<ProbeRollup> rollups);
+
+    /**
+     * Returns the rollups of a service with buckets starting in [from, to), ordered by bucket start. A bucket can be
+     * stored in several partial rows, e.g. across a restart.
+     */
+    Future<List<ProbeRollup>> getRollups(int serviceId, RollupResolution resolution, long from, long to);
+
+    /**
+     * Deletes the raw samples older than the given time.
+     */
+    Future<Integer> purgeProbeSamples(long before);
+
+    /**
+     * Deletes the rollups of the given resolution with buckets older than the given time.
+     */
+    Future<Integer> purgeRollups(RollupResolution resolution, long before);
+
+    /**
+     * Closes the pool, completed once its connections are closed.
+     */
+    Future<Void> close();
 }
@@ -0,0 +1,16 @@
+package com.kry.servicepoller.repositories;
+
+import com.kry.servicepoller.entities.Service;
+import io.vertx.core.Future;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Services read one at a time from the repository, with back pressure. The stream holds resources of the repository,
+ * e.g. a DB connection and cursor, until it ends, fails or is closed.
+ */
+public interface ServiceStream extends ReadStream<Service> {
+    /**
+     * Stops reading and releases the resources of the stream, its end handler is not called.
+     */
+    Future<Void> close();
+}
@@ -0,0 +1,541 @@
+package com.kry.servicepoller.repositories;
+
+import com.kry.servicepoller.entities.ProbeRollup;
+import com.kry.servicepoller.entities.RollupResolution;
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.exceptions.DBException;
+import com.kry.servicepoller.metrics.DBMetrics;
+import com.kry.servicepoller.metrics.Meters;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.impl.logging.Logger;
+import io.vertx.core.impl.logging.LoggerFactory;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.RowStream;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Transaction;
+import io.vertx.sqlclient.Tuple;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Queries of the repository, shared by the SQL clients. The clients provide the way a query gets to the DB and how
+ * the id generated by an insert is returned.
+ */
+public abstract class SqlServiceRepository implements ServiceRepository {
+    private static final Logger LOG = LoggerFactory.getLogger(SqlServiceRepository.class);
+    protected static final String DB_URL_CONFIG = "db.url";
+    protected static final String DB_USERNAME_CONFIG = "db.username";
+    protected static final String DB_PASSWORD_CONFIG = "db.password";
+    protected static final String DB_POOLSIZE_CONFIG = "db.poolsize";
+    private static final String DB_INIT_SCRIPT_CONFIG = "db.init.script.path";
+    private static final int STREAM_FETCH_SIZE = 100;
+    private static final String SELECT_SERVICES = "SELECT id, name, url, created_time, current_status, "
+            + "poll_interval_ms, timeout_ms, expected_status, body_matcher, adaptive_polling FROM service";
+    private static final String INSERT_SERVICE = "INSERT INTO service(name, url, poll_interval_ms, timeout_ms, "
+            + "expected_status, body_matcher, adaptive_polling) VALUES (?,?,?,?,?,?,?)";
+    private static final String UPDATE_SERVICE = "UPDATE service SET name = ?, url = ?, poll_interval_ms = ?, "
+            + "timeout_ms = ?, expected_status = ?, body_matcher = ?, adaptive_polling = ? WHERE id = ?";
+    private static final String SELECT_SERVICE = SELECT_SERVICES + " WHERE id = ?";
+    private static final String DELETE_SERVICE = "DELETE FROM service WHERE id = ?";
+    // columns added to the service table after its first release, CREATE TABLE IF NOT EXISTS leaves the table of an
+    // older DB as is so they are added by the migration
+    private static final Map<String, String> SERVICE_COLUMNS = new LinkedHashMap<>();
+    // indexes of the former DB side paging, the pages are now read from the registry so they only slow the writes
+    private static final List<String> OBSOLETE_SERVICE_INDEXES = List.of("idx_service_status", "idx_service_name");
+    static {
+        SERVICE_COLUMNS.put("poll_interval_ms", "INT NULL");
+        SERVICE_COLUMNS.put("timeout_ms", "INT NULL");
+        SERVICE_COLUMNS.put("expected_status", "INT NULL");
+        SERVICE_COLUMNS.put("body_matcher", "VARCHAR(255) NULL");
+        SERVICE_COLUMNS.put("adaptive_polling", "BOOLEAN NULL");
+    }
+    private static final String MYSQL_INDEX_EXISTS = "SELECT COUNT(*) FROM information_schema.statistics "
+            + "WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?";
+    private static final String H2_INDEX_EXISTS = "SELECT COUNT(*) FROM information_schema.indexes "
+            + "WHERE LOWER(table_name) = ? AND LOWER(index_name) = ?";
+    protected final Properties properties;
+    protected final DBMetrics metrics;
+
+    protected SqlServiceRepository(Properties properties) {
+        this.properties = properties;
+        this.metrics = new DBMetrics(Meters.registry(), Integer.parseInt(properties.getProperty(DB_POOLSIZE_CONFIG)));
+    }
+
+    /**
+     * Runs a query, recording its latency.
+     */
+    protected abstract <T> Future<T> instrumented(String query, Function<SqlClient, Future<T>> operation);
+
+    /**
+     * Returns the id generated by an insert, {@code null} if the client did not return it.
+     */
+    protected abstract Integer generatedId(RowSet<Row> rows);
+
+    /**
+     * Takes a connection from the pool for the exclusive use of the caller, which has to close it.
+     */
+    protected abstract Future<SqlConnection> connection();
+
+    /**
+     * Runs an operation in a transaction on a connection of its own, committed if the operation succeeds and rolled
+     * back otherwise, recording the wait for the connection and the latency.
+     */
+    protected <T> Future<T> transaction(String query, Function<SqlConnection, Future<T>> operation) {
+        long requested = System.nanoTime();
+        return connection().compose(con -> {
+            long acquired = System.nanoTime();
+            metrics.connectionAcquired(acquired - requested);
+            return con.begin()
+                    .compose(tx -> operation.apply(con).compose(
+                            result -> tx.commit().map(result),
+                            e -> tx.rollback().compose(v -> Future.<T>failedFuture(e), r -> Future.<T>failedFuture(e))))
+                    .onComplete(ar -> {
+                        metrics.recordQuery(query, System.nanoTime() - acquired, ar.succeeded());
+                        metrics.connectionReleased();
+                        con.close();
+                    });
+        });
+    }
+
+    protected Future<Void> createTables() {
+        String sql;
+        try (InputStream is =
+                     getClass().getClassLoader().getResourceAsStream(properties.getProperty(DB_INIT_SCRIPT_CONFIG))) {
+            if (is == null) {
+                return Future.failedFuture(new DBException("DB init script not found: "
+                        + properties.getProperty(DB_INIT_SCRIPT_CONFIG), null));
+            }
+            sql = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return Future.failedFuture(new DBException("error reading the DB init script", e));
+        }
+
+        // one statement of the script at a time
+        return instrumented("createTables", client -> {
+            Future<Void> initFuture = Future.succeededFuture();
+            for (String statement : sql.split(";")) {
+                if (!statement.isBlank()) {
+                    initFuture = initFuture.compose(v -> client.query(statement).execute().mapEmpty());
+                }
+            }
+            return initFuture.compose(v -> migrate(client));
+        })
+                .onSuccess(v -> LOG.info("DB tables created"))
+                .onFailure(e -> LOG.error("error initializing the DB", e));
+    }
+
+    /**
+     * Adds the columns missing from the service table of a DB created by an older version, and drops the indexes it
+     * no longer uses. Every step checks first, so the migration runs on every start.
+     */
+    private Future<Void> migrate(SqlClient client) {
+        Future<Void> migration = Future.succeededFuture();
+        for (Map.Entry<String, String> column : SERVICE_COLUMNS.entrySet()) {
+            migration = migration.compose(v -> client.query("SELECT " + column.getKey() + " FROM service WHERE 1 = 0")
+                    .execute()
+                    .<Void>mapEmpty()
+                    .recover(e -> {
+                        LOG.info("adding the missing column service." + column.getKey());
+                        return client.query("ALTER TABLE service ADD COLUMN " + column.getKey() + " "
+                                + column.getValue()).execute().mapEmpty();
+                    }));
+        }
+        // MySQL has no DROP INDEX IF EXISTS, and the catalog of the indexes differs from H2's
+        String indexExists = isMySQL() ? MYSQL_INDEX_EXISTS : H2_INDEX_EXISTS;
+        for (String index : OBSOLETE_SERVICE_INDEXES) {
+            migration = migration.compose(v -> client.preparedQuery(indexExists)
+                    .execute(Tuple.of("service", index))
+                    .compose(rows -> {
+                        if (rows.iterator().next().getLong(0) == 0) {
+                            return Future.succeededFuture();
+                        }
+                        LOG.info("dropping the obsolete index " + index);
+                        return client.query("DROP INDEX " + index + (isMySQL() ? " ON service" : ""))
+                                .execute().mapEmpty();
+                    }));
+        }
+        return migration;
+    }
+
+    private boolean isMySQL() {
+        String url = properties.getProperty(DB_URL_CONFIG, "");
+        return url.startsWith("jdbc:mysql:") || url.startsWith("mysql:");
+    }
+
+    @Override
+    public Future<List<Service>> getAll() {
+        return instrumented("getAll", client -> client.query(SELECT_SERVICES)
+            .execute())
+            .map(SqlServiceRepository::toServices)
+            .onSuccess(success -> LOG.debug("retrieved services from DB"))
+            .onFailure(e -> LOG.error("error getting services from DB", e));
+    }
+
+    @Override
+    public Future<Service> get(int id) {
+        return instrumented("get", client -> client.preparedQuery(SELECT_SERVICE)
+                .execute(Tuple.of(id)))
+                .map(rows -> {
+                    List<Service> services = toServices(rows);
+                    return services.isEmpty() ? null : services.get(0);
+                })
+                .onFailure(e -> LOG.error("error getting service from DB: " + id, e));
+    }
+
+    /**
+     * Reads the services from a cursor, {@value #STREAM_FETCH_SIZE} rows at a time. The cursor needs a connection and
+     * a transaction of its own for the whole stream.
+     */
+    @Override
+    public Future<ServiceStream> streamAll() {
+        long requested = System.nanoTime();
+        return connection().compose(con -> {
+            long acquired = System.nanoTime();
+            metrics.connectionAcquired(acquired - requested);
+            return con.begin()
+                    .compose(tx -> con.prepare(SELECT_SERVICES + " ORDER BY id")
+                            .<ServiceStream>map(statement -> new RowServiceStream(
+                                    statement.createStream(STREAM_FETCH_SIZE), con, tx, acquired)))
+                    .onFailure(e -> {
+                        metrics.connectionReleased();
+                        con.close();
+                    });
+        })
+                .onFailure(e -> LOG.error("error streaming services from DB", e));
+    }
+
+    private static List<Service> toServices(RowSet<Row> rowSet) {
+        List<Service> services = new ArrayList<>();
+        for (Row row : rowSet) {
+            services.add(toService(row));
+        }
+        return services;
+    }
+
+    private static Service toService(Row row) {
+        Service newService;
+        try {
+            newService = new Service(row.getInteger("id"),
+                    row.getString("name"),
+                    new URL(row.getString("url")),
+                    Timestamp.valueOf(row.getLocalDateTime("created_time")),
+                    ServiceStatus.valueOf(row.getString("current_status")));
+            newService.setPollIntervalMs(row.getInteger("poll_interval_ms"));
+            newService.setTimeoutMs(row.getInteger("timeout_ms"));
+            newService.setExpectedStatusCode(row.getInteger("expected_status"));
+            newService.setBodyMatcher(row.getString("body_matcher"));
+            newService.setAdaptivePolling(toBoolean(row.getValue("adaptive_polling")));
+        } catch (MalformedURLException e) {
+            throw new DBException("invalid Service URL found in DB", e);
+        }
+        return newService;
+    }
+
+    // the MySQL client returns a BOOLEAN column, i.e. a TINYINT(1), as a number
+    private static Boolean toBoolean(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() != 0 : (Boolean) value;
+    }
+
+    @Override
+    public Future<Boolean> insert(Service service) {
+        // in a transaction, so that the generated id read back is the one of this insert
+        return transaction("insert", con -> insert(con, service))
+                .onFailure(e -> LOG.error("error when inserting service to the DB: " + service, e));
+    }
+
+    private Future<Boolean> insert(SqlClient client, Service service) {
+        return client.preparedQuery(INSERT_SERVICE)
+                .execute(Tuple.of(service.getName(), service.getUrl().toString(), service.getPollIntervalMs(),
+                        service.getTimeoutMs(), service.getExpectedStatusCode(), service.getBodyMatcher(),
+                        service.getAdaptivePolling()))
+                .map(rows -> {
+                    // hand the generated id back to the caller
+                    Integer id = generatedId(rows);
+                    if (id != null) {
+                        service.setId(id);
+                    }
+                    return rows.rowCount() == 1;
+                });
+    }
+
+    @Override
+    public Future<Boolean> delete(int id) {
+        return instrumented("delete", client -> client.preparedQuery(DELETE_SERVICE)
+                .execute(Tuple.tuple(Collections.singletonList(id))))
+                .map(rows -> rows.rowCount() == 1)
+                .onFailure(e -> LOG.error("error when deleting service from DB: " + id, e));
+    }
+
+    @Override
+    public Future<Boolean> update(Service service) {
+        return instrumented("update", client -> client.preparedQuery(UPDATE_SERVICE).execute(updateTuple(service)))
+                .map(rows -> rows.rowCount() == 1)
+                .onFailure(e -> LOG.error("error when updating service in the DB: " + service, e));
+    }
+
+    private static Tuple updateTuple(Service service) {
+        return Tuple.of(service.getName(), service.getUrl().toString(), service.getPollIntervalMs(),
+                service.getTimeoutMs(), service.getExpectedStatusCode(), service.getBodyMatcher(),
+                service.getAdaptivePolling(), service.getId());
+    }
+
+    @Override
+    public Future<List<Boolean>> applyBatch(List<ServiceOperation> operations) {
+        return transaction("applyBatch", con -> {
+            // consecutive operations of the same type make a run, the runs are queued on the connection in order
+            List<Future> runs = new ArrayList<>();
+            int from = 0;
+            while (from < operations.size()) {
+                ServiceOperation.Type type = operations.get(from).getType();
+                int to = from + 1;
+                while (to < operations.size() && operations.get(to).getType() == type) {
+                    to++;
+                }
+                runs.add(applyRun(con, type, operations.subList(from, to)));
+                from = to;
+            }
+            return CompositeFuture.all(runs).map(all -> {
+                List<Boolean> applied = new ArrayList<>(operations.size());
+                for (int i = 0; i < all.size(); i++) {
+                    applied.addAll(all.resultAt(i));
+                }
+                return applied;
+            });
+        }).onFailure(e -> LOG.error("error when applying a batch of " + operations.size()
+                + " service operations in the DB", e));
+    }
+
+    /**
+     * Runs consecutive operations of the same type. Updates and deletions are sent as a single batch of a prepared
+     * statement. Creations are sent one by one, without waiting for each other, so that every one gets its own
+     * generated id back.
+     */
+    private Future<List<Boolean>> applyRun(SqlConnection con, ServiceOperation.Type type,
+                                           List<ServiceOperation> run) {
+        if (type == ServiceOperation.Type.CREATE) {
+            List<Future> inserts = new ArrayList<>(run.size());
+            run.forEach(operation -> inserts.add(insert(con, operation.getService())));
+            return CompositeFuture.all(inserts).map(CompositeFuture::list);
+        }
+        List<Tuple> batch = new ArrayList<>(run.size());
+        run.forEach(operation -> batch.add(type == ServiceOperation.Type.UPDATE
+                ? updateTuple(operation.getService()) : Tuple.of(operation.getId())));
+        return con.preparedQuery(type == ServiceOperation.Type.UPDATE ? UPDATE_SERVICE : DELETE_SERVICE)
+                .executeBatch(batch)
+                .map(rows -> {
+                    List<Boolean> applied = new ArrayList<>(run.size());
+                    for (RowSet<Row> result = rows; result != null; result = result.next()) {
+                        applied.add(result.rowCount() == 1);
+                    }
+                    return applied;
+                });
+    }
+
+    @Override
+    public Future<Boolean> updateStatus(int id, ServiceStatus status) {
+        return instrumented("updateStatus", client -> client.preparedQuery("UPDATE service SET current_status = ? "
+                        + "WHERE id = ?")
+                .execute(Tuple.tuple(List.of(status.toString(), id))))
+                .map(rows -> rows.rowCount() == 1)
+                .onSuccess(success -> LOG.debug("service stats updated in DB: [" + id + ":" + status + "]"))
+                .onFailure(e -> LOG.error("error when updating service status in the DB: [" + id + ":" + status + "]",
+                        e));
+    }
+
+    @Override
+    public Future<Integer> updateStatuses(Map<Integer, ServiceStatus> statuses) {
+        List<Tuple> batch = new ArrayList<>(statuses.size());
+        statuses.forEach((id, status) -> batch.add(Tuple.of(status.toString(), id)));
+        return instrumented("updateStatuses", client -> client.preparedQuery("UPDATE service "
+                        + "SET current_status = ? WHERE id = ?")
+                .executeBatch(batch))
+                .map(rows -> {
+                    int updated = 0;
+                    for (RowSet<Row> result = rows; result != null; result = result.next()) {
+                        updated += result.rowCount();
+                    }
+                    return updated;
+                })
+                .onSuccess(updated -> LOG.debug("service statuses updated in DB: " + updated + "/" + batch.size()))
+                .onFailure(e -> LOG.error("error when updating service statuses in the DB: " + statuses, e));
+    }
+
+    @Override
+    public Future<Void> insertProbeSamples(List<StatusEvent> samples) {
+        List<Tuple> batch = new ArrayList<>(samples.size());
+        samples.forEach(sample -> batch.add(Tuple.of(sample.getId(), toUtc(sample.getTimestamp()),
+                sample.getLatencyMillis(), sample.getStatus().toString())));
+        return instrumented("insertProbeSamples", client -> client.preparedQuery("INSERT INTO probe_sample("
+                        + "service_id, probed_at, latency_ms, status) VALUES (?,?,?,?)")
+                .executeBatch(batch))
+                .<Void>mapEmpty()
+                .onFailure(e -> LOG.error("error when inserting probe samples to the DB", e));
+    }
+
+    @Override
+    public Future<Void> insertRollups(List<ProbeRollup> rollups) {
+        List<Tuple> batch = new ArrayList<>(rollups.size());
+        rollups.forEach(rollup -> batch.add(Tuple.of(rollup.getServiceId(), rollup.getResolution().toString(),
+                toUtc(rollup.getBucketStart()), rollup.getCount(), rollup.getFailures(), rollup.getMinLatency(),
+                rollup.getMaxLatency(), rollup.getP50Latency(), rollup.getP95Latency(), rollup.getP99Latency())));
+        return instrumented("insertRollups", client -> client.preparedQuery("INSERT INTO probe_rollup("
+                        + "service_id, resolution, bucket_start, probe_count, failure_count, min_latency_ms, max_latency_ms, "
+                        + "p50_latency_ms, p95_latency_ms, p99_latency_ms) VALUES (?,?,?,?,?,?,?,?,?,?)")
+                .executeBatch(batch))
+                .<Void>mapEmpty()
+                .onFailure(e -> LOG.error("error when inserting probe rollups to the DB", e));
+    }
+
+    @Override
+    public Future<List<ProbeRollup>> getRollups(int serviceId, RollupResolution resolution, long from, long to) {
+        return instrumented("getRollups", client -> client.preparedQuery("SELECT bucket_start, probe_count, "
+                        + "failure_count, min_latency_ms, max_latency_ms, p50_latency_ms, p95_latency_ms, "
+                        + "p99_latency_ms FROM probe_rollup WHERE service_id = ? AND resolution = ? AND bucket_start >= ? "
+                        + "AND bucket_start < ? ORDER BY bucket_start")
+                .execute(Tuple.of(serviceId, resolution.toString(), toUtc(from), toUtc(to))))
+                .map(rowSet -> {
+                    List<ProbeRollup> rollups = new ArrayList<>();
+                    for (Row row : rowSet) {
+                        rollups.add(new ProbeRollup(serviceId, resolution,
+                                row.getLocalDateTime("bucket_start").toInstant(ZoneOffset.UTC).toEpochMilli(),
+                                row.getInteger("probe_count"),
+                                row.getInteger("failure_count"),
+                                row.getInteger("min_latency_ms"),
+                                row.getInteger("max_latency_ms"),
+                                row.getInteger("p50_latency_ms"),
+                                row.getInteger("p95_latency_ms"),
+                                row.getInteger("p99_latency_ms")));
+                    }
+                    return rollups;
+                })
+                .onFailure(e -> LOG.error("error getting probe rollups from DB: " + serviceId, e));
+    }
+
+    @Override
+    public Future<Integer> purgeProbeSamples(long before) {
+        return instrumented("purgeProbeSamples", client -> client.preparedQuery("DELETE FROM probe_sample "
+                        + "WHERE probed_at < ?")
+                .execute(Tuple.of(toUtc(before))))
+                .map(rows -> rows.rowCount())
+                .onFailure(e -> LOG.error("error when purging probe samples from DB", e));
+    }
+
+    @Override
+    public Future<Integer> purgeRollups(RollupResolution resolution, long before) {
+        return instrumented("purgeRollups", client -> client.preparedQuery("DELETE FROM probe_rollup "
+                        + "WHERE resolution = ? AND bucket_start < ?")
+                .execute(Tuple.of(resolution.toString(), toUtc(before))))
+                .map(rows -> rows.rowCount())
+                .onFailure(e -> LOG.error("error when purging " + resolution + " probe rollups from DB", e));
+    }
+
+    private static LocalDateTime toUtc(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC);
+    }
+
+    /**
+     * Services mapped from the rows of a cursor. The connection goes back to the pool once the cursor is exhausted,
+     * fails or is closed.
+     */
+    private class RowServiceStream implements ServiceStream {
+        private final RowStream<Row> rows;
+        private final SqlConnection con;
+        private final Transaction tx;
+        private final long acquired;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private Handler<Throwable> exceptionHandler;
+        private Handler<Void> endHandler;
+
+        private RowServiceStream(RowStream<Row> rows, SqlConnection con, Transaction tx, long acquired) {
+            this.rows = rows;
+            this.con = con;
+            this.tx = tx;
+            this.acquired = acquired;
+            rows.exceptionHandler(e -> {
+                release(false);
+                if (exceptionHandler != null) {
+                    exceptionHandler.handle(e);
+                }
+            });
+            rows.endHandler(v -> {
+                release(true);
+                if (endHandler != null) {
+                    endHandler.handle(null);
+                }
+            });
+        }
+
+        @Override
+        public ServiceStream handler(Handler<Service> handler) {
+            rows.handler(handler == null ? null : row -> handler.handle(toService(row)));
+            return this;
+        }
+
+        @Override
+        public ServiceStream exceptionHandler(Handler<Throwable> handler) {
+            this.exceptionHandler = handler;
+            return this;
+        }
+
+        @Override
+        public ServiceStream endHandler(Handler<Void> endHandler) {
+            this.endHandler = endHandler;
+            return this;
+        }
+
+        @Override
+        public ServiceStream pause() {
+            rows.pause();
+            return this;
+        }
+
+        @Override
+        public ServiceStream resume() {
+            rows.resume();
+            return this;
+        }
+
+        @Override
+        public ServiceStream fetch(long amount) {
+            rows.fetch(amount);
+            return this;
+        }
+
+        @Override
+        public Future<Void> close() {
+            return rows.close().eventually(v -> release(false));
+        }
+
+        private Future<Void> release(boolean succeeded) {
+            if (!released.compareAndSet(false, true)) {
+                return Future.succeededFuture();
+            }
+            metrics.recordQuery("streamAll", System.nanoTime() - acquired, succeeded);
+            metrics.connectionReleased();
+            // the transaction only reads, it is rolled back
+            return tx.rollback().eventually(v -> con.close());
+        }
+    }
+}
@@ -4,5 +4,30 @@ CREATE TABLE IF NOT EXISTS service (
     url             VARCHAR(255) NOT NULL,
     created_time    TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP(),
     current_status  VARCHAR(5) NOT NULL DEFAULT 'FAIL',
+    poll_interval_ms    INT NULL,
+    timeout_ms          INT NULL,
+    expected_status     INT NULL,
+    body_matcher        VARCHAR(255) NULL,
+    adaptive_polling    BOOLEAN NULL,
     PRIMARY KEY (id)
- );
\ No newline at end of file
+ );
+CREATE TABLE IF NOT EXISTS probe_sample (
+    service_id      INT NOT NULL,
+    probed_at       TIMESTAMP NOT NULL,
+    latency_ms      INT NOT NULL,
+    status          VARCHAR(5) NOT NULL
+ );
+CREATE INDEX IF NOT EXISTS idx_probe_sample_time ON probe_sample(probed_at);
+CREATE TABLE IF NOT EXISTS probe_rollup (
+    service_id      INT NOT NULL,
+    resolution      VARCHAR(6) NOT NULL,
+    bucket_start    TIMESTAMP NOT NULL,
+    probe_count     INT NOT NULL,
+    failure_count   INT NOT NULL,
+    min_latency_ms  INT NOT NULL,
+    max_latency_ms  INT NOT NULL,
+    p50_latency_ms  INT NOT NULL,
+    p95_latency_ms  INT NOT NULL,
+    p99_latency_ms  INT NOT NULL
+ );
+CREATE INDEX IF NOT EXISTS idx_probe_rollup_bucket ON probe_rollup(service_id, resolution, bucket_start);
\ No newline at end of file
@@ -2,7 +2,12 @@ package com.kry.servicepoller;
 
 import com.kry.servicepoller.entities.Service;
 import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.repositories.JDBCServiceRepository;
 import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.junit5.VertxExtension;
@@ -14,17 +19,20 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.extension.ExtendWith;
 
-import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
 import java.util.Properties;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 @ExtendWith(VertxExtension.class)
 public class TestDBStatusUpdateVerticle {
     private ServiceRepository dbCon;
+    private DBStatusUpdateVerticle statusUpdateVerticle;
     private String serviceStatusDBID;
     
     @BeforeAll
-    void setUp(Vertx vertx, VertxTestContext testContext) throws IOException {
+    void setUp(Vertx vertx, VertxTestContext testContext) {
         Properties testDBProperties = new Properties();
         testDBProperties.put("db.url", "jdbc:h2:mem:servicestatusdb;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE");
         testDBProperties.put("db.username", "sa");
@@ -32,8 +40,10 @@ public class TestDBStatusUpdateVerticle {
         testDBProperties.put("db.poolsize", "10");
         testDBProperties.put("db.init.script.path", "h2-init.sql");
     
-        dbCon = new ServiceRepository(testDBProperties);
-        vertx.deployVerticle(new DBStatusUpdateVerticle(this.dbCon), testContext.succeeding(serviceStatusDBID -> {
+        dbCon = new JDBCServiceRepository(vertx, testDBProperties);
+        this.statusUpdateVerticle = new DBStatusUpdateVerticle(this.dbCon);
+        dbCon.init().compose(v -> vertx.deployVerticle(this.statusUpdateVerticle))
+                .onComplete(testContext.succeeding(serviceStatusDBID -> {
             this.serviceStatusDBID = serviceStatusDBID;
             testContext.completeNow();
         }));
@@ -50,13 +60,20 @@ public class TestDBStatusUpdateVerticle {
         
         this.dbCon.insert(serviceJson.mapTo(Service.class)).onSuccess(insertResult -> {
             if (insertResult) {
-                vertx.eventBus().publish("kry.services", serviceJson);
+                // the first status is superseded before the buffer is flushed
+                vertx.eventBus().publish(StatusEvent.ADDRESS, new StatusEvent(1, ServiceStatus.FAIL,
+                        CircuitBreakerState.CLOSED, System.currentTimeMillis(), 10));
+                vertx.eventBus().publish(StatusEvent.ADDRESS, new StatusEvent(1, ServiceStatus.OK,
+                        CircuitBreakerState.CLOSED, System.currentTimeMillis(), 10));
     
                 vertx.setTimer(5000, id -> {
                     this.dbCon.getAll().onSuccess(services -> {
                         Assertions.assertEquals(1, services.size());
                         Assertions.assertEquals(services.get(0).getName(), "Service D");
                         Assertions.assertEquals(services.get(0).getCurrentStatus(), ServiceStatus.OK);
+                        Assertions.assertEquals(2, this.statusUpdateVerticle.metrics().getLong("received"));
+                        Assertions.assertEquals(1, this.statusUpdateVerticle.metrics().getLong("coalesced"));
+                        Assertions.assertEquals(1, this.statusUpdateVerticle.metrics().getLong("rowsWritten"));
                         testContext.completeNow();
                     }).onFailure(fail -> {
                         testContext.failNow("getting all services after status update failed");
@@ -69,6 +86,79 @@ public class TestDBStatusUpdateVerticle {
         
     }
 
+    @Test
+    void testFlipBackDuringFlushIsWritten(VertxTestContext testContext) {
+        // a Vert.x instance of its own, the verticle of the other test must not see these events
+        Vertx vertx = Vertx.vertx();
+        Properties properties = new Properties();
+        properties.put("db.url", "jdbc:h2:mem:flipbackdb;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE");
+        properties.put("db.username", "sa");
+        properties.put("db.password", "");
+        properties.put("db.poolsize", "2");
+        properties.put("db.init.script.path", "h2-init.sql");
+        properties.put("db.status.flush.interval.ms", "50");
+        Promise<Void> failWriteHeld = Promise.promise();
+        Promise<Void> releaseFailWrite = Promise.promise();
+        ServiceRepository repository = new JDBCServiceRepository(vertx, properties) {
+            @Override
+            public Future<Integer> updateStatuses(Map<Integer, ServiceStatus> statuses) {
+                if (!statuses.containsValue(ServiceStatus.FAIL)) {
+                    return super.updateStatuses(statuses);
+                }
+                failWriteHeld.tryComplete();
+                return releaseFailWrite.future().compose(v -> super.updateStatuses(statuses));
+            }
+        };
+        Service service = new Service();
+        service.setName("Service E");
+        service.setUrl(url("http://localhost:9095"));
+        repository.init()
+                .compose(v -> repository.insert(service))
+                .compose(v -> vertx.deployVerticle(new DBStatusUpdateVerticle(repository, properties)))
+                .compose(id -> {
+                    publish(vertx, service.getId(), ServiceStatus.OK);
+                    return delay(vertx, 200);
+                })
+                .compose(v -> {
+                    // the FAIL write is in flight when the service flips back to OK
+                    publish(vertx, service.getId(), ServiceStatus.FAIL);
+                    return failWriteHeld.future();
+                })
+                .compose(v -> {
+                    publish(vertx, service.getId(), ServiceStatus.OK);
+                    return delay(vertx, 200);
+                })
+                .compose(v -> {
+                    releaseFailWrite.complete();
+                    return delay(vertx, 500);
+                })
+                .compose(v -> repository.getAll())
+                .onComplete(testContext.succeeding(services -> testContext.verify(() -> {
+                    Assertions.assertEquals(ServiceStatus.OK, services.get(0).getCurrentStatus());
+                    vertx.close();
+                    testContext.completeNow();
+                })));
+    }
+
+    private static void publish(Vertx vertx, int id, ServiceStatus status) {
+        vertx.eventBus().publish(StatusEvent.ADDRESS, new StatusEvent(id, status, CircuitBreakerState.CLOSED,
+                System.currentTimeMillis(), 10));
+    }
+
+    private static Future<Void> delay(Vertx vertx, long millis) {
+        Promise<Void> promise = Promise.promise();
+        vertx.setTimer(millis, l -> promise.complete());
+        return promise.future();
+    }
+
+    private static URL url(String url) {
+        try {
+            return new URL(url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
     @AfterAll
     void cleanUp(Vertx vertx, VertxTestContext testContext) {
         vertx.undeploy(this.serviceStatusDBID);
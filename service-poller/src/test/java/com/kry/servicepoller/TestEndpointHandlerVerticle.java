@@ -1,12 +1,19 @@
 package com.kry.servicepoller;
 
+import com.kry.servicepoller.entities.ProbeRollup;
+import com.kry.servicepoller.entities.RollupResolution;
+import com.kry.servicepoller.registry.ServiceRegistry;
+import com.kry.servicepoller.repositories.JDBCServiceRepository;
 import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.client.WebClient;
+import io.vertx.junit5.Checkpoint;
 import io.vertx.junit5.VertxExtension;
 import io.vertx.junit5.VertxTestContext;
 import org.junit.jupiter.api.AfterAll;
@@ -19,8 +26,10 @@ import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.TestMethodOrder;
 import org.junit.jupiter.api.extension.ExtendWith;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
@@ -30,7 +39,7 @@ public class TestEndpointHandlerVerticle {
     private String httpVerticleID;
     
     @BeforeAll
-    void setUp(Vertx vertx, VertxTestContext testContext) throws IOException {
+    void setUp(Vertx vertx, VertxTestContext testContext) {
         Properties testDBProperties = new Properties();
         testDBProperties.put("db.url", "jdbc:h2:mem:httpdb;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE");
         testDBProperties.put("db.username", "sa");
@@ -38,8 +47,10 @@ public class TestEndpointHandlerVerticle {
         testDBProperties.put("db.poolsize", "10");
         testDBProperties.put("db.init.script.path", "h2-init.sql");
     
-        dbCon = new ServiceRepository(testDBProperties);
-        vertx.deployVerticle(new EndpointHandlerVerticle(dbCon), testContext.succeeding(httpVerticleID -> {
+        dbCon = new JDBCServiceRepository(vertx, testDBProperties);
+        ServiceRegistry registry = new ServiceRegistry(vertx, dbCon, testDBProperties);
+        dbCon.init().compose(v -> vertx.deployVerticle(new EndpointHandlerVerticle(dbCon, registry)))
+                .onComplete(testContext.succeeding(httpVerticleID -> {
             this.httpVerticleID = httpVerticleID;
             testContext.completeNow();
         }));
@@ -102,6 +113,48 @@ public class TestEndpointHandlerVerticle {
                 })));
     }
     
+    @Test
+    void createServiceWithInvalidPollInterval(Vertx vertx, VertxTestContext testContext) {
+        final WebClient webClient = WebClient.create(vertx);
+        JsonObject serviceJson = new JsonObject();
+        serviceJson.put("name", "Service A");
+        serviceJson.put("url", "http://localhost:9090");
+        serviceJson.put("pollIntervalMs", 10);
+        webClient.post(8090, "localhost", "/services")
+                .sendJsonObject(serviceJson)
+                .onComplete(testContext.succeeding(response -> testContext.verify(() -> {
+                    JsonObject errorPayload = new JsonObject();
+                    errorPayload.put("error", "invalid service payload received");
+                    
+                    Assertions.assertAll(
+                            () -> Assertions.assertEquals(400, response.statusCode()),
+                            () -> Assertions.assertEquals(Json.encodeToBuffer(errorPayload), response.body())
+                    );
+                    testContext.completeNow();
+                })));
+    }
+    
+    @Test
+    void createServiceWithInvalidBodyMatcher(Vertx vertx, VertxTestContext testContext) {
+        final WebClient webClient = WebClient.create(vertx);
+        JsonObject serviceJson = new JsonObject();
+        serviceJson.put("name", "Service A");
+        serviceJson.put("url", "http://localhost:9090");
+        serviceJson.put("bodyMatcher", "[OK");
+        webClient.post(8090, "localhost", "/services")
+                .sendJsonObject(serviceJson)
+                .onComplete(testContext.succeeding(response -> testContext.verify(() -> {
+                    JsonObject errorPayload = new JsonObject();
+                    errorPayload.put("error", "invalid service payload received");
+                    
+                    Assertions.assertAll(
+                            () -> Assertions.assertEquals(400, response.statusCode()),
+                            () -> Assertions.assertEquals(Json.encodeToBuffer(errorPayload), response.body())
+                    );
+                    testContext.completeNow();
+                })));
+    }
+    
     @Order(0)
     @Test
     void createService(Vertx vertx, VertxTestContext testContext) {
@@ -271,6 +324,220 @@ public class TestEndpointHandlerVerticle {
                 })));
     }
     
+    @Order(9)
+    @Test
+    void getServicesPaginated(Vertx vertx, VertxTestContext testContext) {
+        final WebClient webClient = WebClient.create(vertx);
+        List<Future> inserts = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            inserts.add(webClient.post(8090, "localhost", "/services")
+                    .sendJsonObject(new JsonObject().put("name", "Paged " + i).put("url", "http://localhost:9090")));
+        }
+        inserts.add(webClient.post(8090, "localhost", "/services")
+                .sendJsonObject(new JsonObject().put("name", "Other").put("url", "http://localhost:9090")));
+        CompositeFuture.all(inserts)
+                .compose(inserted -> webClient.get(8090, "localhost",
+                        "/services?limit=2&namePrefix=Paged&fields=id,currentStatus").send())
+                .compose(response -> {
+                    JsonObject page = response.bodyAsJsonObject();
+                    testContext.verify(() -> {
+                        Assertions.assertEquals(200, response.statusCode());
+                        Assertions.assertEquals(2, page.getJsonArray("services").size());
+                        JsonObject serviceJson = page.getJsonArray("services").getJsonObject(0);
+                        Assertions.assertEquals(Set.of("id", "currentStatus"), serviceJson.fieldNames());
+                        Assertions.assertNotNull(page.getInteger("next"));
+                    });
+                    return webClient.get(8090, "localhost", "/services?limit=2&namePrefix=Paged&after="
+                            + page.getInteger("next")).send();
+                })
+                .onComplete(testContext.succeeding(response -> testContext.verify(() -> {
+                    JsonObject page = response.bodyAsJsonObject();
+                    Assertions.assertAll(
+                            () -> Assertions.assertEquals(200, response.statusCode()),
+                            () -> Assertions.assertEquals(1, page.getJsonArray("services").size()),
+                            () -> Assertions.assertTrue(page.getJsonArray("services").getJsonObject(0)
+                                    .getString("name").startsWith("Paged")),
+                            () -> Assertions.assertNull(page.getInteger("next"))
+                    );
+                    testContext.completeNow();
+                })));
+    }
+
+    @Order(10)
+    @Test
+    void getServicesWithInvalidQuery(Vertx vertx, VertxTestContext testContext) {
+        final WebClient webClient = WebClient.create(vertx);
+        webClient.get(8090, "localhost", "/services?fields=id,password")
+                .send()
+                .onComplete(testContext.succeeding(response -> testContext.verify(() -> {
+                    Assertions.assertEquals(400, response.statusCode());
+                    testContext.completeNow();
+                })));
+    }
+
+    @Order(11)
+    @Test
+    void exportServices(Vertx vertx, VertxTestContext testContext) {
+        final WebClient webClient = WebClient.create(vertx);
+        webClient.get(8090, "localhost", "/services/export")
+                .send()
+                .onComplete(testContext.succeeding(response -> testContext.verify(() -> {
+                    JsonArray services = response.bodyAsJsonObject().getJsonArray("services");
+                    Assertions.assertAll(
+                            () -> Assertions.assertEquals(200, response.statusCode()),
+                            () -> Assertions.assertEquals(4, services.size()),
+                            () -> Assertions.assertTrue(services.getJsonObject(0).getInteger("id")
+                                    < services.getJsonObject(3).getInteger("id"))
+                    );
+                    testContext.completeNow();
+                })));
+    }
+
+    @Order(12)
+    @Test
+    void exportServicesAsNdjson(Vertx vertx, VertxTestContext testContext) {
+        final WebClient webClient = WebClient.create(vertx);
+        webClient.get(8090, "localhost", "/services/export?format=ndjson&fields=id,name")
+                .send()
+                .onComplete(testContext.succeeding(response -> testContext.verify(() -> {
+                    String[] lines = response.bodyAsString().split("\n");
+                    Assertions.assertAll(
+                            () -> Assertions.assertEquals(200, response.statusCode()),
+                            () -> Assertions.assertEquals("application/x-ndjson", response.getHeader("Content-Type")),
+                            () -> Assertions.assertEquals(4, lines.length),
+                            () -> Assertions.assertEquals(Set.of("id", "name"), new JsonObject(lines[0]).fieldNames())
+                    );
+                    testContext.completeNow();
+                })));
+    }
+
+    @Order(13)
+    @Test
+    void getServicesNotModified(Vertx vertx, VertxTestContext testContext) {
+        final WebClient webClient = WebClient.create(vertx);
+        webClient.get(8090, "localhost", "/services")
+                .send()
+                .compose(response -> {
+                    String etag = response.getHeader("ETag");
+                    testContext.verify(() -> Assertions.assertNotNull(etag));
+                    return webClient.get(8090, "localhost", "/services").putHeader("If-None-Match", etag).send()
+                            .compose(notModified -> {
+                                testContext.verify(() -> Assertions.assertEquals(304, notModified.statusCode()));
+                                return webClient.post(8090, "localhost", "/services").sendJsonObject(
+                                        new JsonObject().put("name", "Changed").put("url", "http://localhost:9090"));
+                            })
+                            .compose(inserted -> webClient.get(8090, "localhost", "/services")
+                                    .putHeader("If-None-Match", etag).send());
+                })
+                .onComplete(testContext.succeeding(response -> testContext.verify(() -> {
+                    JsonArray services = response.bodyAsJsonObject().getJsonArray("services");
+                    Assertions.assertAll(
+                            () -> Assertions.assertEquals(200, response.statusCode()),
+                            () -> Assertions.assertEquals(5, services.size())
+                    );
+                    testContext.completeNow();
+                })));
+    }
+
+    @Order(14)
+    @Test
+    void applyBatch(Vertx vertx, VertxTestContext testContext) {
+        final WebClient webClient = WebClient.create(vertx);
+        JsonArray operations = new JsonArray()
+                .add(new JsonObject().put("op", "create").put("service",
+                        new JsonObject().put("name", "Batch 1").put("url", "http://localhost:9090")))
+                .add(new JsonObject().put("op", "create").put("service",
+                        new JsonObject().put("name", "Batch 2").put("url", "http://localhost:9090")))
+                .add(new JsonObject().put("op", "create").put("service",
+                        new JsonObject().put("name", "").put("url", "http://localhost:9090")))
+                .add(new JsonObject().put("op", "update").put("service",
+                        new JsonObject().put("id", 1000).put("name", "Batch").put("url", "http://localhost:9090")))
+                .add(new JsonObject().put("op", "delete").put("id", 1000));
+        webClient.post(8090, "localhost", "/services:batch")
+                .sendJson(operations)
+                .compose(response -> {
+                    JsonArray results = response.bodyAsJsonObject().getJsonArray("results");
+                    testContext.verify(() -> Assertions.assertAll(
+                            () -> Assertions.assertEquals(200, response.statusCode()),
+                            () -> Assertions.assertEquals(204, results.getJsonObject(0).getInteger("status")),
+                            () -> Assertions.assertEquals(204, results.getJsonObject(1).getInteger("status")),
+                            () -> Assertions.assertEquals(400, results.getJsonObject(2).getInteger("status")),
+                            () -> Assertions.assertEquals(404, results.getJsonObject(3).getInteger("status")),
+                            () -> Assertions.assertEquals(404, results.getJsonObject(4).getInteger("status"))
+                    ));
+                    String deletes = new JsonObject().put("op", "delete")
+                            .put("id", results.getJsonObject(0).getInteger("id")).encode() + "\n"
+                            + new JsonObject().put("op", "delete")
+                            .put("id", results.getJsonObject(1).getInteger("id")).encode() + "\n";
+                    return webClient.post(8090, "localhost", "/services:batch")
+                            .putHeader("Content-Type", "application/x-ndjson")
+                            .sendBuffer(Buffer.buffer(deletes));
+                })
+                .onComplete(testContext.succeeding(response -> testContext.verify(() -> {
+                    JsonArray results = response.bodyAsJsonObject().getJsonArray("results");
+                    Assertions.assertAll(
+                            () -> Assertions.assertEquals(200, response.statusCode()),
+                            () -> Assertions.assertEquals(2, results.size()),
+                            () -> Assertions.assertEquals(204, results.getJsonObject(0).getInteger("status")),
+                            () -> Assertions.assertEquals(204, results.getJsonObject(1).getInteger("status"))
+                    );
+                    testContext.completeNow();
+                })));
+    }
+
+    @Order(15)
+    @Test
+    void subscribeOverWebSocket(Vertx vertx, VertxTestContext testContext) {
+        // the current statuses of the subscribed services come first
+        Checkpoint statuses = testContext.checkpoint(3);
+        vertx.createHttpClient().webSocket(8090, "localhost", "/services/ws?namePrefix=paged")
+                .onComplete(testContext.succeeding(webSocket -> webSocket.textMessageHandler(message ->
+                        testContext.verify(() -> {
+                            Assertions.assertEquals("FAIL", new JsonObject(message).getString("currentStatus"));
+                            statuses.flag();
+                        }))));
+    }
+
+    @Order(16)
+    @Test
+    void getServiceHistory(Vertx vertx, VertxTestContext testContext) {
+        final WebClient webClient = WebClient.create(vertx);
+        long from = RollupResolution.MINUTE.bucketStart(System.currentTimeMillis()) - 600_000;
+        // the first bucket is split over two rows, e.g. around a restart
+        this.dbCon.insertRollups(List.of(
+                new ProbeRollup(4242, RollupResolution.MINUTE, from, 2, 1, 10, 200, 10, 200, 200),
+                new ProbeRollup(4242, RollupResolution.MINUTE, from, 1, 0, 5, 5, 5, 5, 5),
+                new ProbeRollup(4242, RollupResolution.MINUTE, from + 60_000, 3, 0, 20, 40, 30, 40, 40)))
+                .compose(v -> webClient.get(8090, "localhost", "/services/4242/history")
+                        .addQueryParam("from", String.valueOf(from))
+                        .addQueryParam("to", String.valueOf(from + 300_000))
+                        .addQueryParam("resolution", "minute")
+                        .send())
+                .compose(response -> {
+                    JsonObject history = response.bodyAsJsonObject();
+                    JsonArray buckets = history.getJsonArray("buckets");
+                    testContext.verify(() -> Assertions.assertAll(
+                            () -> Assertions.assertEquals(200, response.statusCode()),
+                            () -> Assertions.assertEquals("MINUTE", history.getString("resolution")),
+                            () -> Assertions.assertEquals(2, buckets.size()),
+                            () -> Assertions.assertEquals(from, buckets.getJsonObject(0).getLong("bucketStart")),
+                            () -> Assertions.assertEquals(3, buckets.getJsonObject(0).getInteger("count")),
+                            () -> Assertions.assertEquals(1, buckets.getJsonObject(0).getInteger("failures")),
+                            () -> Assertions.assertEquals(5, buckets.getJsonObject(0).getInteger("minLatencyMs")),
+                            () -> Assertions.assertEquals(200, buckets.getJsonObject(0).getInteger("maxLatencyMs")),
+                            () -> Assertions.assertEquals(3, buckets.getJsonObject(1).getInteger("count"))
+                    ));
+                    return webClient.get(8090, "localhost", "/services/4242/history")
+                            .addQueryParam("from", String.valueOf(from))
+                            .addQueryParam("to", String.valueOf(from))
+                            .send();
+                })
+                .onComplete(testContext.succeeding(response -> testContext.verify(() -> {
+                    Assertions.assertEquals(400, response.statusCode());
+                    testContext.completeNow();
+                })));
+    }
+
     @AfterAll
     void cleanUp(Vertx vertx, VertxTestContext testContext) {
         vertx.undeploy(this.httpVerticleID);
@@ -0,0 +1,79 @@
+package com.kry.servicepoller;
+
+import com.kry.servicepoller.entities.ProbeRollup;
+import com.kry.servicepoller.entities.RollupResolution;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.repositories.JDBCServiceRepository;
+import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Properties;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(VertxExtension.class)
+public class TestProbeHistoryVerticle {
+    private ServiceRepository dbCon;
+    private String probeHistoryID;
+
+    @BeforeAll
+    void setUp(Vertx vertx, VertxTestContext testContext) {
+        Properties testDBProperties = new Properties();
+        testDBProperties.put("db.url", "jdbc:h2:mem:probehistorydb;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE");
+        testDBProperties.put("db.username", "sa");
+        testDBProperties.put("db.password", "");
+        testDBProperties.put("db.poolsize", "10");
+        testDBProperties.put("db.init.script.path", "h2-init.sql");
+        testDBProperties.put("history.flush.interval.ms", "200");
+
+        dbCon = new JDBCServiceRepository(vertx, testDBProperties);
+        dbCon.init().compose(v -> vertx.deployVerticle(new ProbeHistoryVerticle(this.dbCon, testDBProperties)))
+                .onComplete(testContext.succeeding(probeHistoryID -> {
+                    this.probeHistoryID = probeHistoryID;
+                    testContext.completeNow();
+                }));
+    }
+
+    @Test
+    void testMinuteRollup(Vertx vertx, VertxTestContext testContext) {
+        // probes of a minute that is already over, so its bucket is closed by the next flush
+        long bucketStart = RollupResolution.MINUTE.bucketStart(System.currentTimeMillis()) - 120_000;
+        DeliveryOptions localOnly = new DeliveryOptions().setLocalOnly(true);
+        vertx.eventBus().publish(StatusEvent.PROBE_ADDRESS, new StatusEvent(7, ServiceStatus.OK,
+                CircuitBreakerState.CLOSED, bucketStart + 1_000, 10), localOnly);
+        vertx.eventBus().publish(StatusEvent.PROBE_ADDRESS, new StatusEvent(7, ServiceStatus.FAIL,
+                CircuitBreakerState.CLOSED, bucketStart + 20_000, 200), localOnly);
+        vertx.eventBus().publish(StatusEvent.PROBE_ADDRESS, new StatusEvent(7, ServiceStatus.OK,
+                CircuitBreakerState.CLOSED, bucketStart + 40_000, 30), localOnly);
+
+        vertx.setTimer(2000, id -> this.dbCon.getRollups(7, RollupResolution.MINUTE, bucketStart,
+                bucketStart + 60_000).onSuccess(rollups -> testContext.verify(() -> {
+            Assertions.assertEquals(1, rollups.size());
+            ProbeRollup rollup = rollups.get(0);
+            Assertions.assertEquals(bucketStart, rollup.getBucketStart());
+            Assertions.assertEquals(3, rollup.getCount());
+            Assertions.assertEquals(1, rollup.getFailures());
+            Assertions.assertEquals(10, rollup.getMinLatency());
+            Assertions.assertEquals(200, rollup.getMaxLatency());
+            Assertions.assertTrue(rollup.getP50Latency() >= 30 && rollup.getP50Latency() < 200);
+            Assertions.assertEquals(200, rollup.getP99Latency());
+            testContext.completeNow();
+        })).onFailure(testContext::failNow));
+    }
+
+    @AfterAll
+    void cleanUp(Vertx vertx, VertxTestContext testContext) {
+        vertx.undeploy(this.probeHistoryID);
+        testContext.completeNow();
+    }
+}
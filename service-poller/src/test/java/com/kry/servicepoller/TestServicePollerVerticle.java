@@ -1,9 +1,12 @@
 package com.kry.servicepoller;
 
 import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.registry.ServiceRegistry;
+import com.kry.servicepoller.repositories.JDBCServiceRepository;
 import com.kry.servicepoller.repositories.ServiceRepository;
 import io.vertx.core.Vertx;
-import io.vertx.core.json.Json;
 import io.vertx.junit5.VertxExtension;
 import io.vertx.junit5.VertxTestContext;
 import org.junit.jupiter.api.AfterAll;
@@ -13,7 +16,6 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.extension.ExtendWith;
 
-import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Properties;
@@ -22,11 +24,12 @@ import java.util.Properties;
 @ExtendWith(VertxExtension.class)
 public class TestServicePollerVerticle {
     private ServiceRepository dbCon;
+    private ServiceRegistry registry;
     private String servicePollerVerticleID;
     private String sampleServiceCID;
     
     @BeforeAll
-    void setUp(Vertx vertx, VertxTestContext testContext) throws IOException {
+    void setUp(Vertx vertx, VertxTestContext testContext) {
         Properties testDBProperties = new Properties();
         testDBProperties.put("db.url", "jdbc:h2:mem:pollerdb;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE");
         testDBProperties.put("db.username", "sa");
@@ -34,8 +37,10 @@ public class TestServicePollerVerticle {
         testDBProperties.put("db.poolsize", "10");
         testDBProperties.put("db.init.script.path", "h2-init.sql");
     
-        this.dbCon = new ServiceRepository(testDBProperties);
-        vertx.deployVerticle(new ServicePollerVerticle(this.dbCon), testContext.succeeding(servicePollerVerticleID -> {
+        this.dbCon = new JDBCServiceRepository(vertx, testDBProperties);
+        this.registry = new ServiceRegistry(vertx, this.dbCon, testDBProperties);
+        this.dbCon.init().compose(v -> vertx.deployVerticle(new ServicePollerVerticle(this.registry)))
+                .onComplete(testContext.succeeding(servicePollerVerticleID -> {
             this.servicePollerVerticleID = servicePollerVerticleID;
             vertx.deployVerticle(new ServiceC(), testContext.succeeding(sampleServiceCID -> {
                 this.sampleServiceCID = sampleServiceCID;
@@ -46,11 +51,10 @@ public class TestServicePollerVerticle {
     
     @Test
     void testServicePoller(Vertx vertx, VertxTestContext testContext) throws MalformedURLException {
-        vertx.eventBus().consumer("kry.services", msg -> {
-            Service service = Json.decodeValue(msg.body().toString(), Service.class);
-            Assertions.assertEquals("OK", service.getCurrentStatus().toString());
+        vertx.eventBus().<StatusEvent>consumer(StatusEvent.ADDRESS, msg -> testContext.verify(() -> {
+            Assertions.assertEquals(ServiceStatus.OK, msg.body().getStatus());
             testContext.completeNow();
-        });
+        }));
 
         vertx.setTimer(10000, id -> {
             testContext.failNow("event hub didn't receive backend service status");
@@ -59,9 +63,10 @@ public class TestServicePollerVerticle {
         Service svcC = new Service();
         svcC.setName("Service C");
         svcC.setUrl(new URL("http://localhost:9092/health"));
-        dbCon.insert(svcC).onComplete(testContext.succeeding(response ->
-                testContext.verify(() -> Assertions.assertEquals(true, response))
-        ));
+        dbCon.insert(svcC).onComplete(testContext.succeeding(response -> testContext.verify(() -> {
+            Assertions.assertEquals(true, response);
+            this.registry.put(svcC);
+        })));
     }
 
     @AfterAll
@@ -0,0 +1,68 @@
+package com.kry.servicepoller.backend.simulators;
+
+import com.kry.servicepoller.repositories.JDBCServiceRepository;
+import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.core.Vertx;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Properties;
+
+@ExtendWith(VertxExtension.class)
+public class TestFleetSimulator {
+
+    @Test
+    void testFleetIsServed(Vertx vertx, VertxTestContext testContext) {
+        Properties properties = fleetProperties();
+        WebClient webClient = WebClient.create(vertx);
+        vertx.deployVerticle(new FleetSimulator(properties))
+                .compose(id -> webClient.get(9200, "localhost", "/fleet/24/health").send())
+                .compose(response -> {
+                    testContext.verify(() -> {
+                        Assertions.assertEquals(200, response.statusCode());
+                        Assertions.assertEquals("OK", response.bodyAsString());
+                    });
+                    return webClient.get(9200, "localhost", "/fleet/25/health").send();
+                })
+                .onComplete(testContext.succeeding(response -> testContext.verify(() -> {
+                    Assertions.assertEquals(404, response.statusCode());
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    void testFleetIsSeeded(Vertx vertx, VertxTestContext testContext) {
+        Properties properties = fleetProperties();
+        properties.put("db.url", "jdbc:h2:mem:fleetdb;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE");
+        properties.put("db.username", "sa");
+        properties.put("db.password", "");
+        properties.put("db.poolsize", "2");
+        properties.put("db.init.script.path", "h2-init.sql");
+        ServiceRepository dbCon = new JDBCServiceRepository(vertx, properties);
+        dbCon.init()
+                .compose(v -> FleetSeeder.seed(dbCon, properties, 0))
+                .compose(v -> dbCon.getAll())
+                .onComplete(testContext.succeeding(services -> testContext.verify(() -> {
+                    Assertions.assertEquals(25, services.size());
+                    Assertions.assertTrue(services.stream().anyMatch(service -> "fleet-00000".equals(service.getName())
+                            && "http://localhost:9200/fleet/0/health".equals(service.getUrl().toString())));
+                    testContext.completeNow();
+                })));
+    }
+
+    private static Properties fleetProperties() {
+        Properties properties = new Properties();
+        properties.put("simulator.services", "25");
+        properties.put("simulator.ports", "9200");
+        properties.put("simulator.latency.median.ms", "1");
+        properties.put("simulator.failure.rate", "0");
+        properties.put("simulator.flapping.fraction", "0");
+        properties.put("simulator.slow.body.fraction", "0");
+        properties.put("simulator.hang.fraction", "0");
+        return properties;
+    }
+}
@@ -0,0 +1,162 @@
+package com.kry.servicepoller.cluster;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.spi.cluster.ClusterManager;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import io.vertx.test.fakecluster.FakeClusterManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@ExtendWith(VertxExtension.class)
+public class TestClusterShard {
+    private static final int NODES = 3;
+    private static final int SERVICES = 3000;
+    private final List<Vertx> nodes = new ArrayList<>();
+    private final List<ClusterShard> shards = new ArrayList<>();
+
+    @Test
+    void testServicesAreSplitAndRebalanced(VertxTestContext testContext) {
+        Properties properties = new Properties();
+        properties.put("cluster.membership.check.interval.ms", "100");
+        List<Future> starts = new ArrayList<>();
+        List<ClusterManager> clusterManagers = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            ClusterManager clusterManager = new FakeClusterManager();
+            clusterManagers.add(clusterManager);
+            starts.add(Vertx.clusteredVertx(new VertxOptions().setClusterManager(clusterManager)));
+        }
+        CompositeFuture.all(starts).onComplete(testContext.succeeding(started -> {
+            for (int i = 0; i < NODES; i++) {
+                Vertx node = started.resultAt(i);
+                ClusterShard shard = new ClusterShard(node, clusterManagers.get(i), properties);
+                shard.start();
+                nodes.add(node);
+                shards.add(shard);
+            }
+            // wait for every node to see the full membership
+            nodes.get(0).setTimer(500, l -> testContext.verify(() -> {
+                assertEveryServiceOwnedOnce(shards);
+                for (ClusterShard shard : shards) {
+                    Assertions.assertEquals(NODES, shard.getNodes().size());
+                    int owned = owned(shard);
+                    Assertions.assertTrue(owned > SERVICES / NODES / 2,
+                            "node " + shard.getNodeId() + " owns only " + owned + " services");
+                }
+
+                // a leaving node hands its services over to the remaining ones
+                ClusterShard leaving = shards.remove(NODES - 1);
+                leaving.stop();
+                nodes.remove(NODES - 1).close(testContext.succeeding(closed ->
+                        nodes.get(0).setTimer(500, t -> testContext.verify(() -> {
+                            for (ClusterShard shard : shards) {
+                                Assertions.assertEquals(NODES - 1, shard.getNodes().size());
+                            }
+                            assertEveryServiceOwnedOnce(shards);
+                            testContext.completeNow();
+                        }))));
+            }));
+        }));
+    }
+
+    @Test
+    void testJoiningNodeTakesOverServices(VertxTestContext testContext) {
+        Properties properties = new Properties();
+        properties.put("cluster.membership.check.interval.ms", "100");
+        startNode(properties).compose(v -> startNode(properties)).onComplete(testContext.succeeding(started ->
+                nodes.get(0).setTimer(500, l -> testContext.verify(() -> {
+                    Map<Integer, String> owners = owners(shards);
+                    List<AtomicInteger> rebalances = new ArrayList<>();
+                    for (Vertx node : nodes) {
+                        AtomicInteger rebalanced = new AtomicInteger();
+                        node.eventBus().localConsumer(ClusterShard.REBALANCE_ADDRESS,
+                                message -> rebalanced.incrementAndGet());
+                        rebalances.add(rebalanced);
+                    }
+
+                    startNode(properties).onComplete(testContext.succeeding(joined ->
+                            nodes.get(0).setTimer(500, t -> testContext.verify(() -> {
+                                // the running nodes are told, and only hand services over to the joining one
+                                rebalances.forEach(rebalanced -> Assertions.assertEquals(1, rebalanced.get()));
+                                assertEveryServiceOwnedOnce(shards);
+                                String joiningNode = shards.get(2).getNodeId();
+                                Map<Integer, String> newOwners = owners(shards);
+                                int moved = 0;
+                                for (int id = 1; id <= SERVICES; id++) {
+                                    if (!newOwners.get(id).equals(owners.get(id))) {
+                                        Assertions.assertEquals(joiningNode, newOwners.get(id),
+                                                "service " + id + " moved between running nodes");
+                                        moved++;
+                                    }
+                                }
+                                Assertions.assertTrue(moved > SERVICES / NODES / 2,
+                                        "the joining node took over only " + moved + " services");
+                                testContext.completeNow();
+                            }))));
+                }))));
+    }
+
+    @AfterEach
+    void cleanUp() {
+        shards.forEach(ClusterShard::stop);
+        nodes.forEach(Vertx::close);
+        FakeClusterManager.reset();
+    }
+
+    private Future<Void> startNode(Properties properties) {
+        ClusterManager clusterManager = new FakeClusterManager();
+        return Vertx.clusteredVertx(new VertxOptions().setClusterManager(clusterManager)).map(node -> {
+            ClusterShard shard = new ClusterShard(node, clusterManager, properties);
+            shard.start();
+            nodes.add(node);
+            shards.add(shard);
+            return null;
+        });
+    }
+
+    private static Map<Integer, String> owners(List<ClusterShard> shards) {
+        Map<Integer, String> owners = new HashMap<>();
+        for (int id = 1; id <= SERVICES; id++) {
+            for (ClusterShard shard : shards) {
+                if (shard.owns(id)) {
+                    owners.put(id, shard.getNodeId());
+                }
+            }
+        }
+        return owners;
+    }
+
+    private static void assertEveryServiceOwnedOnce(List<ClusterShard> shards) {
+        for (int id = 1; id <= SERVICES; id++) {
+            int owners = 0;
+            for (ClusterShard shard : shards) {
+                if (shard.owns(id)) {
+                    owners++;
+                }
+            }
+            Assertions.assertEquals(1, owners, "service " + id + " has " + owners + " owners");
+        }
+    }
+
+    private static int owned(ClusterShard shard) {
+        int owned = 0;
+        for (int id = 1; id <= SERVICES; id++) {
+            if (shard.owns(id)) {
+                owned++;
+            }
+        }
+        return owned;
+    }
+}
@@ -0,0 +1,44 @@
+package com.kry.servicepoller.dashboard;
+
+import com.kry.servicepoller.codecs.StatusEventCodec;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.entities.StatusEvent;
+import com.kry.servicepoller.registry.ServiceRegistry;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Properties;
+
+@ExtendWith(VertxExtension.class)
+public class TestDashboardFanOut {
+
+    @Test
+    void testStatusEventsAreConflated(Vertx vertx, VertxTestContext testContext) {
+        StatusEventCodec.register(vertx.eventBus());
+        DashboardFanOut fanOut = new DashboardFanOut(vertx, new ServiceRegistry(vertx, null, new Properties()));
+        fanOut.conflate(100);
+        vertx.eventBus().<String>consumer(DashboardFanOut.DELTA_ADDRESS, message -> testContext.verify(() -> {
+            JsonArray services = new JsonObject(message.body()).getJsonArray("services");
+            Assertions.assertEquals(2, services.size());
+            // the latest status of a service wins
+            Assertions.assertEquals(1, services.getJsonObject(0).getInteger("id"));
+            Assertions.assertEquals("OK", services.getJsonObject(0).getString("currentStatus"));
+            Assertions.assertEquals(2, services.getJsonObject(1).getInteger("id"));
+            testContext.completeNow();
+        }));
+        long now = System.currentTimeMillis();
+        vertx.eventBus().publish(StatusEvent.ADDRESS,
+                new StatusEvent(1, ServiceStatus.FAIL, CircuitBreakerState.CLOSED, now, 10));
+        vertx.eventBus().publish(StatusEvent.ADDRESS,
+                new StatusEvent(2, ServiceStatus.FAIL, CircuitBreakerState.CLOSED, now, 10));
+        vertx.eventBus().publish(StatusEvent.ADDRESS,
+                new StatusEvent(1, ServiceStatus.OK, CircuitBreakerState.CLOSED, now, 10));
+    }
+}
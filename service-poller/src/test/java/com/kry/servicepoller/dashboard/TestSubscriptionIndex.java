@@ -0,0 +1,60 @@
+package com.kry.servicepoller.dashboard;
+
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+public class TestSubscriptionIndex {
+
+    @Test
+    void testUpdatesAreRoutedToMatchingSubscriptions() {
+        SubscriptionIndex index = new SubscriptionIndex();
+        Subscription byIds = subscription(new StatusFilter(Set.of(1, 2), null, null));
+        Subscription byPrefix = subscription(new StatusFilter(null, "Api", null));
+        Subscription byPrefixAndStatus = subscription(new StatusFilter(null, "api-pay", ServiceStatus.FAIL));
+        Subscription byStatus = subscription(new StatusFilter(null, null, ServiceStatus.OK));
+        Subscription unfiltered = subscription(new StatusFilter(null, null, null));
+        List.of(byIds, byPrefix, byPrefixAndStatus, byStatus, unfiltered).forEach(index::add);
+
+        Assertions.assertEquals(List.of(unfiltered, byIds, byPrefix, byPrefixAndStatus),
+                index.matching(service(1, "API-payments"), ServiceStatus.FAIL));
+        Assertions.assertEquals(List.of(unfiltered, byPrefix, byStatus),
+                index.matching(service(3, "api-payments"), ServiceStatus.OK));
+        Assertions.assertEquals(List.of(unfiltered), index.matching(service(4, "web"), ServiceStatus.FAIL));
+
+        index.remove(byIds);
+        index.remove(unfiltered);
+        Assertions.assertEquals(3, index.size());
+        Assertions.assertEquals(List.of(byPrefix), index.matching(service(1, "api"), ServiceStatus.FAIL));
+    }
+
+    @Test
+    void testTransitionsReachTheSubscriptionsOfEitherStatus() {
+        SubscriptionIndex index = new SubscriptionIndex();
+        Subscription failing = subscription(new StatusFilter(null, null, ServiceStatus.FAIL));
+        Subscription ok = subscription(new StatusFilter(null, null, ServiceStatus.OK));
+        Subscription failingById = subscription(new StatusFilter(Set.of(1), null, ServiceStatus.FAIL));
+        List.of(failing, ok, failingById).forEach(index::add);
+
+        // a recovered service leaves the failing views
+        Assertions.assertEquals(List.of(failingById, ok, failing),
+                index.matching(service(1, "api"), ServiceStatus.OK, ServiceStatus.FAIL));
+        Assertions.assertEquals(List.of(ok), index.matching(service(1, "api"), ServiceStatus.OK, ServiceStatus.OK));
+        Assertions.assertEquals(List.of(failing), index.matching(service(2, "api"), ServiceStatus.FAIL, null));
+    }
+
+    private static Subscription subscription(StatusFilter filter) {
+        return new Subscription(filter, null, update -> { });
+    }
+
+    private static Service service(int id, String name) {
+        Service service = new Service();
+        service.setId(id);
+        service.setName(name);
+        return service;
+    }
+}
@@ -0,0 +1,63 @@
+package com.kry.servicepoller.polling;
+
+import com.kry.servicepoller.entities.ServiceStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestAdaptiveIntervals {
+    private static final long BASE = 3000;
+    private static final long CONFIRM_WINDOW = 30_000;
+    private static final long BACKOFF_DELAY = 300_000;
+    private static final long MAX = 60_000;
+
+    @Test
+    void testSteadyServiceKeepsBaseInterval() {
+        AdaptiveIntervals intervals = intervals();
+        long now = 1_600_000_000_000L;
+        for (int probe = 0; probe < 100; probe++, now += BASE) {
+            Assertions.assertEquals(BASE, intervals.next(1, BASE, ServiceStatus.OK, now));
+        }
+        Assertions.assertEquals(BASE, intervals.current(1, BASE));
+    }
+
+    @Test
+    void testChangedServiceIsConfirmedFaster() {
+        AdaptiveIntervals intervals = intervals();
+        long now = 1_600_000_000_000L;
+        intervals.next(1, BASE, ServiceStatus.OK, now);
+
+        now += BASE;
+        Assertions.assertEquals(BASE / 4, intervals.next(1, BASE, ServiceStatus.FAIL, now));
+        long changed = now;
+        while (now + BASE / 4 < changed + CONFIRM_WINDOW) {
+            now += BASE / 4;
+            Assertions.assertEquals(BASE / 4, intervals.next(1, BASE, ServiceStatus.FAIL, now));
+        }
+        Assertions.assertEquals(BASE, intervals.next(1, BASE, ServiceStatus.FAIL, changed + CONFIRM_WINDOW));
+    }
+
+    @Test
+    void testFailingServiceBacksOffUpToCap() {
+        AdaptiveIntervals intervals = intervals();
+        long now = 1_600_000_000_000L;
+        intervals.next(1, BASE, ServiceStatus.OK, now);
+        long failed = now + BASE;
+        intervals.next(1, BASE, ServiceStatus.FAIL, failed);
+
+        now = failed + BACKOFF_DELAY;
+        long[] expected = {6000, 12_000, 24_000, 48_000, MAX, MAX};
+        for (long interval : expected) {
+            long next = intervals.next(1, BASE, ServiceStatus.FAIL, now);
+            Assertions.assertEquals(interval, next);
+            now += next;
+        }
+
+        // the recovery is confirmed faster, then the service is back to the base interval
+        Assertions.assertEquals(BASE / 4, intervals.next(1, BASE, ServiceStatus.OK, now));
+        Assertions.assertEquals(BASE, intervals.next(1, BASE, ServiceStatus.OK, now + CONFIRM_WINDOW));
+    }
+
+    private static AdaptiveIntervals intervals() {
+        return new AdaptiveIntervals(100, CONFIRM_WINDOW, 4, BACKOFF_DELAY, 2, MAX);
+    }
+}
@@ -0,0 +1,146 @@
+package com.kry.servicepoller.polling;
+
+import com.kry.servicepoller.metrics.ProbeMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class TestProbeScheduler {
+    private static final long TICK = 100;
+    private static final long INTERVAL = 3000;
+    private static final int SERVICES = 10_000;
+
+    @Test
+    void testProbesAreSpreadAcrossInterval() {
+        long start = 1_600_000_000_000L;
+        ProbeScheduler scheduler = new ProbeScheduler(TICK, 512, start);
+        for (int id = 1; id <= SERVICES; id++) {
+            scheduler.schedule(id, INTERVAL);
+        }
+
+        int ticksPerInterval = (int) (INTERVAL / TICK);
+        int expectedPerTick = SERVICES / ticksPerInterval;
+        Map<Integer, Integer> probesPerService = new HashMap<>();
+        // skip the first partial tick and observe two full intervals
+        scheduler.advance(start, id -> probesPerService.merge(id, 1, Integer::sum));
+        probesPerService.clear();
+        for (int tick = 1; tick <= 2 * ticksPerInterval; tick++) {
+            int fired = scheduler.advance(start + tick * TICK, id -> probesPerService.merge(id, 1, Integer::sum));
+            Assertions.assertTrue(Math.abs(fired - expectedPerTick) <= expectedPerTick / 20,
+                    "tick " + tick + " fired " + fired + " probes, expected about " + expectedPerTick);
+        }
+
+        Assertions.assertEquals(SERVICES, probesPerService.size());
+        probesPerService.values().forEach(count -> Assertions.assertEquals(2, count));
+    }
+
+    @Test
+    void testPerServiceInterval() {
+        long start = 1_600_000_000_000L;
+        ProbeScheduler scheduler = new ProbeScheduler(TICK, 16, start);
+        scheduler.schedule(1, 1000);
+        scheduler.schedule(2, INTERVAL);
+        scheduler.schedule(3, 6000);
+
+        Map<Integer, Integer> probesPerService = new HashMap<>();
+        for (long now = start; now < start + 6000; now += TICK) {
+            scheduler.advance(now, id -> probesPerService.merge(id, 1, Integer::sum));
+        }
+
+        Assertions.assertEquals(6, probesPerService.get(1));
+        Assertions.assertEquals(2, probesPerService.get(2));
+        Assertions.assertEquals(1, probesPerService.get(3));
+    }
+
+    @Test
+    void testCancelledServiceIsNotProbed() {
+        long start = 1_600_000_000_000L;
+        ProbeScheduler scheduler = new ProbeScheduler(TICK, 64, start);
+        scheduler.schedule(1, 1000);
+        scheduler.cancel(1);
+
+        int fired = scheduler.advance(start + 5000, id -> Assertions.fail("cancelled service was probed: " + id));
+        Assertions.assertEquals(0, fired);
+        Assertions.assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    void testAdjustedIntervalAppliesFromNow() {
+        long start = 1_600_000_000_000L;
+        ProbeScheduler scheduler = new ProbeScheduler(TICK, 16, start);
+        scheduler.schedule(1, 1000);
+        scheduler.advance(start + 1000, id -> { });
+        scheduler.adjust(1, 5000);
+
+        Map<Integer, Integer> probesPerService = new HashMap<>();
+        for (long now = start + 1100; now < start + 11_200; now += TICK) {
+            scheduler.advance(now, id -> probesPerService.merge(id, 1, Integer::sum));
+        }
+
+        // due 5 seconds after the adjustment, then every 5 seconds
+        Assertions.assertEquals(2, probesPerService.get(1));
+        Assertions.assertEquals(1, scheduler.size());
+    }
+
+    @Test
+    void testSchedulingLagIsReported() {
+        long start = 1_600_000_000_000L;
+        ProbeScheduler scheduler = new ProbeScheduler(TICK, 64, start);
+        scheduler.schedule(1, 1000);
+
+        // the timer fires one second late, the missed ticks are caught up
+        int fired = scheduler.advance(start + 1000, id -> { });
+        Assertions.assertTrue(fired >= 1);
+        Assertions.assertEquals(1000, scheduler.getLastLagMillis());
+        Assertions.assertEquals(1000, scheduler.getAndResetMaxLagMillis());
+
+        // the next tick on time has no lag
+        scheduler.advance(start + 1100, id -> { });
+        Assertions.assertEquals(0, scheduler.getLastLagMillis());
+    }
+
+    @Test
+    void testStallReachesTheLagTimer() {
+        long start = 1_600_000_000_000L;
+        ProbeScheduler scheduler = new ProbeScheduler(TICK, 64, start);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ProbeMetrics metrics = new ProbeMetrics(registry, 1, false);
+        scheduler.schedule(1, 1000);
+
+        // recorded the way the poller does after every tick
+        scheduler.advance(start + 2000, id -> { });
+        metrics.recordSchedulerTick(0, scheduler.getLastLagMillis(), scheduler.size());
+
+        Timer lag = registry.get("poller.scheduler.lag").tag("instance", "0").timer();
+        Assertions.assertEquals(2000, lag.max(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testCatchUpProbesEachServiceOnce() {
+        long start = 1_600_000_000_000L;
+        ProbeScheduler scheduler = new ProbeScheduler(TICK, 16, start);
+        scheduler.schedule(1, TICK);
+        scheduler.schedule(2, 1000);
+
+        // a ten second stall covers a hundred intervals of the first service and ten of the second
+        Map<Integer, Integer> probesPerService = new HashMap<>();
+        int fired = scheduler.advance(start + 10_000, id -> probesPerService.merge(id, 1, Integer::sum));
+        Assertions.assertEquals(2, fired);
+        Assertions.assertEquals(1, probesPerService.get(1));
+        Assertions.assertEquals(1, probesPerService.get(2));
+
+        // the services go on at their interval afterwards
+        probesPerService.clear();
+        for (long now = start + 10_100; now <= start + 12_000; now += TICK) {
+            scheduler.advance(now, id -> probesPerService.merge(id, 1, Integer::sum));
+        }
+        Assertions.assertEquals(20, probesPerService.get(1));
+        Assertions.assertEquals(2, probesPerService.get(2));
+    }
+}
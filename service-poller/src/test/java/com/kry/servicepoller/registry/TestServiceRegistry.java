@@ -0,0 +1,170 @@
+package com.kry.servicepoller.registry;
+
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import com.kry.servicepoller.repositories.ServiceQuery;
+import com.kry.servicepoller.repositories.ServiceRepository;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.junit5.VertxExtension;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+@ExtendWith(VertxExtension.class)
+public class TestServiceRegistry {
+    private static final int ROUNDS = 10_000;
+
+    @Test
+    void testHeldServicesAreSnapshots(Vertx vertx) throws Exception {
+        ServiceRegistry registry = new ServiceRegistry(vertx, null, new Properties());
+        Service service = service("first");
+        registry.put(service);
+        Service snapshot = registry.get(1).getService();
+
+        registry.updateStatus(1, ServiceStatus.OK, CircuitBreakerState.CLOSED);
+
+        // neither the caller's service nor a snapshot read before are changed by the registry
+        Assertions.assertNull(service.getCurrentStatus());
+        Assertions.assertEquals(ServiceStatus.FAIL, snapshot.getCurrentStatus());
+        Assertions.assertEquals(ServiceStatus.OK, registry.get(1).getService().getCurrentStatus());
+
+        Service edited = service("edited");
+        registry.put(edited);
+        Assertions.assertEquals("edited", registry.get(1).getService().getName());
+        Assertions.assertEquals(ServiceStatus.OK, registry.get(1).getService().getCurrentStatus());
+    }
+
+    @Test
+    void testConcurrentStatusUpdatesAndEditsAreNotLost(Vertx vertx) throws Exception {
+        ServiceRegistry registry = new ServiceRegistry(vertx, null, new Properties());
+        registry.put(service("edit-0"));
+        CountDownLatch start = new CountDownLatch(1);
+        Thread editor = new Thread(() -> {
+            await(start);
+            for (int i = 1; i <= ROUNDS; i++) {
+                registry.put(service("edit-" + i));
+            }
+        });
+        Thread poller = new Thread(() -> {
+            await(start);
+            for (int i = 1; i <= ROUNDS; i++) {
+                registry.updateStatus(1, i % 2 == 0 ? ServiceStatus.OK : ServiceStatus.FAIL,
+                        CircuitBreakerState.CLOSED);
+            }
+        });
+        editor.start();
+        poller.start();
+        start.countDown();
+        editor.join();
+        poller.join();
+
+        // the last edit wins, and it carries the last polled status whatever the interleaving
+        Service service = registry.get(1).getService();
+        Assertions.assertEquals("edit-" + ROUNDS, service.getName());
+        Assertions.assertEquals(ROUNDS % 2 == 0 ? ServiceStatus.OK : ServiceStatus.FAIL, service.getCurrentStatus());
+    }
+
+    @Test
+    void testPageFollowsTheCursorAndFilters(Vertx vertx) throws Exception {
+        ServiceRegistry registry = new ServiceRegistry(vertx, null, new Properties());
+        for (int id = 10; id >= 1; id--) {
+            registry.put(service(id, id % 2 == 0 ? "Even-" + id : "odd-" + id));
+        }
+        registry.remove(4);
+
+        List<Service> page = registry.page(new ServiceQuery(2, 3, null, null));
+        Assertions.assertEquals(List.of(3, 5, 6), ids(page));
+        page = registry.page(new ServiceQuery(0, 3, null, "even"));
+        Assertions.assertEquals(List.of(2, 6, 8), ids(page));
+        registry.updateStatus(7, ServiceStatus.OK, CircuitBreakerState.CLOSED);
+        page = registry.page(new ServiceQuery(0, 10, ServiceStatus.OK, null));
+        Assertions.assertEquals(List.of(7), ids(page));
+    }
+
+    @Test
+    void testIntervalChangesHaveTheirOwnVersion(Vertx vertx) throws Exception {
+        ServiceRegistry registry = new ServiceRegistry(vertx, null, new Properties());
+        registry.put(service("first"));
+        long version = registry.version();
+        long intervalVersion = registry.intervalVersion();
+
+        registry.updateEffectiveInterval(1, 500);
+        registry.updateEffectiveInterval(1, 500);
+
+        Assertions.assertEquals(version, registry.version());
+        Assertions.assertEquals(intervalVersion + 1, registry.intervalVersion());
+        Assertions.assertEquals(500, registry.get(1).getService().getEffectiveIntervalMs());
+    }
+
+    @Test
+    void testChangesMadeWhileReconcilingAreKept(Vertx vertx) throws Exception {
+        Promise<List<Service>> selected = Promise.promise();
+        ServiceRegistry registry = new ServiceRegistry(vertx, repository(selected.future()), new Properties());
+        registry.put(service(1, "first"));
+        registry.put(service(2, "deleted"));
+
+        Future<Void> reconciled = registry.reconcile();
+        // changed through the endpoints while the DB is read, the read predates them
+        registry.put(service(3, "created"));
+        registry.put(service(1, "renamed"));
+        registry.remove(2);
+        selected.complete(List.of(service(1, "first"), service(2, "deleted")));
+
+        Assertions.assertTrue(reconciled.succeeded());
+        Assertions.assertEquals("renamed", registry.get(1).getService().getName());
+        Assertions.assertNull(registry.get(2));
+        Assertions.assertNotNull(registry.get(3));
+    }
+
+    @Test
+    void testReconcileFollowsTheDB(Vertx vertx) throws Exception {
+        ServiceRegistry registry = new ServiceRegistry(vertx,
+                repository(Future.succeededFuture(List.of(service(1, "renamed"), service(3, "added")))),
+                new Properties());
+        registry.put(service(1, "first"));
+        registry.put(service(2, "deleted"));
+        registry.updateStatus(1, ServiceStatus.OK, CircuitBreakerState.CLOSED);
+
+        Assertions.assertTrue(registry.reconcile().succeeded());
+        Assertions.assertEquals("renamed", registry.get(1).getService().getName());
+        Assertions.assertEquals(ServiceStatus.OK, registry.get(1).getService().getCurrentStatus());
+        Assertions.assertNull(registry.get(2));
+        Assertions.assertNotNull(registry.get(3));
+    }
+
+    // only getAll is called by the registry
+    private static ServiceRepository repository(Future<List<Service>> all) {
+        return (ServiceRepository) Proxy.newProxyInstance(ServiceRepository.class.getClassLoader(),
+                new Class<?>[]{ServiceRepository.class}, (proxy, method, args) -> all);
+    }
+
+    private static Service service(String name) throws Exception {
+        return service(1, name);
+    }
+
+    private static Service service(int id, String name) throws Exception {
+        return new Service(id, name, new URL("http://localhost:8080/" + name), null, null);
+    }
+
+    private static List<Integer> ids(List<Service> services) {
+        return services.stream().map(Service::getId).collect(Collectors.toList());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.kry.servicepoller.repositories;
+
+import com.kry.servicepoller.entities.ProbeRollup;
+import com.kry.servicepoller.entities.RollupResolution;
+import com.kry.servicepoller.entities.Service;
+import com.kry.servicepoller.entities.ServiceStatus;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+@ExtendWith(VertxExtension.class)
+public class TestEmbeddedServiceRepository {
+    private static final int SERVICES = 50;
+
+    @Test
+    void testStateIsRecoveredFromLog(Vertx vertx, VertxTestContext testContext, @TempDir Path dir) {
+        Properties properties = properties(dir, 0);
+        ServiceRepository dbCon = new EmbeddedServiceRepository(vertx, properties);
+        dbCon.init()
+                .compose(v -> insertServices(dbCon))
+                .compose(v -> {
+                    // concurrent writes, committed in groups
+                    List<Future> updates = new ArrayList<>();
+                    for (int id = 1; id <= SERVICES; id++) {
+                        updates.add(dbCon.updateStatus(id, id % 2 == 0 ? ServiceStatus.OK : ServiceStatus.FAIL));
+                    }
+                    updates.add(dbCon.delete(SERVICES));
+                    return CompositeFuture.all(updates);
+                })
+                .compose(v -> {
+                    // a record cut by a crash in the middle of an append
+                    try {
+                        Files.write(dir.resolve("store.log"), "{\"op\":\"delete\",\"i".getBytes(StandardCharsets.UTF_8),
+                                StandardOpenOption.APPEND);
+                    } catch (IOException e) {
+                        return Future.failedFuture(e);
+                    }
+                    ServiceRepository recovered = new EmbeddedServiceRepository(vertx, properties);
+                    return recovered.init().compose(w -> recovered.getAll());
+                })
+                .onComplete(testContext.succeeding(services -> testContext.verify(() -> {
+                    Assertions.assertEquals(SERVICES - 1, services.size());
+                    for (Service service : services) {
+                        Assertions.assertEquals("Service " + service.getId(), service.getName());
+                        Assertions.assertEquals(service.getId() % 2 == 0 ? ServiceStatus.OK : ServiceStatus.FAIL,
+                                service.getCurrentStatus());
+                    }
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    void testLogIsCompacted(Vertx vertx, VertxTestContext testContext, @TempDir Path dir) {
+        Properties properties = properties(dir, 100);
+        ServiceRepository dbCon = new EmbeddedServiceRepository(vertx, properties);
+        Future<Void> writes = dbCon.init().compose(v -> insertServices(dbCon));
+        for (int round = 0; round < 10; round++) {
+            ServiceStatus status = round % 2 == 0 ? ServiceStatus.OK : ServiceStatus.FAIL;
+            writes = writes.compose(v -> dbCon.updateStatus(1, status)).mapEmpty();
+        }
+        writes.onComplete(testContext.succeeding(v -> vertx.setTimer(500, l -> testContext.verify(() -> {
+            // the next id and a single put record per service are left
+            Assertions.assertEquals(SERVICES + 1, Files.readAllLines(dir.resolve("store.log")).size());
+            ServiceRepository recovered = new EmbeddedServiceRepository(vertx, properties(dir, 0));
+            recovered.init().compose(w -> recovered.getAll())
+                    .onComplete(testContext.succeeding(services -> testContext.verify(() -> {
+                        Assertions.assertEquals(SERVICES, services.size());
+                        Assertions.assertEquals(ServiceStatus.FAIL, services.get(0).getCurrentStatus());
+                        testContext.completeNow();
+                    })));
+        }))));
+    }
+
+    @Test
+    void testIdsOfDeletedServicesAreNotReusedAfterCompaction(Vertx vertx, VertxTestContext testContext,
+                                                             @TempDir Path dir) {
+        ServiceRepository dbCon = new EmbeddedServiceRepository(vertx, properties(dir, 100));
+        dbCon.init().compose(v -> insertServices(dbCon))
+                .compose(v -> CompositeFuture.all(dbCon.delete(SERVICES - 1), dbCon.delete(SERVICES)))
+                .onComplete(testContext.succeeding(v -> vertx.setTimer(500, l -> {
+                    ServiceRepository recovered = new EmbeddedServiceRepository(vertx, properties(dir, 0));
+                    Service service = new Service();
+                    service.setName("Service " + (SERVICES + 1));
+                    try {
+                        service.setUrl(new URL("http://localhost:9090/health"));
+                    } catch (MalformedURLException e) {
+                        testContext.failNow(e);
+                        return;
+                    }
+                    recovered.init().compose(w -> recovered.insert(service))
+                            .onComplete(testContext.succeeding(inserted -> testContext.verify(() -> {
+                                Assertions.assertTrue(Files.readAllLines(dir.resolve("store.log")).get(0)
+                                        .contains("\"nextId\""));
+                                Assertions.assertEquals(SERVICES + 1, service.getId());
+                                testContext.completeNow();
+                            })));
+                }))));
+    }
+
+    @Test
+    void testRollupsPastRetentionAreEvicted(Vertx vertx, VertxTestContext testContext, @TempDir Path dir) {
+        Properties properties = properties(dir, 0);
+        properties.put("history.retention.minute.hours", "1");
+        ServiceRepository dbCon = new EmbeddedServiceRepository(vertx, properties);
+        long start = RollupResolution.HOUR.bucketStart(System.currentTimeMillis());
+        long minute = RollupResolution.MINUTE.getBucketMillis();
+        Future<Void> writes = dbCon.init().compose(v -> insertServices(dbCon));
+        // two hours of minute rollups, one at a time, and a day rollup way older than the minute retention
+        writes = writes.compose(v -> dbCon.insertRollups(List.of(
+                new ProbeRollup(1, RollupResolution.DAY, start - 10 * RollupResolution.DAY.getBucketMillis(),
+                        1, 0, 1, 1, 1, 1, 1))));
+        for (int i = 0; i < 120; i++) {
+            long bucketStart = start + i * minute;
+            writes = writes.compose(v -> dbCon.insertRollups(List.of(
+                    new ProbeRollup(1, RollupResolution.MINUTE, bucketStart, 1, 0, 1, 1, 1, 1, 1))));
+        }
+        writes.compose(v -> CompositeFuture.all(
+                        dbCon.getRollups(1, RollupResolution.MINUTE, 0, Long.MAX_VALUE),
+                        dbCon.getRollups(1, RollupResolution.DAY, 0, Long.MAX_VALUE)))
+                .onComplete(testContext.succeeding(results -> testContext.verify(() -> {
+                    List<ProbeRollup> minutes = results.resultAt(0);
+                    // the newest one and the hour before it
+                    Assertions.assertEquals(61, minutes.size());
+                    Assertions.assertEquals(start + 59 * minute, minutes.get(0).getBucketStart());
+                    Assertions.assertEquals(1, results.<List<ProbeRollup>>resultAt(1).size());
+                    testContext.completeNow();
+                })));
+    }
+
+    @Test
+    void testGetById(Vertx vertx, VertxTestContext testContext, @TempDir Path dir) {
+        ServiceRepository dbCon = new EmbeddedServiceRepository(vertx, properties(dir, 0));
+        dbCon.init().compose(v -> insertServices(dbCon))
+                .compose(v -> CompositeFuture.all(dbCon.get(2), dbCon.get(SERVICES + 1)))
+                .onComplete(testContext.succeeding(results -> testContext.verify(() -> {
+                    Assertions.assertEquals(2, results.<Service>resultAt(0).getId());
+                    Assertions.assertNull(results.resultAt(1));
+                    testContext.completeNow();
+                })));
+    }
+
+    private static Future<Void> insertServices(ServiceRepository dbCon) {
+        List<Future> inserts = new ArrayList<>();
+        for (int i = 1; i <= SERVICES; i++) {
+            Service service = new Service();
+            service.setName("Service " + i);
+            try {
+                service.setUrl(new URL("http://localhost:9090/health?id=" + i));
+            } catch (MalformedURLException e) {
+                return Future.failedFuture(e);
+            }
+            inserts.add(dbCon.insert(service));
+        }
+        return CompositeFuture.all(inserts).mapEmpty();
+    }
+
+    private static Properties properties(Path dir, long compactionInterval) {
+        Properties properties = new Properties();
+        properties.put("db.embedded.path", dir.resolve("store.log").toString());
+        properties.put("db.embedded.compaction.interval.ms", String.valueOf(compactionInterval));
+        return properties;
+    }
+}
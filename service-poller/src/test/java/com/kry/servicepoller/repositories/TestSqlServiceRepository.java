@@ -0,0 +1,60 @@
+package com.kry.servicepoller.repositories;
+
+import com.kry.servicepoller.entities.Service;
+import io.vertx.core.Vertx;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Properties;
+
+@ExtendWith(VertxExtension.class)
+public class TestSqlServiceRepository {
+    private static final String DB_URL =
+            "jdbc:h2:mem:baselinedb;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE";
+
+    @Test
+    void testOlderSchemaIsMigrated(Vertx vertx, VertxTestContext testContext) throws Exception {
+        // the service table of the first release, kept open so that the in-memory DB outlives the statement
+        Connection baseline = DriverManager.getConnection(DB_URL, "sa", "");
+        try (Statement statement = baseline.createStatement()) {
+            statement.execute("CREATE TABLE service (id INT NOT NULL AUTO_INCREMENT, name VARCHAR(255) NOT NULL, "
+                    + "url VARCHAR(255) NOT NULL, created_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP(), "
+                    + "current_status VARCHAR(5) NOT NULL DEFAULT 'FAIL', PRIMARY KEY (id))");
+            statement.execute("INSERT INTO service(name, url) VALUES ('Service A', 'http://localhost:9090/health')");
+        }
+        Properties properties = new Properties();
+        properties.put("db.url", DB_URL);
+        properties.put("db.username", "sa");
+        properties.put("db.password", "");
+        properties.put("db.poolsize", "2");
+        properties.put("db.init.script.path", "h2-init.sql");
+        Service service = new Service();
+        service.setName("Service B");
+        service.setUrl(new URL("http://localhost:9091/health"));
+        service.setPollIntervalMs(5000);
+        service.setAdaptivePolling(true);
+
+        ServiceRepository migrating = new JDBCServiceRepository(vertx, properties);
+        ServiceRepository dbCon = new JDBCServiceRepository(vertx, properties);
+        migrating.init()
+                // the next start finds the schema up to date
+                .compose(v -> dbCon.init())
+                .compose(v -> dbCon.insert(service))
+                .compose(v -> dbCon.getAll())
+                .onComplete(testContext.succeeding(services -> testContext.verify(() -> {
+                    Assertions.assertEquals(2, services.size());
+                    Assertions.assertNull(services.get(0).getPollIntervalMs());
+                    Assertions.assertEquals(5000, services.get(1).getPollIntervalMs());
+                    Assertions.assertEquals(Boolean.TRUE, services.get(1).getAdaptivePolling());
+                    baseline.close();
+                    testContext.completeNow();
+                })));
+    }
+}